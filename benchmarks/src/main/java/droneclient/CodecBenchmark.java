@@ -0,0 +1,73 @@
+package droneclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/* Segment encode/decode per telemetry code: the legacy allocating paths (toBytes, DroneSegment(byte[])) against the
+ * shared codec writing into a reused buffer and the flyweight view reading in place. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"102", "103", "104", "105", "108", "109"})
+    public short code;
+
+    private DroneClientServer.DroneSegment segment;
+    private byte[] datagram;
+    private ByteBuffer direct;
+    private DroneSegmentView view;
+    private short[] scratch;
+
+    @Setup
+    public void setup() {
+        this.segment = Segments.segment(this.code);
+        this.datagram = Segments.datagram(this.code);
+        this.direct = ByteBuffer.allocateDirect(64);
+        this.view = new DroneSegmentView();
+        this.scratch = new short[16];
+    }
+
+    @Benchmark
+    public byte[] encodeToBytes() {
+        return this.segment.toBytes();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeIntoBuffer() {
+        this.direct.clear();
+        return DroneSegmentCodec.encode(this.direct, this.segment);
+    }
+
+    @Benchmark
+    public DroneClientServer.DroneSegment decodeLegacy() {
+        return new DroneClientServer.DroneSegment(this.datagram);
+    }
+
+    @Benchmark
+    public DroneClientServer.DroneSegment decodeCodec() {
+        return DroneSegmentCodec.decode(this.datagram, 0, this.datagram.length);
+    }
+
+    @Benchmark
+    public int decodeView() {
+        this.view.wrap(this.datagram, 0, this.datagram.length);
+        return this.view.code() + this.view.copyPayload(this.scratch);
+    }
+}
@@ -0,0 +1,86 @@
+package droneclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/* Typed decoding (RawImu, Attitude, ...) from raw datagram bytes: building a DroneSegment and then a new record from
+ * its payload, against refilling one reused record straight from the view. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"102", "103", "104", "105", "108", "109"})
+    public short code;
+
+    private byte[] datagram;
+    private final DroneSegmentView view = new DroneSegmentView();
+    private final DroneClientServer.DroneSegment.RawImu rawImu = new DroneClientServer.DroneSegment.RawImu();
+    private final DroneClientServer.DroneSegment.Servo servo = new DroneClientServer.DroneSegment.Servo();
+    private final DroneClientServer.DroneSegment.Motor motor = new DroneClientServer.DroneSegment.Motor();
+    private final DroneClientServer.DroneSegment.Rc rc = new DroneClientServer.DroneSegment.Rc();
+    private final DroneClientServer.DroneSegment.Attitude attitude = new DroneClientServer.DroneSegment.Attitude();
+    private final DroneClientServer.DroneSegment.Altitude altitude = new DroneClientServer.DroneSegment.Altitude();
+
+    @Setup
+    public void setup() {
+        this.datagram = Segments.datagram(this.code);
+    }
+
+    @Benchmark
+    public Object decodeFromPayload() {
+        final DroneClientServer.DroneSegment segment = new DroneClientServer.DroneSegment(this.datagram);
+        switch (segment.code) {
+            case DroneClientServer.DroneSegment.RAW_IMU:
+                return new DroneClientServer.DroneSegment.RawImu(segment.payload);
+            case DroneClientServer.DroneSegment.SERVO:
+                return new DroneClientServer.DroneSegment.Servo(segment.payload);
+            case DroneClientServer.DroneSegment.MOTOR:
+                return new DroneClientServer.DroneSegment.Motor(segment.payload);
+            case DroneClientServer.DroneSegment.RC:
+                return new DroneClientServer.DroneSegment.Rc(segment.payload);
+            case DroneClientServer.DroneSegment.ATTITUDE:
+                return new DroneClientServer.DroneSegment.Attitude(segment.payload);
+            case DroneClientServer.DroneSegment.ALTITUDE:
+                return new DroneClientServer.DroneSegment.Altitude(segment.payload);
+            default:
+                return segment;
+        }
+    }
+
+    @Benchmark
+    public Object decodeFromView() {
+        this.view.wrap(this.datagram, 0, this.datagram.length);
+        switch (this.view.code()) {
+            case DroneClientServer.DroneSegment.RAW_IMU:
+                return this.rawImu.read(this.view);
+            case DroneClientServer.DroneSegment.SERVO:
+                return this.servo.read(this.view);
+            case DroneClientServer.DroneSegment.MOTOR:
+                return this.motor.read(this.view);
+            case DroneClientServer.DroneSegment.RC:
+                return this.rc.read(this.view);
+            case DroneClientServer.DroneSegment.ATTITUDE:
+                return this.attitude.read(this.view);
+            case DroneClientServer.DroneSegment.ALTITUDE:
+                return this.altitude.read(this.view);
+            default:
+                return this.view;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package droneclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/* Callback dispatch for a mixed stream of telemetry datagrams: the legacy callback receiving a copied DroneSegment,
+ * the code-indexed TelemetryListeners with typed handlers, and a hand-written switch as the lower bound. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    private byte[][] datagrams;
+    private int next;
+    private final DroneSegmentView view = new DroneSegmentView();
+    private final DroneClientServer.DroneSegment.RawImu rawImu = new DroneClientServer.DroneSegment.RawImu();
+    private final DroneClientServer.DroneSegment.Attitude attitude = new DroneClientServer.DroneSegment.Attitude();
+    private final DroneClientServer.DroneSegment.Altitude altitude = new DroneClientServer.DroneSegment.Altitude();
+    private TelemetryListeners listeners;
+    private Consumer<DroneClientServer.DroneSegment> legacyCallback;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        this.blackhole = blackhole;
+        this.datagrams = new byte[Segments.TELEMETRY_CODES.length][];
+        for (int i = 0; i < this.datagrams.length; i++) {
+            this.datagrams[i] = Segments.datagram(Segments.TELEMETRY_CODES[i]);
+        }
+        this.listeners = new TelemetryListeners()
+                .onRawImu(blackhole::consume)
+                .onAttitude(blackhole::consume)
+                .onAltitude(blackhole::consume);
+        this.legacyCallback = segment -> {
+            switch (segment.code) {
+                case DroneClientServer.DroneSegment.RAW_IMU:
+                    blackhole.consume(new DroneClientServer.DroneSegment.RawImu(segment.payload));
+                    break;
+                case DroneClientServer.DroneSegment.ATTITUDE:
+                    blackhole.consume(new DroneClientServer.DroneSegment.Attitude(segment.payload));
+                    break;
+                case DroneClientServer.DroneSegment.ALTITUDE:
+                    blackhole.consume(new DroneClientServer.DroneSegment.Altitude(segment.payload));
+                    break;
+                default:
+                    break;
+            }
+        };
+    }
+
+    private DroneSegmentView nextView() {
+        final byte[] datagram = this.datagrams[this.next];
+        this.next = this.next + 1 == this.datagrams.length ? 0 : this.next + 1;
+        return this.view.wrap(datagram, 0, datagram.length);
+    }
+
+    @Benchmark
+    public void legacyCallback() {
+        this.legacyCallback.accept(nextView().copy());
+    }
+
+    @Benchmark
+    public boolean listeners() {
+        return this.listeners.dispatch(nextView());
+    }
+
+    @Benchmark
+    public void switchBaseline() {
+        final DroneSegmentView view = nextView();
+        switch (view.code()) {
+            case DroneClientServer.DroneSegment.RAW_IMU:
+                this.blackhole.consume(this.rawImu.read(view));
+                break;
+            case DroneClientServer.DroneSegment.ATTITUDE:
+                this.blackhole.consume(this.attitude.read(view));
+                break;
+            case DroneClientServer.DroneSegment.ALTITUDE:
+                this.blackhole.consume(this.altitude.read(view));
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package droneclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/* End-to-end receive latency: the benchmark plays the drone on its own transport, sends one RAW_IMU datagram carrying a
+ * sequence number and spins until the client's telemetry callback has seen it. This covers the receive thread, the
+ * dispatcher hand-off and the callback, for the legacy copying callback, the view callback and the typed listener,
+ * over loopback UDP and over the in-process LoopbackTransport, which leaves out the kernel. */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackBenchmark {
+
+    private static final long RESEND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    @Param({"SEGMENT", "VIEW", "LISTENER"})
+    public String callback;
+
+    @Param({"UDP", "LOOPBACK"})
+    public String transport;
+
+    private DroneTransport drone;
+    private DroneClientServer client;
+    private final ByteBuffer outbound = ByteBuffer.allocateDirect(64);
+    private short sequence;
+    private volatile short received;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        final DroneTransport clientEnd;
+        if ("UDP".equals(this.transport)) {
+            final DatagramChannel droneChannel = DatagramChannel.open()
+                    .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final UdpTransport udp = new UdpTransport((InetSocketAddress) droneChannel.getLocalAddress());
+            this.drone = new UdpTransport(droneChannel.connect(udp.getLocalAddress()));
+            clientEnd = udp;
+        } else {
+            final LoopbackTransport[] pair = LoopbackTransport.pair();
+            this.drone = pair[1];
+            clientEnd = pair[0];
+        }
+        this.client = new DroneClientServer(clientEnd, ExecutionMode.PLATFORM);
+        switch (this.callback) {
+            case "SEGMENT":
+                this.client.setOnTelemetryCallback(segment -> this.received = segment.payload[0]);
+                break;
+            case "VIEW":
+                this.client.setOnTelemetryViewCallback(view -> this.received = view.payload(0));
+                break;
+            default:
+                this.client.getTelemetryListeners().onRawImu(imu -> this.received = imu.accx);
+                break;
+        }
+        final CompletableFuture<Void> connected = this.client.startAsync();
+        this.reply(DroneClientServer.DroneSegment.START_CONNECTION, DroneClientServer.DroneSegment.CONNECTION_ACCEPTED);
+        connected.get(5, TimeUnit.SECONDS);
+        final CompletableFuture<Void> telemetry = this.client.startTelemetryAsync();
+        this.reply(DroneClientServer.DroneSegment.START_TELEMETRY, DroneClientServer.DroneSegment.TELEMETRY_ACCEPTED);
+        telemetry.get(5, TimeUnit.SECONDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.client.close();
+        this.drone.close();
+    }
+
+    @Benchmark
+    public short receiveToCallback() throws IOException {
+        final short expected = ++this.sequence;
+        this.outbound.clear();
+        this.outbound.putShort(DroneClientServer.DroneSegment.RAW_IMU).putShort((short) 18).putShort(expected);
+        for (int i = 1; i < 9; i++) {
+            this.outbound.putShort((short) i);
+        }
+        this.outbound.flip();
+        this.drone.send(this.outbound);
+        // Loopback rarely drops datagrams, but resend rather than spin forever if it does.
+        long deadline = System.nanoTime() + RESEND_NANOS;
+        while (this.received != expected) {
+            if (System.nanoTime() - deadline > 0) {
+                this.outbound.rewind();
+                this.drone.send(this.outbound);
+                deadline = System.nanoTime() + RESEND_NANOS;
+            }
+            Thread.onSpinWait();
+        }
+        return expected;
+    }
+
+    // Waits for the client's command and answers it the way the MultiWii server does.
+
+    private void reply(final short command, final short reply) throws IOException {
+        final byte[] inbound = new byte[64];
+        while (true) {
+            final int length = this.drone.receive(inbound, 0, inbound.length, -1);
+            if (length >= 4 && ByteBuffer.wrap(inbound).getShort() == command) {
+                break;
+            }
+        }
+        this.outbound.clear();
+        DroneSegmentCodec.encodeCommand(this.outbound, reply).flip();
+        this.drone.send(this.outbound);
+    }
+}
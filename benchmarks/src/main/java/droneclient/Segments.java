@@ -0,0 +1,53 @@
+package droneclient;
+
+import java.nio.ByteBuffer;
+
+/* Sample telemetry datagrams shared by the benchmarks. Payload lengths match what the MultiWii server sends for each
+ * telemetry code, and values are non-trivial so the JIT cannot fold the decoding away. */
+
+final class Segments {
+
+    static final short[] TELEMETRY_CODES = {
+            DroneClientServer.DroneSegment.RAW_IMU,
+            DroneClientServer.DroneSegment.SERVO,
+            DroneClientServer.DroneSegment.MOTOR,
+            DroneClientServer.DroneSegment.RC,
+            DroneClientServer.DroneSegment.ATTITUDE,
+            DroneClientServer.DroneSegment.ALTITUDE
+    };
+
+    private Segments() {
+    }
+
+    static int payloadCount(final short code) {
+        switch (code) {
+            case DroneClientServer.DroneSegment.RAW_IMU:
+                return 9;
+            case DroneClientServer.DroneSegment.SERVO:
+            case DroneClientServer.DroneSegment.MOTOR:
+            case DroneClientServer.DroneSegment.RC:
+                return 4;
+            case DroneClientServer.DroneSegment.ATTITUDE:
+                return 3;
+            case DroneClientServer.DroneSegment.ALTITUDE:
+                return 2;
+            default:
+                throw new IllegalArgumentException("Not a telemetry code: " + code);
+        }
+    }
+
+    static DroneClientServer.DroneSegment segment(final short code) {
+        final short[] payload = new short[payloadCount(code)];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (short) (1000 + code * 7 + i * 31);
+        }
+        return new DroneClientServer.DroneSegment(code, (short) (payload.length * 2), payload);
+    }
+
+    static byte[] datagram(final short code) {
+        final DroneClientServer.DroneSegment segment = segment(code);
+        final byte[] bytes = new byte[DroneSegmentCodec.encodedLength(segment)];
+        DroneSegmentCodec.encode(ByteBuffer.wrap(bytes), segment);
+        return bytes;
+    }
+}
@@ -0,0 +1,137 @@
+package droneclient;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/* Optional per-packet telemetry log. record() only copies the segment and its receive time into a TelemetryDispatcher
+ * ring with the DROP_NEWEST policy, so a slow disk or terminal can never hold up the receive or dispatcher threads;
+ * when the log falls behind, segments are dropped and counted instead. A single writer thread formats one line per
+ * segment into a large buffer and flushes it whenever the ring runs empty, so bursts become a few large writes. The
+ * first write error stops the log: it is kept for getFailure() and close(), and later segments count as dropped. */
+
+public class AsyncTelemetryLog implements Consumer<DroneSegmentView>, AutoCloseable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TelemetryDispatcher dispatcher;
+    private final Writer writer;
+    private final StringBuilder line = new StringBuilder(128);
+    // Wall clock at startNanos, to print System.nanoTime() receive times as epoch millis.
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile IOException failure;
+
+    public AsyncTelemetryLog(final OutputStream out) {
+        this(out, 4096);
+    }
+
+    // capacity is the number of segments that may wait for the writer thread.
+
+    public AsyncTelemetryLog(final OutputStream out, final int capacity) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        this.dispatcher = new TelemetryDispatcher(capacity, 64, 1, TelemetryDispatcher.WaitStrategy.PARK,
+                TelemetryDispatcher.OverflowPolicy.DROP_NEWEST);
+        this.dispatcher.start(this::write, this::flush, runnable -> {
+            final Thread thread = new Thread(runnable, "telemetry-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Logs every segment of the given codes. Listeners run on the dispatcher threads, so these lines carry the time a
+    // segment was dispatched; DroneClientServer.setTelemetryLog logs the receive time instead.
+
+    public AsyncTelemetryLog attach(final TelemetryListeners listeners, final int... codes) {
+        for (final int code : codes) {
+            listeners.on(code, this);
+        }
+        return this;
+    }
+
+    // Logs a segment as received now. Suitable as a telemetry callback.
+
+    @Override
+    public void accept(final DroneSegmentView view) {
+        this.record(System.nanoTime(), view);
+    }
+
+    // Logs a segment received at nanoTime (a System.nanoTime() value).
+
+    public void record(final long nanoTime, final DroneSegmentView view) {
+        this.dispatcher.publish(view.buffer(), view.offset(), view.length(), nanoTime);
+    }
+
+    public long getLoggedCount() {
+        return this.dispatcher.getDeliveredCount() - this.failedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return this.dispatcher.getDroppedCount() + this.failedCount.get();
+    }
+
+    // The write error that stopped the log, or null.
+
+    public IOException getFailure() {
+        return this.failure;
+    }
+
+    // Flushes what is left and rethrows the write error that stopped the log, if any.
+
+    @Override
+    public void close() throws IOException {
+        this.dispatcher.close();
+        if (this.failure == null) {
+            synchronized (this.writer) {
+                this.writer.flush();
+            }
+        }
+        if (this.failure != null) {
+            throw this.failure;
+        }
+    }
+
+    // Runs on the writer thread: "<epoch millis> <code name> <payload values>", with the time of receipt.
+
+    private void write(final long receivedAt, final DroneSegmentView view) {
+        if (this.failure != null) {
+            this.failedCount.incrementAndGet();
+            return;
+        }
+        this.line.setLength(0);
+        this.line.append(this.startMillis + TimeUnit.NANOSECONDS.toMillis(receivedAt - this.startNanos)).append(' ')
+                .append(DroneClientServer.DroneSegment.nameOf(view.code() & 0xFFFF));
+        for (int i = 0; i < view.payloadLength(); i++) {
+            this.line.append(' ').append(view.payload(i));
+        }
+        this.line.append('\n');
+        try {
+            synchronized (this.writer) {
+                this.writer.append(this.line);
+            }
+        } catch (IOException e) {
+            this.failure = e;
+            this.failedCount.incrementAndGet();
+        }
+    }
+
+    private void flush() {
+        if (this.failure != null) {
+            return;
+        }
+        try {
+            synchronized (this.writer) {
+                this.writer.flush();
+            }
+        } catch (IOException e) {
+            this.failure = e;
+        }
+    }
+}
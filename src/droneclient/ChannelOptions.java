@@ -0,0 +1,79 @@
+package droneclient;
+
+import java.io.IOException;
+
+/* Per-channel settings for the receive side of a link: the socket receive buffer (SO_RCVBUF), how long one receive
+ * waits before it is counted as a timeout, and the priority of the thread reading the channel. With separate command
+ * and telemetry channels, a small buffer and a high priority on the command side keep command replies prompt while a
+ * large telemetry buffer absorbs bursts. */
+
+public class ChannelOptions {
+
+    public static final long DEFAULT_RECEIVE_TIMEOUT_MILLIS = 1000;
+
+    // 0 keeps the operating system's default buffer size.
+    private int receiveBufferSize;
+    private long receiveTimeoutMillis = DEFAULT_RECEIVE_TIMEOUT_MILLIS;
+    private int threadPriority = Thread.NORM_PRIORITY;
+
+    public ChannelOptions() {
+    }
+
+    public ChannelOptions(final int receiveBufferSize, final long receiveTimeoutMillis, final int threadPriority) {
+        this.setReceiveBufferSize(receiveBufferSize);
+        this.setReceiveTimeoutMillis(receiveTimeoutMillis);
+        this.setThreadPriority(threadPriority);
+    }
+
+    public int getReceiveBufferSize() {
+        return this.receiveBufferSize;
+    }
+
+    // Requested SO_RCVBUF in bytes; the kernel may round or cap it (net.core.rmem_max on Linux).
+
+    public void setReceiveBufferSize(final int receiveBufferSize) {
+        if (receiveBufferSize < 0) {
+            throw new IllegalArgumentException("receiveBufferSize must not be negative: " + receiveBufferSize);
+        }
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    public long getReceiveTimeoutMillis() {
+        return this.receiveTimeoutMillis;
+    }
+
+    public void setReceiveTimeoutMillis(final long receiveTimeoutMillis) {
+        if (receiveTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("receiveTimeoutMillis must be positive: " + receiveTimeoutMillis);
+        }
+        this.receiveTimeoutMillis = receiveTimeoutMillis;
+    }
+
+    public int getThreadPriority() {
+        return this.threadPriority;
+    }
+
+    // Ignored for virtual threads, which always run at normal priority.
+
+    public void setThreadPriority(final int threadPriority) {
+        if (threadPriority < Thread.MIN_PRIORITY || threadPriority > Thread.MAX_PRIORITY) {
+            throw new IllegalArgumentException("threadPriority out of range: " + threadPriority);
+        }
+        this.threadPriority = threadPriority;
+    }
+
+    // Applies the buffer size to the transport and the priority to its receive thread.
+
+    void apply(final DroneTransport transport, final Thread receiveThread) throws IOException {
+        if (this.receiveBufferSize > 0) {
+            transport.setReceiveBufferSize(this.receiveBufferSize);
+        }
+        receiveThread.setPriority(this.threadPriority);
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelOptions{receiveBufferSize=" + this.receiveBufferSize + ", receiveTimeoutMillis="
+                + this.receiveTimeoutMillis + ", threadPriority=" + this.threadPriority + "}";
+    }
+}
@@ -0,0 +1,182 @@
+package droneclient;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/* Matches replies read by the receive threads to the commands waiting for them. The base protocol has no request ids,
+ * so a command registers the reply code it expects (e.g. 301 for START_CONNECTION) and replies complete the oldest
+ * pending request for their code. Sequenced control commands (see ReliableCommandSender) also register their sequence
+ * number, and only an acknowledgement echoing it completes them, so late duplicates are ignored. The receive thread
+ * asks isExpected() first, which is a single array read, so telemetry is never held up by the correlation bookkeeping.
+ * Every request carries its own timeout. */
+
+public class CommandCorrelator implements AutoCloseable {
+
+    // Sequence of a request that any reply with its code completes.
+    public static final int NO_SEQUENCE = -1;
+
+    private static final int MAX_CODE = 512;
+
+    private final ArrayDeque<Pending>[] queues;
+    private final AtomicIntegerArray pendingCounts = new AtomicIntegerArray(MAX_CODE);
+    private final ScheduledExecutorService scheduler;
+
+    public CommandCorrelator(final ThreadFactory threadFactory) {
+        this.queues = newQueues();
+        for (int i = 0; i < MAX_CODE; i++) {
+            this.queues[i] = new ArrayDeque<>();
+        }
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+        executor.setRemoveOnCancelPolicy(true);
+        this.scheduler = executor;
+    }
+
+    // Registers interest in the next reply with replyCode. Must be called before the command is sent, so a fast reply
+    // cannot be missed.
+
+    public CompletableFuture<DroneClientServer.DroneSegment> expect(final short replyCode, final long timeout,
+                                                                    final TimeUnit unit) {
+        return this.expect(replyCode, NO_SEQUENCE, timeout, unit);
+    }
+
+    // Same for a reply whose first payload value must echo sequence.
+
+    public CompletableFuture<DroneClientServer.DroneSegment> expect(final short replyCode, final int sequence,
+                                                                    final long timeout, final TimeUnit unit) {
+        final int index = replyCode & 0xFFFF;
+        if (index >= MAX_CODE) {
+            throw new IllegalArgumentException("Reply code out of range: " + replyCode);
+        }
+        final Pending pending = new Pending(index, sequence);
+        synchronized (this.queues[index]) {
+            this.queues[index].addLast(pending);
+            this.pendingCounts.incrementAndGet(index);
+        }
+        pending.timeout = this.scheduler.schedule(() -> {
+            if (this.remove(pending)) {
+                pending.future.completeExceptionally(new TimeoutException(
+                        "No reply " + replyCode + " within " + unit.toMillis(timeout) + " ms"));
+            }
+        }, timeout, unit);
+        return pending.future;
+    }
+
+    public boolean isExpected(final int code) {
+        final int index = code & 0xFFFF;
+        return index < MAX_CODE && this.pendingCounts.get(index) > 0;
+    }
+
+    // Completes the oldest request waiting for the view's code whose sequence, if it has one, the view echoes. Returns
+    // false when nobody is waiting for it.
+
+    public boolean complete(final DroneSegmentView view) {
+        final int index = view.code() & 0xFFFF;
+        if (index >= MAX_CODE) {
+            return false;
+        }
+        final int sequence = view.payloadLength() > 0 ? view.payload(0) & 0xFFFF : NO_SEQUENCE;
+        Pending pending = null;
+        synchronized (this.queues[index]) {
+            final Iterator<Pending> iterator = this.queues[index].iterator();
+            while (iterator.hasNext()) {
+                final Pending candidate = iterator.next();
+                if (candidate.sequence == NO_SEQUENCE || candidate.sequence == sequence) {
+                    iterator.remove();
+                    pending = candidate;
+                    break;
+                }
+            }
+            if (pending == null) {
+                return false;
+            }
+            this.pendingCounts.decrementAndGet(index);
+        }
+        pending.cancelTimeout();
+        pending.future.complete(view.copy());
+        return true;
+    }
+
+    // Abandons a request, e.g. because its command could not be sent.
+
+    public void fail(final short replyCode, final CompletableFuture<DroneClientServer.DroneSegment> future,
+                     final Throwable error) {
+        final int index = replyCode & 0xFFFF;
+        synchronized (this.queues[index]) {
+            final Iterator<Pending> iterator = this.queues[index].iterator();
+            while (iterator.hasNext()) {
+                final Pending pending = iterator.next();
+                if (pending.future == future) {
+                    iterator.remove();
+                    this.pendingCounts.decrementAndGet(index);
+                    pending.cancelTimeout();
+                    break;
+                }
+            }
+        }
+        future.completeExceptionally(error);
+    }
+
+    public void failAll(final Throwable error) {
+        for (int index = 0; index < MAX_CODE; index++) {
+            synchronized (this.queues[index]) {
+                Pending pending;
+                while ((pending = this.queues[index].pollFirst()) != null) {
+                    this.pendingCounts.decrementAndGet(index);
+                    pending.cancelTimeout();
+                    pending.future.completeExceptionally(error);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        this.failAll(new IllegalStateException("Connection closed"));
+        this.scheduler.shutdownNow();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayDeque<Pending>[] newQueues() {
+        return (ArrayDeque<Pending>[]) new ArrayDeque[MAX_CODE];
+    }
+
+    private boolean remove(final Pending pending) {
+        synchronized (this.queues[pending.index]) {
+            if (this.queues[pending.index].remove(pending)) {
+                this.pendingCounts.decrementAndGet(pending.index);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class Pending {
+
+        private final int index;
+        private final int sequence;
+        private final CompletableFuture<DroneClientServer.DroneSegment> future = new CompletableFuture<>();
+        private volatile ScheduledFuture<?> timeout;
+
+        private Pending(final int index, final int sequence) {
+            this.index = index;
+            this.sequence = sequence;
+        }
+
+        // The timeout is scheduled after the request is queued, so a fast reply may arrive before it exists.
+
+        private void cancelTimeout() {
+            final ScheduledFuture<?> scheduled = this.timeout;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+    }
+}
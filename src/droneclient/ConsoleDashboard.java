@@ -0,0 +1,215 @@
+package droneclient;
+
+import java.io.PrintStream;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/* Console view of the latest telemetry. update() only copies the segment into the slot of its code, so the telemetry
+ * threads never touch the console; a separate render thread redraws one compact frame per refresh period (10 Hz by
+ * default) with the latest value, rate and age of every code, written with a single print. */
+
+public class ConsoleDashboard implements AutoCloseable {
+
+    private static final int MAX_CODE = 512;
+    private static final int SLOT_SIZE = 40;
+    private static final String CLEAR_SCREEN = "\033[H\033[2J";
+
+    private final PrintStream out;
+    private final long periodNanos;
+    private final boolean clearScreen;
+    private final Slot[] slots = new Slot[MAX_CODE];
+    private final long[] renderedCounts = new long[MAX_CODE];
+    private final StringBuilder frame = new StringBuilder(1024);
+    private final byte[] scratch = new byte[SLOT_SIZE];
+    private final DroneSegmentView view = new DroneSegmentView();
+    private final DroneClientServer.DroneSegment.RawImu rawImu = new DroneClientServer.DroneSegment.RawImu();
+    private final DroneClientServer.DroneSegment.Servo servo = new DroneClientServer.DroneSegment.Servo();
+    private final DroneClientServer.DroneSegment.Motor motor = new DroneClientServer.DroneSegment.Motor();
+    private final DroneClientServer.DroneSegment.Rc rc = new DroneClientServer.DroneSegment.Rc();
+    private final DroneClientServer.DroneSegment.Attitude attitude = new DroneClientServer.DroneSegment.Attitude();
+    private final DroneClientServer.DroneSegment.Altitude altitude = new DroneClientServer.DroneSegment.Altitude();
+
+    private Thread renderThread;
+    private volatile boolean running;
+    private long lastRenderNanos;
+
+    public ConsoleDashboard() {
+        this(System.out, 10, true);
+    }
+
+    // clearScreen redraws in place with ANSI escapes; without it every frame is appended, e.g. for log files.
+
+    public ConsoleDashboard(final PrintStream out, final double refreshHz, final boolean clearScreen) {
+        if (refreshHz <= 0) {
+            throw new IllegalArgumentException("refreshHz must be positive");
+        }
+        this.out = out;
+        this.periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / refreshHz);
+        this.clearScreen = clearScreen;
+        for (int i = 0; i < MAX_CODE; i++) {
+            this.slots[i] = new Slot();
+        }
+    }
+
+    // Shows the six telemetry codes.
+
+    public ConsoleDashboard attach(final TelemetryListeners listeners) {
+        listeners.on(DroneClientServer.DroneSegment.RAW_IMU, this::update)
+                .on(DroneClientServer.DroneSegment.SERVO, this::update)
+                .on(DroneClientServer.DroneSegment.MOTOR, this::update)
+                .on(DroneClientServer.DroneSegment.RC, this::update)
+                .on(DroneClientServer.DroneSegment.ATTITUDE, this::update)
+                .on(DroneClientServer.DroneSegment.ALTITUDE, this::update);
+        return this;
+    }
+
+    // Keeps the segment as the latest value of its code. Never blocks on the console.
+
+    public void update(final DroneSegmentView view) {
+        final int code = view.code() & 0xFFFF;
+        if (code >= MAX_CODE) {
+            return;
+        }
+        final Slot slot = this.slots[code];
+        final int length = Math.min(view.length(), SLOT_SIZE);
+        synchronized (slot) {
+            System.arraycopy(view.buffer(), view.offset(), slot.bytes, 0, length);
+            slot.length = length;
+            slot.count++;
+            slot.updatedAt = System.nanoTime();
+        }
+    }
+
+    public void start() {
+        this.start(runnable -> {
+            final Thread thread = new Thread(runnable, "console-dashboard");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public synchronized void start(final ThreadFactory threadFactory) {
+        if (this.renderThread != null) {
+            throw new IllegalStateException("Dashboard already started");
+        }
+        this.running = true;
+        this.lastRenderNanos = System.nanoTime();
+        this.renderThread = threadFactory.newThread(this::onRenderThreadRun);
+        this.renderThread.start();
+    }
+
+    @Override
+    public synchronized void close() {
+        this.running = false;
+        if (this.renderThread != null) {
+            LockSupport.unpark(this.renderThread);
+            try {
+                this.renderThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.renderThread = null;
+        }
+    }
+
+    private void onRenderThreadRun() {
+        long next = System.nanoTime() + this.periodNanos;
+        while (this.running) {
+            final long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            next += this.periodNanos;
+            if (System.nanoTime() - next > 0) {
+                // Fell behind (e.g. a slow terminal); skip the missed frames instead of bursting.
+                next = System.nanoTime() + this.periodNanos;
+            }
+            this.render();
+        }
+    }
+
+    // Builds the whole frame first, so the console sees one write per refresh.
+
+    private void render() {
+        final long now = System.nanoTime();
+        final double seconds = Math.max(1, now - this.lastRenderNanos) / 1e9;
+        this.lastRenderNanos = now;
+        this.frame.setLength(0);
+        if (this.clearScreen) {
+            this.frame.append(CLEAR_SCREEN);
+        }
+        for (int code = 0; code < MAX_CODE; code++) {
+            final Slot slot = this.slots[code];
+            final int length;
+            final long count;
+            final long updatedAt;
+            synchronized (slot) {
+                length = slot.length;
+                count = slot.count;
+                updatedAt = slot.updatedAt;
+                System.arraycopy(slot.bytes, 0, this.scratch, 0, length);
+            }
+            if (count == 0) {
+                continue;
+            }
+            final double rate = (count - this.renderedCounts[code]) / seconds;
+            this.renderedCounts[code] = count;
+            this.frame.append(String.format("%-9s %7.1f/s %6.0fms  ", DroneClientServer.DroneSegment.nameOf(code),
+                    rate, Math.max(0, now - updatedAt) / 1e6));
+            this.describe(this.view.wrap(this.scratch, 0, length));
+            this.frame.append(System.lineSeparator());
+        }
+        this.out.print(this.frame);
+        this.out.flush();
+    }
+
+    private void describe(final DroneSegmentView view) {
+        switch (view.code()) {
+            case DroneClientServer.DroneSegment.RAW_IMU:
+                this.rawImu.read(view);
+                this.frame.append(String.format("acc %6d %6d %6d  gyro %6d %6d %6d  mag %6d %6d %6d",
+                        this.rawImu.accx, this.rawImu.accy, this.rawImu.accz, this.rawImu.gyrx, this.rawImu.gyry,
+                        this.rawImu.gyrz, this.rawImu.magx, this.rawImu.magy, this.rawImu.magz));
+                break;
+            case DroneClientServer.DroneSegment.SERVO:
+                this.servo.read(view);
+                this.frame.append(String.format("s1 %5d  s2 %5d  s3 %5d  s4 %5d",
+                        this.servo.s1, this.servo.s2, this.servo.s3, this.servo.s4));
+                break;
+            case DroneClientServer.DroneSegment.MOTOR:
+                this.motor.read(view);
+                this.frame.append(String.format("m1 %5d  m2 %5d  m3 %5d  m4 %5d",
+                        this.motor.m1, this.motor.m2, this.motor.m3, this.motor.m4));
+                break;
+            case DroneClientServer.DroneSegment.RC:
+                this.rc.read(view);
+                this.frame.append(String.format("roll %5d  pitch %5d  yaw %5d  throttle %5d",
+                        this.rc.roll, this.rc.pitch, this.rc.yaw, this.rc.throttle));
+                break;
+            case DroneClientServer.DroneSegment.ATTITUDE:
+                this.attitude.read(view);
+                this.frame.append(String.format("angx %6.1f  angy %6.1f  heading %4d",
+                        this.attitude.angx / 10.0, this.attitude.angy / 10.0, this.attitude.heading));
+                break;
+            case DroneClientServer.DroneSegment.ALTITUDE:
+                this.altitude.read(view);
+                this.frame.append(String.format("estalt %6d  vario %6d", this.altitude.estalt, this.altitude.vario));
+                break;
+            default:
+                for (int i = 0; i < view.payloadLength(); i++) {
+                    this.frame.append(view.payload(i)).append(' ');
+                }
+                break;
+        }
+    }
+
+    private static final class Slot {
+
+        private final byte[] bytes = new byte[SLOT_SIZE];
+        private int length;
+        private long count;
+        private long updatedAt;
+    }
+}
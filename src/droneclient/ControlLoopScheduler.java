@@ -0,0 +1,331 @@
+package droneclient;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/* Runs closed-loop controllers at a fixed rate on top of SET_RC. Every tick takes one consistent snapshot of the
+ * freshest telemetry from a VehicleState, runs the controllers in order on it (each one writes the RC channels it
+ * owns, e.g. throttle for altitude hold, roll and pitch for attitude hold) and sends the resulting RC command.
+ *
+ * Ticks are scheduled against absolute deadlines, parking until shortly before each one and yielding for the rest as
+ * RcStreamer does, so timing errors do not accumulate. Controllers always get the nominal period as dt, which keeps
+ * their behaviour deterministic whatever the scheduling jitter. A tick that starts a whole period late is skipped
+ * rather than run in a burst, and it and any tick that finishes after the next one was due count as deadline misses.
+ *
+ * The loop usually runs faster than its inputs arrive, so controllers see the same sample on several ticks; the
+ * built-in ones hand the sample time to PidController so the derivative only moves on new samples. When an input is
+ * older than getMaxInputAgeNanos() the link is considered lost: the tick runs no controller and sends nothing, so the
+ * flight controller's own RC failsafe takes over, and is counted as a stale tick.
+ *
+ * Per tick the scheduler records, in LatencyHistograms:
+ *  - latency: from the receipt of the newest input segment the tick used to the moment its SET_RC was sent,
+ *  - jitter: how late the tick started after its deadline,
+ *  - compute time: snapshot, controllers and send. */
+
+public class ControlLoopScheduler implements AutoCloseable {
+
+    public interface Controller {
+
+        // Updates command from state. Runs on the loop thread; command holds the previous tick's values on entry.
+
+        void update(VehicleState.Snapshot state, double dtSeconds, DroneClientServer.DroneSegment.Rc command);
+    }
+
+    public static final int MIN_RATE_HZ = 1;
+    public static final int MAX_RATE_HZ = 1000;
+
+    // Remaining time below which the loop stops parking and yields until the deadline.
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    // A few periods of the default 50 Hz telemetry.
+    public static final long DEFAULT_MAX_INPUT_AGE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final short[] DEFAULT_INPUT_CODES = {
+            DroneClientServer.DroneSegment.ATTITUDE, DroneClientServer.DroneSegment.ALTITUDE};
+
+    private final VehicleState vehicleState;
+    private final RcStreamer.RcSender sender;
+    private final Controller[] controllers;
+    private final long periodNanos;
+    private final double periodSeconds;
+    private final Thread thread;
+
+    private final VehicleState.Snapshot snapshot = new VehicleState.Snapshot();
+    private final DroneClientServer.DroneSegment.Rc command = new DroneClientServer.DroneSegment.Rc();
+    private volatile short[] inputCodes = DEFAULT_INPUT_CODES;
+    private volatile long maxInputAgeNanos = DEFAULT_MAX_INPUT_AGE_NANOS;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram jitter = new LatencyHistogram();
+    private final LatencyHistogram computeTime = new LatencyHistogram();
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong missedDeadlines = new AtomicLong();
+    private final AtomicLong waitingTicks = new AtomicLong();
+    private final AtomicLong staleTicks = new AtomicLong();
+    private final AtomicLong sendErrors = new AtomicLong();
+
+    private volatile boolean running;
+
+    public ControlLoopScheduler(final VehicleState vehicleState, final RcStreamer.RcSender sender, final int rateHz,
+                                final ThreadFactory threadFactory, final Controller... controllers) {
+        if (rateHz < MIN_RATE_HZ || rateHz > MAX_RATE_HZ) {
+            throw new IllegalArgumentException("Control rate must be between " + MIN_RATE_HZ + " and " + MAX_RATE_HZ
+                    + " Hz");
+        }
+        if (controllers.length == 0) {
+            throw new IllegalArgumentException("At least one controller is required");
+        }
+        this.vehicleState = vehicleState;
+        this.sender = sender;
+        this.controllers = controllers.clone();
+        this.periodNanos = TimeUnit.SECONDS.toNanos(1) / rateHz;
+        this.periodSeconds = this.periodNanos / 1e9;
+        this.thread = threadFactory.newThread(this::run);
+        // Neutral sticks and idle throttle until a controller sets them.
+        this.command.roll = 1500;
+        this.command.pitch = 1500;
+        this.command.yaw = 1500;
+        this.command.throttle = 1000;
+    }
+
+    // Message codes the controllers read (ATTITUDE and ALTITUDE by default). No command is sent until each of them
+    // has been received once, and the latency of a tick is measured from the newest of them.
+
+    public void setInputCodes(final short... inputCodes) {
+        for (final short code : inputCodes) {
+            if (!VehicleState.contains(code)) {
+                throw new IllegalArgumentException("Not part of the vehicle state: " + code);
+            }
+        }
+        this.inputCodes = inputCodes.clone();
+    }
+
+    public long getMaxInputAgeNanos() {
+        return this.maxInputAgeNanos;
+    }
+
+    // Age beyond which an input is stale and ticks send nothing, e.g. TimeUnit.MILLISECONDS.toNanos(100).
+
+    public void setMaxInputAgeNanos(final long maxInputAgeNanos) {
+        if (maxInputAgeNanos <= 0) {
+            throw new IllegalArgumentException("maxInputAgeNanos must be positive: " + maxInputAgeNanos);
+        }
+        this.maxInputAgeNanos = maxInputAgeNanos;
+    }
+
+    public void start() {
+        this.running = true;
+        this.thread.start();
+    }
+
+    public long getPeriodNanos() {
+        return this.periodNanos;
+    }
+
+    public long getTickCount() {
+        return this.ticks.get();
+    }
+
+    public long getMissedDeadlineCount() {
+        return this.missedDeadlines.get();
+    }
+
+    // Ticks that sent nothing because an input code had not been received yet.
+
+    public long getWaitingTickCount() {
+        return this.waitingTicks.get();
+    }
+
+    // Ticks that sent nothing because an input was older than getMaxInputAgeNanos().
+
+    public long getStaleTickCount() {
+        return this.staleTicks.get();
+    }
+
+    public long getSendErrorCount() {
+        return this.sendErrors.get();
+    }
+
+    public LatencyHistogram.Snapshot getLatency() {
+        return this.latency.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getJitter() {
+        return this.jitter.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getComputeTime() {
+        return this.computeTime.snapshot();
+    }
+
+    @Override
+    public void close() {
+        this.running = false;
+        LockSupport.unpark(this.thread);
+        if (Thread.currentThread() != this.thread) {
+            try {
+                this.thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ControlLoopScheduler{periodNanos=" + this.periodNanos + ", ticks=" + this.ticks.get()
+                + ", missedDeadlines=" + this.missedDeadlines.get() + ", waiting=" + this.waitingTicks.get()
+                + ", stale=" + this.staleTicks.get() + ", sendErrors=" + this.sendErrors.get()
+                + ", latency=" + this.latency.snapshot()
+                + ", jitter=" + this.jitter.snapshot() + ", computeTime=" + this.computeTime.snapshot() + "}";
+    }
+
+    private void run() {
+        long deadline = System.nanoTime();
+        while (this.running) {
+            this.awaitDeadline(deadline);
+            if (!this.running) {
+                return;
+            }
+
+            final long startedAt = System.nanoTime();
+            final long late = startedAt - deadline;
+            if (late >= this.periodNanos) {
+                final long missed = late / this.periodNanos;
+                this.missedDeadlines.addAndGet(missed);
+                deadline += missed * this.periodNanos;
+            }
+            this.jitter.record(startedAt - deadline);
+
+            this.tick(startedAt);
+
+            deadline += this.periodNanos;
+            if (System.nanoTime() - deadline > 0) {
+                // Still running when the next tick was due.
+                this.missedDeadlines.incrementAndGet();
+            }
+        }
+    }
+
+    private void tick(final long startedAt) {
+        this.ticks.incrementAndGet();
+        final VehicleState.Snapshot state = this.vehicleState.read(this.snapshot);
+        long newestInput = Long.MIN_VALUE;
+        long oldestInput = Long.MAX_VALUE;
+        for (final short code : this.inputCodes) {
+            if (!state.has(code)) {
+                this.waitingTicks.incrementAndGet();
+                return;
+            }
+            final long updatedAt = state.getUpdatedAt(code);
+            newestInput = Math.max(newestInput, updatedAt);
+            oldestInput = Math.min(oldestInput, updatedAt);
+        }
+        if (startedAt - oldestInput > this.maxInputAgeNanos) {
+            this.staleTicks.incrementAndGet();
+            return;
+        }
+        for (final Controller controller : this.controllers) {
+            controller.update(state, this.periodSeconds, this.command);
+        }
+        try {
+            this.sender.sendRc(this.command.roll, this.command.pitch, this.command.yaw, this.command.throttle);
+        } catch (IOException e) {
+            this.sendErrors.incrementAndGet();
+            return;
+        }
+        final long sentAt = System.nanoTime();
+        this.latency.record(sentAt - newestInput);
+        this.computeTime.record(sentAt - startedAt);
+    }
+
+    private void awaitDeadline(final long deadline) {
+        long remaining;
+        while (this.running && (remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /* Holds ALTITUDE estalt (cm) at a target by adjusting throttle around a hover value. */
+
+    public static class AltitudeHold implements Controller {
+
+        private final PidController pid;
+        private final short hoverThrottle;
+        private volatile double targetCentimeters;
+
+        // pid's output is the throttle offset from hoverThrottle, e.g. limits of -300..300.
+
+        public AltitudeHold(final PidController pid, final short hoverThrottle, final double targetCentimeters) {
+            this.pid = pid;
+            this.hoverThrottle = hoverThrottle;
+            this.targetCentimeters = targetCentimeters;
+        }
+
+        // Safe to call from any thread; takes effect on the next tick.
+
+        public void setTargetCentimeters(final double targetCentimeters) {
+            this.targetCentimeters = targetCentimeters;
+        }
+
+        public double getTargetCentimeters() {
+            return this.targetCentimeters;
+        }
+
+        @Override
+        public void update(final VehicleState.Snapshot state, final double dtSeconds,
+                           final DroneClientServer.DroneSegment.Rc command) {
+            final double output = this.pid.update(this.targetCentimeters, state.altitude.estalt,
+                    state.getUpdatedAt(DroneClientServer.DroneSegment.ALTITUDE), dtSeconds);
+            command.throttle = rcValue(this.hoverThrottle + output);
+        }
+    }
+
+    /* Holds ATTITUDE angx/angy (tenths of a degree) at target angles by adjusting the roll and pitch sticks around
+     * their centre. */
+
+    public static class AttitudeHold implements Controller {
+
+        private final PidController rollPid;
+        private final PidController pitchPid;
+        private volatile double targetRoll;
+        private volatile double targetPitch;
+
+        // The PIDs' outputs are stick offsets from 1500, e.g. limits of -500..500.
+
+        public AttitudeHold(final PidController rollPid, final PidController pitchPid) {
+            this.rollPid = rollPid;
+            this.pitchPid = pitchPid;
+        }
+
+        // Target angles in tenths of a degree, as ATTITUDE reports them. Safe to call from any thread.
+
+        public void setTarget(final double targetRoll, final double targetPitch) {
+            this.targetRoll = targetRoll;
+            this.targetPitch = targetPitch;
+        }
+
+        @Override
+        public void update(final VehicleState.Snapshot state, final double dtSeconds,
+                           final DroneClientServer.DroneSegment.Rc command) {
+            final long sampleNanos = state.getUpdatedAt(DroneClientServer.DroneSegment.ATTITUDE);
+            command.roll = rcValue(1500 + this.rollPid.update(this.targetRoll, state.attitude.angx, sampleNanos,
+                    dtSeconds));
+            command.pitch = rcValue(1500 + this.pitchPid.update(this.targetPitch, state.attitude.angy, sampleNanos,
+                    dtSeconds));
+        }
+    }
+
+    // Rounds to an RC value in the 1000..2000 range the flight controller accepts.
+
+    static short rcValue(final double value) {
+        return (short) Math.max(1000, Math.min(2000, Math.round(value)));
+    }
+}
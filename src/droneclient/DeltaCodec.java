@@ -0,0 +1,274 @@
+package droneclient;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/* Compact telemetry encoding negotiated with FEATURE_DELTA. Every message code is sent as a keyframe followed by delta
+ * segments until the next keyframe. Both have the code with DELTA_FLAG set and a size counting their payload bytes.
+ * Their payload starts with an unsigned varint holding the frame number of the code shifted left by one, with the low
+ * bit set for keyframes. A keyframe then carries the plain big-endian payload values, a delta one zig-zag varint per
+ * value holding the difference to the previous sample of that code. Slowly changing values therefore take one byte
+ * instead of two.
+ *
+ * Frame numbers count every frame of a code, keyframes included, and keep increasing across keyframes, so a delta
+ * only applies to the exact frame before it. Keyframes are sent every keyframeInterval frames per code, and whenever a
+ * delta would not be smaller. A lost frame of either kind breaks the delta chain, so the decoder discards deltas
+ * after a gap until the next keyframe instead of rebuilding wrong values. Frames that arrive late, duplicates
+ * included, are at or behind the newest frame of their code and are discarded without touching the chain. */
+
+public final class DeltaCodec {
+
+    public static final int DELTA_FLAG = 0x8000;
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 32;
+
+    private static final int MAX_CODE = 512;
+    private static final int MAX_VALUES = 64;
+
+    // Frame numbers wrap within 30 bits so the shifted header always fits a positive int.
+    private static final int FRAME_MASK = 0x3FFFFFFF;
+    private static final int KEYFRAME_BIT = 1;
+    // How far behind the newest frame a late frame may be; anything older is taken for a restarted encoder.
+    private static final int REORDER_WINDOW = 1024;
+
+    private DeltaCodec() {
+    }
+
+    public static boolean isDelta(final short code) {
+        return (code & DELTA_FLAG) != 0;
+    }
+
+    // Server side: keeps the previous sample of every code. Not thread-safe; use one encoder per client session.
+
+    public static final class Encoder {
+
+        private final int keyframeInterval;
+        private final short[][] previous = new short[MAX_CODE][];
+        private final int[] counts = new int[MAX_CODE];
+        private final int[] sinceKeyframe = new int[MAX_CODE];
+        private final int[] frames = new int[MAX_CODE];
+
+        public Encoder() {
+            this(DEFAULT_KEYFRAME_INTERVAL);
+        }
+
+        public Encoder(final int keyframeInterval) {
+            if (keyframeInterval < 1 || keyframeInterval > 127) {
+                throw new IllegalArgumentException("keyframeInterval must be in 1..127");
+            }
+            this.keyframeInterval = keyframeInterval;
+        }
+
+        // Writes a keyframe or a delta segment for payload[0, count) at the buffer's position. Codes the decoder
+        // cannot track are written as plain segments.
+
+        public ByteBuffer encode(final ByteBuffer dst, final short code, final short[] payload, final int count) {
+            if (code < 0 || code >= MAX_CODE || count > MAX_VALUES) {
+                return DroneSegmentCodec.encode(dst, code, payload, count);
+            }
+            short[] reference = this.previous[code];
+            if (reference == null) {
+                reference = new short[MAX_VALUES];
+                this.previous[code] = reference;
+            }
+            final int frame = (this.frames[code] + 1) & FRAME_MASK;
+            final int sequence = this.sinceKeyframe[code];
+            if (sequence == 0 || sequence >= this.keyframeInterval || this.counts[code] != count) {
+                return this.keyframe(dst, code, payload, count, reference, frame);
+            }
+
+            final int start = dst.position();
+            dst.putShort((short) (code | DELTA_FLAG)).putShort((short) 0);
+            putVarint(dst, frame << 1);
+            final int header = dst.position() - start - DroneSegmentCodec.HEADER_LENGTH;
+            for (int i = 0; i < count; i++) {
+                putVarint(dst, zigZag(payload[i] - reference[i]));
+            }
+            final int size = dst.position() - start - DroneSegmentCodec.HEADER_LENGTH;
+            if (size >= header + count * 2) {
+                // No gain over a keyframe, which restarts the chain under the same frame number.
+                dst.position(start);
+                return this.keyframe(dst, code, payload, count, reference, frame);
+            }
+            dst.putShort(start + 2, (short) size);
+            System.arraycopy(payload, 0, reference, 0, count);
+            this.frames[code] = frame;
+            this.sinceKeyframe[code] = sequence + 1;
+            return dst;
+        }
+
+        // Forces a keyframe for every code on the next frame, e.g. when telemetry is restarted. Frame numbers keep
+        // counting, so no delta sent before the reset can apply to a keyframe sent after it.
+
+        public void reset() {
+            for (int i = 0; i < MAX_CODE; i++) {
+                this.sinceKeyframe[i] = 0;
+            }
+        }
+
+        private ByteBuffer keyframe(final ByteBuffer dst, final short code, final short[] payload, final int count,
+                                    final short[] reference, final int frame) {
+            final int start = dst.position();
+            dst.putShort((short) (code | DELTA_FLAG)).putShort((short) 0);
+            putVarint(dst, frame << 1 | KEYFRAME_BIT);
+            for (int i = 0; i < count; i++) {
+                dst.putShort(payload[i]);
+            }
+            dst.putShort(start + 2, (short) (dst.position() - start - DroneSegmentCodec.HEADER_LENGTH));
+            System.arraycopy(payload, 0, reference, 0, count);
+            this.counts[code] = count;
+            this.frames[code] = frame;
+            this.sinceKeyframe[code] = 1;
+            return dst;
+        }
+    }
+
+    // Client side: rebuilds plain segments from keyframes and deltas. Only used by the receive thread.
+
+    public static final class Decoder {
+
+        private final short[][] previous = new short[MAX_CODE][];
+        private final int[] counts = new int[MAX_CODE];
+        // Newest frame number seen for each code, or -1 before the first one, and whether the reference holds it.
+        private final int[] frames = new int[MAX_CODE];
+        private final boolean[] intact = new boolean[MAX_CODE];
+        private long discarded;
+
+        public Decoder() {
+            Arrays.fill(this.frames, -1);
+        }
+
+        // Breaks the chain of a code the server sent as a plain segment; no delta can follow an unnumbered frame.
+
+        public void plain(final byte[] buffer, final int offset, final int length) {
+            final int code = DroneSegmentView.code(buffer, offset);
+            if (code >= 0 && code < MAX_CODE) {
+                this.intact[code] = false;
+            }
+        }
+
+        // Decodes the keyframe or delta segment in src[offset, offset + length) into a plain segment at dst[dstOffset]
+        // and returns its length, or 0 when the frame arrived late, when a delta cannot be applied because its keyframe
+        // or a previous frame was lost, or when the segment is malformed.
+
+        public int decode(final byte[] src, final int offset, final int length, final byte[] dst, final int dstOffset) {
+            final int code = DroneSegmentView.code(src, offset) & 0x7FFF;
+            final int end = offset + DroneSegmentCodec.segmentLength(src, offset, offset + length);
+            if (code >= MAX_CODE) {
+                this.discarded++;
+                return 0;
+            }
+            int position = offset + DroneSegmentCodec.HEADER_LENGTH;
+            int header = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (position >= end || shift > 28) {
+                    this.discarded++;
+                    return 0;
+                }
+                b = src[position++];
+                header |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            final int frame = header >>> 1;
+            if (this.frames[code] >= 0 && isBehind(frame, this.frames[code])) {
+                // A duplicate or reordered frame: newer values have already been delivered.
+                this.discarded++;
+                return 0;
+            }
+            short[] reference = this.previous[code];
+            if (reference == null) {
+                reference = new short[MAX_VALUES];
+                this.previous[code] = reference;
+            }
+
+            final int count;
+            if ((header & KEYFRAME_BIT) != 0) {
+                count = Math.min(MAX_VALUES, (end - position) / 2);
+                if (dst.length - dstOffset < DroneSegmentCodec.HEADER_LENGTH + count * 2) {
+                    return this.broken(code, frame);
+                }
+                for (int i = 0; i < count; i++) {
+                    final int at = position + i * 2;
+                    reference[i] = (short) (src[at]<<8 &0xFF00 | src[at+1]&0xFF);
+                }
+                this.counts[code] = count;
+            } else {
+                count = this.counts[code];
+                if (!this.intact[code] || frame != ((this.frames[code] + 1) & FRAME_MASK)
+                        || dst.length - dstOffset < DroneSegmentCodec.HEADER_LENGTH + count * 2) {
+                    // A frame of the chain went missing: wait for the next keyframe.
+                    return this.broken(code, frame);
+                }
+                int value = 0;
+                shift = 0;
+                int index = 0;
+                while (position < end && index < count) {
+                    b = src[position++];
+                    value |= (b & 0x7F) << shift;
+                    if ((b & 0x80) != 0) {
+                        shift += 7;
+                        continue;
+                    }
+                    reference[index] = (short) (reference[index] + unZigZag(value));
+                    index++;
+                    value = 0;
+                    shift = 0;
+                }
+                if (index != count) {
+                    return this.broken(code, frame);
+                }
+            }
+            final int needed = DroneSegmentCodec.HEADER_LENGTH + count * 2;
+            this.frames[code] = frame;
+            this.intact[code] = true;
+            dst[dstOffset] = (byte) (code >>> 8);
+            dst[dstOffset + 1] = (byte) code;
+            dst[dstOffset + 2] = (byte) ((count * 2) >>> 8);
+            dst[dstOffset + 3] = (byte) (count * 2);
+            for (int i = 0; i < count; i++) {
+                dst[dstOffset + 4 + i * 2] = (byte) (reference[i] >>> 8);
+                dst[dstOffset + 5 + i * 2] = (byte) reference[i];
+            }
+            return needed;
+        }
+
+        // Segments dropped because they arrived late, their chain was broken or they were malformed.
+
+        public long getDiscardedCount() {
+            return this.discarded;
+        }
+
+        // Drops frame, which is ahead of the newest one, and waits for the next keyframe.
+
+        private int broken(final int code, final int frame) {
+            this.frames[code] = frame;
+            this.intact[code] = false;
+            this.discarded++;
+            return 0;
+        }
+
+        // Whether frame is newest or up to REORDER_WINDOW frames before it, allowing for wrap-around at FRAME_MASK.
+
+        private static boolean isBehind(final int frame, final int newest) {
+            final int behind = (newest - frame) & FRAME_MASK;
+            return behind <= REORDER_WINDOW;
+        }
+    }
+
+    private static void putVarint(final ByteBuffer dst, int value) {
+        while ((value & ~0x7F) != 0) {
+            dst.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        dst.put((byte) value);
+    }
+
+    private static int zigZag(final int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(final int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,441 @@
+package droneclient;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+public class DroneClient {
+
+    private static final short START_CONNECTION = 300;
+    private static final short CONNECTION_ACCEPTED = 301;
+    private static final short END_CONNECTION = 302;
+    private static final short ARM = 220;
+    private static final short DISARM = 221;
+    private static final short START_TELEMETRY = 120;
+    private static final short TELEMETRY_ACCEPTED = 121;
+    private static final short END_TELEMETRY = 122;
+    private static final short BATCH = 130;
+    private static final short RAW_IMU = 102;
+    private static final short SERVO = 103;
+    private static final short MOTOR = 104;
+    private static final short RC = 105;
+    private static final short ATTITUDE = 108;
+    private static final short ALTITUDE = 109;
+    private static final short SET_RC = 200;
+
+    private String ip;
+    private int telemetryPort;
+    private int commandPort;
+
+    private static final long DEFAULT_COMMAND_TIMEOUT_MILLIS = 1000;
+
+    private DroneTransport commandTransport;
+    private DroneTransport telemetryTransport;
+    private boolean dualChannel;
+    private ChannelOptions commandChannelOptions = new ChannelOptions();
+    private ChannelOptions telemetryChannelOptions = new ChannelOptions();
+    private InetAddress address;
+
+    private byte[] commandBuf;
+    private byte[] telemetryBuf;
+
+    // Commands are encoded into this direct buffer and sent without allocating.
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(64);
+
+    private long commandTimeoutMillis = DEFAULT_COMMAND_TIMEOUT_MILLIS;
+    private final RetransmissionTimer retransmissionTimer = new RetransmissionTimer();
+
+    private boolean connectionStarted;
+    private boolean telemetryActive;
+    private short requestedFeatures;
+    private short features;
+    private DeltaCodec.Decoder deltaDecoder;
+    private final byte[] deltaBuf = new byte[DroneSegmentCodec.HEADER_LENGTH + 128];
+
+    private TelemetryThread telemetryThread;
+
+    private final TelemetryListeners telemetryListeners = new TelemetryListeners();
+    private final TelemetryMetrics telemetryMetrics = new TelemetryMetrics();
+    private final ConsoleDashboard dashboard = new ConsoleDashboard();
+    private volatile AsyncTelemetryLog telemetryLog;
+
+
+    public DroneClient(String ip, int commandPort, int telemetryPort) throws IOException {
+
+        this(new UdpTransport(new InetSocketAddress(InetAddress.getByName(ip), commandPort)));
+        this.ip = ip;
+        this.telemetryPort = telemetryPort;
+        this.commandPort = commandPort;
+        this.address = InetAddress.getByName(ip);
+    }
+
+    // Runs the protocol over any transport, e.g. one end of LoopbackTransport.pair().
+
+    public DroneClient(DroneTransport transport) {
+
+        this(transport, null);
+    }
+
+    // Dual-channel mode over any pair of transports: telemetry is started, received and stopped on telemetryTransport.
+
+    public DroneClient(DroneTransport commandTransport, DroneTransport telemetryTransport) {
+
+        this.commandTransport = commandTransport;
+        this.telemetryTransport = telemetryTransport;
+        this.dualChannel = telemetryTransport != null;
+        this.commandBuf = new byte[40];
+        this.telemetryBuf = new byte[DroneSegmentCodec.MAX_DATAGRAM_LENGTH];
+        this.connectionStarted = false;
+        this.telemetryActive = false;
+
+        this.dashboard.attach(this.telemetryListeners);
+    }
+
+    // Receives telemetry on its own socket connected to telemetryPort instead of sharing the command socket, so a
+    // telemetry burst does not queue in front of command replies. Must be called before startTelemetry.
+
+    public void setDualChannel(boolean dualChannel) {
+        this.dualChannel = dualChannel;
+    }
+
+    // How long startConnection and startTelemetry keep retransmitting before giving up.
+
+    public void setCommandTimeout(long timeoutMillis) {
+        this.commandTimeoutMillis = timeoutMillis;
+    }
+
+    // SO_RCVBUF of the command socket; applied by startConnection.
+
+    public void setCommandChannelOptions(ChannelOptions commandChannelOptions) {
+        this.commandChannelOptions = commandChannelOptions;
+    }
+
+    // SO_RCVBUF, receive timeout and thread priority of the telemetry thread's socket; applied by startTelemetry.
+
+    public void setTelemetryChannelOptions(ChannelOptions telemetryChannelOptions) {
+        this.telemetryChannelOptions = telemetryChannelOptions;
+    }
+
+    // Per-message-code telemetry subscriptions. The console dashboard registered by the constructor can be replaced
+    // with remove(code) followed by on(code, ...).
+
+    public TelemetryListeners getTelemetryListeners() {
+        return this.telemetryListeners;
+    }
+
+    // Receive counts, rates, jitter, handshake round trips and callback timings; see TelemetryMetrics.
+
+    public TelemetryMetrics getTelemetryMetrics() {
+        return this.telemetryMetrics;
+    }
+
+    // Optional per-packet log of every received segment; null turns it off. The caller owns and closes the log.
+
+    public void setTelemetryLog(AsyncTelemetryLog telemetryLog) {
+        this.telemetryLog = telemetryLog;
+    }
+
+    // Asks the server to pack several telemetry segments per datagram; see DroneClientServer.setTelemetryBatching.
+    // Must be called before startConnection.
+
+    public void setTelemetryBatching(boolean telemetryBatching) {
+        this.requestFeature(DroneClientServer.DroneSegment.FEATURE_BATCH, telemetryBatching);
+    }
+
+    // Asks the server for delta-encoded telemetry (see DeltaCodec). Must be called before startConnection.
+
+    public void setTelemetryDeltaEncoding(boolean telemetryDeltaEncoding) {
+        this.requestFeature(DroneClientServer.DroneSegment.FEATURE_DELTA, telemetryDeltaEncoding);
+    }
+
+    private void requestFeature(short feature, boolean enabled) {
+        this.requestedFeatures =
+                (short) (enabled ? this.requestedFeatures | feature : this.requestedFeatures & ~feature);
+    }
+
+    public short getFeatures() {
+        return this.features;
+    }
+
+    public void startConnection () {
+
+        if (!this.connectionStarted) {
+
+            try {
+                if (this.commandChannelOptions.getReceiveBufferSize() > 0) {
+                    this.commandTransport.setReceiveBufferSize(this.commandChannelOptions.getReceiveBufferSize());
+                }
+                System.out.println("Start connection command sent");
+
+                int length = this.handshake(this.commandTransport, this.commandBuf, START_CONNECTION,
+                        this.requestedFeatures, CONNECTION_ACCEPTED);
+                if (length < 0) {
+                    System.out.println("No reply to start connection within " + this.commandTimeoutMillis + " ms");
+                } else {
+                    this.features = length >= 6
+                            ? (short) (this.getShort(this.commandBuf, 4) & this.requestedFeatures) : 0;
+                    this.deltaDecoder = (this.features & DroneClientServer.DroneSegment.FEATURE_DELTA) != 0
+                            ? new DeltaCodec.Decoder() : null;
+                    this.connectionStarted = true;
+                    System.out.println("Connection started!");
+                }
+
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+        }
+    }
+
+    public void endConnection() {
+
+        if (this.connectionStarted) {
+            try {
+                this.sendCommand(END_CONNECTION);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public void startTelemetry () {
+
+        if (!this.telemetryActive) {
+
+            try {
+
+                if (!this.dualChannel) {
+                    telemetryTransport=commandTransport;
+                } else if (telemetryTransport == null || !telemetryTransport.isOpen()) {
+                    if (this.address == null) {
+                        throw new IOException("Telemetry transport is closed");
+                    }
+                    telemetryTransport=new UdpTransport(new InetSocketAddress(this.address, this.telemetryPort));
+                }
+
+                System.out.println("Start telemetry command sent\n");
+                System.out.print("Waiting for telemetry response...\n");
+
+                if (this.handshake(telemetryTransport, this.telemetryBuf, START_TELEMETRY, (short) 0,
+                        TELEMETRY_ACCEPTED) < 0) {
+                    System.out.println("No reply to start telemetry within " + this.commandTimeoutMillis + " ms");
+                } else {
+                    this.telemetryActive = true;
+                    System.out.print("Telemetry started!\n");
+                }
+
+                if (this.telemetryActive) {
+
+                    this.telemetryThread = new TelemetryThread();
+                    this.telemetryChannelOptions.apply(telemetryTransport, this.telemetryThread);
+                    this.telemetryThread.start();
+                    this.dashboard.start();
+                }
+
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+    }
+
+    public void stopTelemetry() {
+
+        if (this.telemetryActive) {
+            try {
+                this.sendCommand(telemetryTransport, END_TELEMETRY);
+                System.out.println("Stop telemetry command sent");
+                this.telemetryActive = false;
+                this.dashboard.close();
+                if (telemetryTransport != commandTransport) {
+                    telemetryTransport.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Routes a received segment to its subscribers; codes without a subscriber are skipped undecoded.
+
+    private void evaluateTelemetry(DroneSegmentView segment) {
+        long startedAt = System.nanoTime();
+        this.telemetryListeners.dispatch(segment);
+        this.telemetryMetrics.recordCallback(System.nanoTime() - startedAt);
+    }
+
+    public void setRc(short roll, short pitch, short yaw, short throttle) {
+
+        try {
+            synchronized (this.sendBuffer) {
+                this.sendBuffer.clear();
+                DroneSegmentCodec.encodeSetRc(this.sendBuffer, roll, pitch, yaw, throttle).flip();
+                this.commandTransport.send(this.sendBuffer);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void ARM () {
+
+        try {
+            this.sendCommand(ARM);
+            System.out.println("ARM command sent\n");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void DISARM () {
+
+        try {
+            this.sendCommand(DISARM);
+            System.out.println("DISARM command sent\n");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void sendCommand(short code) throws IOException {
+        this.sendCommand(code, (short) 0);
+    }
+
+    private void sendCommand(short code, short argument) throws IOException {
+        this.sendCommand(this.commandTransport, code, argument);
+    }
+
+    private void sendCommand(DroneTransport transport, short code) throws IOException {
+        this.sendCommand(transport, code, (short) 0);
+    }
+
+    private void sendCommand(DroneTransport transport, short code, short argument) throws IOException {
+
+        synchronized (this.sendBuffer) {
+            this.sendBuffer.clear();
+            DroneSegmentCodec.encodeCommand(this.sendBuffer, code, argument).flip();
+            transport.send(this.sendBuffer);
+        }
+    }
+
+    // Sends a handshake command and retransmits it with exponential backoff until replyCode arrives or the command
+    // timeout has passed. Returns the length of the reply left in buf, or -1 if none arrived in time.
+
+    private int handshake(DroneTransport transport, byte[] buf, short code, short argument, short replyCode)
+            throws IOException {
+
+        long startTime = System.nanoTime();
+        long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(this.commandTimeoutMillis);
+        long resendAt = startTime;
+        long rto = this.retransmissionTimer.getRtoNanos();
+        int transmissions = 0;
+
+        while (true) {
+            long now = System.nanoTime();
+            if (deadline - now <= 0) {
+                return -1;
+            }
+            if (now - resendAt >= 0) {
+                if (transmissions > 0) {
+                    rto = this.retransmissionTimer.backoff(rto);
+                }
+                this.sendCommand(transport, code, argument);
+                transmissions++;
+                resendAt = now + rto;
+            }
+            long wait = Math.min(deadline, resendAt) - now;
+            int length = transport.receive(buf, 0, buf.length, Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+            if (length >= 4 && this.getCode(buf) == replyCode) {
+                // Matched by code only, so it may answer an earlier attempt: recorded, but not sampled for the RTO.
+                this.telemetryMetrics.recordRoundTrip(replyCode, System.nanoTime() - startTime);
+                return length;
+            }
+        }
+    }
+
+    private short getCode(byte[] response) {
+        return this.getShort(response, 0);
+    }
+
+    private short getShort(byte[] arr, int off) {
+        return (short) (arr[off]<<8 &0xFF00 | arr[off+1]&0xFF);
+    }
+
+    private class TelemetryThread extends Thread {
+
+        @Override
+        public void run() {
+
+            DroneSegmentView segment = new DroneSegmentView();
+
+            while (telemetryActive && telemetryTransport.isOpen()) {
+
+                try {
+
+                    int received = telemetryTransport.receive(telemetryBuf, 0, telemetryBuf.length,
+                            telemetryChannelOptions.getReceiveTimeoutMillis());
+                    long receivedAt = System.nanoTime();
+
+                    if (received < 0) {
+                        telemetryMetrics.recordReceiveTimeout();
+                    } else if (received >= 4 && getCode(telemetryBuf) == BATCH) {
+
+                        int end = DroneSegmentCodec.segmentLength(telemetryBuf, 0, received);
+                        int offset = DroneSegmentCodec.HEADER_LENGTH;
+                        int length;
+                        while ((length = DroneSegmentCodec.segmentLength(telemetryBuf, offset, end)) > 0) {
+                            onSegment(segment, offset, length, receivedAt);
+                            offset += length;
+                        }
+                    } else if (received >= 4) {
+
+                        onSegment(segment, 0, received, receivedAt);
+                    } else {
+                        telemetryMetrics.recordMalformed();
+                    }
+
+                } catch (IOException e) {
+                    if (telemetryActive) {
+                        telemetryMetrics.recordReceiveError();
+                        e.printStackTrace();
+                    }
+
+                }
+
+            }
+
+        }
+
+        private void onSegment(DroneSegmentView segment, int offset, int length, long receivedAt) {
+
+            byte[] buffer = telemetryBuf;
+            if (deltaDecoder != null) {
+                if (DeltaCodec.isDelta(getShort(buffer, offset))) {
+                    length = deltaDecoder.decode(buffer, offset, length, deltaBuf, 0);
+                    if (length == 0) {
+                        telemetryMetrics.recordDropped();
+                        return;
+                    }
+                    buffer = deltaBuf;
+                    offset = 0;
+                } else {
+                    deltaDecoder.plain(buffer, offset, length);
+                }
+            }
+
+            short code = getShort(buffer, offset);
+            telemetryMetrics.recordReceived(code, receivedAt);
+
+            AsyncTelemetryLog log = telemetryLog;
+            if (log != null) {
+                log.record(receivedAt, segment.wrap(buffer, offset, length));
+            }
+            if (telemetryListeners.hasListener(code)) {
+                evaluateTelemetry(segment.wrap(buffer, offset, length));
+            }
+        }
+
+    }
+}
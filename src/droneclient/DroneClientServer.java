@@ -0,0 +1,1053 @@
+package droneclient;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+public class DroneClientServer implements AutoCloseable {
+
+    private static final long DEFAULT_COMMAND_TIMEOUT_MILLIS = 1000;
+
+    private final DroneTransport commandTransport;
+    private final DroneTransport telemetryTransport;
+    private final ExecutionMode executionMode;
+    private final CommandCorrelator commandCorrelator;
+    private final RetransmissionTimer retransmissionTimer = new RetransmissionTimer();
+    private final ReliableCommandSender reliableCommandSender;
+    private ChannelOptions commandChannelOptions = new ChannelOptions();
+    private ChannelOptions telemetryChannelOptions = new ChannelOptions();
+    private Thread commandReceiveThread;
+    private Thread telemetryReceiveThread;
+    private volatile boolean receiving;
+    private volatile boolean telemetryStarted;
+    private CompletableFuture<Void> telemetryHandshake;
+    private volatile long commandTimeoutMillis = DEFAULT_COMMAND_TIMEOUT_MILLIS;
+    private volatile short requestedFeatures;
+    private volatile short features;
+
+    // Only used by the receiver that carries telemetry.
+    private volatile DeltaCodec.Decoder deltaDecoder;
+
+    // Outbound commands are encoded into one direct buffer.
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(64);
+
+    private TelemetryDispatcher telemetryDispatcher = new TelemetryDispatcher();
+    private final TelemetryListeners telemetryListeners = new TelemetryListeners();
+    private final TelemetryMetrics telemetryMetrics = new TelemetryMetrics();
+    private final VehicleState vehicleState = new VehicleState();
+
+    private final Map<Short, TelemetryPublisher> telemetryPublishers = new HashMap<>();
+
+    private RcStreamer rcStreamer;
+    private ControlLoopScheduler controlLoop;
+    private volatile TelemetryRecorder telemetryRecorder;
+    private volatile SharedTelemetryPublisher sharedTelemetryPublisher;
+    private volatile AsyncTelemetryLog telemetryLog;
+
+    private Consumer<DroneSegment> onTelemetryCallback;
+    private Consumer<DroneSegmentView> onTelemetryViewCallback;
+
+    public DroneClientServer(final InetSocketAddress inetSocketAddress){
+        this(inetSocketAddress, ExecutionMode.PLATFORM);
+    }
+
+    // With ExecutionMode.VIRTUAL the receive loop, the dispatcher consumers and the RC streamer run on virtual threads
+    // instead of platform threads.
+
+    public DroneClientServer(final InetSocketAddress inetSocketAddress, final ExecutionMode executionMode){
+        this(openUdp(inetSocketAddress), executionMode);
+    }
+
+    // Dual-channel mode: commands go to commandAddress (4445 on the MultiWii server) and telemetry is requested and
+    // received on its own socket connected to telemetryAddress (4446), each read by its own thread, so a telemetry
+    // burst cannot delay a command reply and the other way round.
+
+    public DroneClientServer(final InetSocketAddress commandAddress, final InetSocketAddress telemetryAddress,
+                             final ExecutionMode executionMode){
+        this(openUdp(commandAddress), openUdp(telemetryAddress), executionMode);
+    }
+
+    // Runs the protocol over any transport, e.g. one end of LoopbackTransport.pair(). The client owns the transport
+    // and closes it on close().
+
+    public DroneClientServer(final DroneTransport transport, final ExecutionMode executionMode){
+        this(transport, transport, executionMode);
+    }
+
+    // Dual-channel mode over any pair of transports; passing the same transport twice is single-channel mode.
+
+    public DroneClientServer(final DroneTransport commandTransport, final DroneTransport telemetryTransport,
+                             final ExecutionMode executionMode){
+        this.executionMode=executionMode;
+        this.commandCorrelator=new CommandCorrelator(executionMode.threadFactory("command-timeouts", true));
+        this.reliableCommandSender=new ReliableCommandSender(this.commandCorrelator, this.retransmissionTimer,
+                executionMode.threadFactory("command-retransmits", true));
+        this.commandTransport=commandTransport;
+        this.telemetryTransport=telemetryTransport;
+        this.telemetryStarted = false;
+        this.telemetryMetrics.setTelemetryDispatcher(this.telemetryDispatcher);
+    }
+
+    public void start() throws IOException {
+        await(this.startAsync());
+    }
+
+    // Starts the receive thread and performs the connection handshake (300 -> 301) without blocking the caller.
+
+    public synchronized CompletableFuture<Void> startAsync() {
+        this.startReceiving();
+        return this.startConnection();
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return this.executionMode;
+    }
+
+    public boolean isDualChannel() {
+        return this.commandTransport != this.telemetryTransport;
+    }
+
+    // Receive buffer, timeout and thread priority of the command channel. Must be called before start; ignored in
+    // single-channel mode, where the one channel uses the telemetry options since it carries the telemetry load.
+
+    public synchronized void setCommandChannelOptions(final ChannelOptions commandChannelOptions) {
+        this.checkNotReceiving();
+        this.commandChannelOptions = commandChannelOptions;
+    }
+
+    public ChannelOptions getCommandChannelOptions() {
+        return this.commandChannelOptions;
+    }
+
+    // Receive buffer, timeout and thread priority of the telemetry channel. Must be called before start.
+
+    public synchronized void setTelemetryChannelOptions(final ChannelOptions telemetryChannelOptions) {
+        this.checkNotReceiving();
+        this.telemetryChannelOptions = telemetryChannelOptions;
+    }
+
+    public ChannelOptions getTelemetryChannelOptions() {
+        return this.telemetryChannelOptions;
+    }
+
+    private void checkNotReceiving() {
+        if (this.telemetryReceiveThread != null) {
+            throw new IllegalStateException("Client already started");
+        }
+    }
+
+    // Asks the server to pack several telemetry segments into one datagram (see DroneSegmentCodec). Takes effect on
+    // the next connection handshake; servers without support keep sending one segment per datagram.
+
+    public void setTelemetryBatching(final boolean telemetryBatching) {
+        this.requestFeature(DroneSegment.FEATURE_BATCH, telemetryBatching);
+    }
+
+    // Asks the server for the delta-encoded telemetry of DeltaCodec, which shrinks slowly changing values to a byte.
+    // Takes effect on the next connection handshake.
+
+    public void setTelemetryDeltaEncoding(final boolean telemetryDeltaEncoding) {
+        this.requestFeature(DroneSegment.FEATURE_DELTA, telemetryDeltaEncoding);
+    }
+
+    // Asks the server to acknowledge ARM, DISARM, END_TELEMETRY and END_CONNECTION (see ReliableCommandSender), so
+    // they are retransmitted until acknowledged and applied once. Takes effect on the next connection handshake;
+    // against servers without support they stay fire-and-forget.
+
+    public void setReliableCommands(final boolean reliableCommands) {
+        this.requestFeature(DroneSegment.FEATURE_RELIABLE, reliableCommands);
+    }
+
+    public boolean isReliableCommands() {
+        return (this.features & DroneSegment.FEATURE_RELIABLE) != 0;
+    }
+
+    // Feature flags accepted by the server in the last connection handshake.
+
+    public short getFeatures() {
+        return this.features;
+    }
+
+    private synchronized void requestFeature(final short feature, final boolean enabled) {
+        this.requestedFeatures =
+                (short) (enabled ? this.requestedFeatures | feature : this.requestedFeatures & ~feature);
+    }
+
+    // Default time to wait for the reply to a command; each *Async method also accepts its own timeout. For
+    // retransmitted commands it bounds all attempts together.
+
+    public void setCommandTimeout(final long timeoutMillis) {
+        this.commandTimeoutMillis = timeoutMillis;
+    }
+
+    // Defines the behaviour to be executed when the telemetry is active.
+
+    public void setOnTelemetryCallback(final Consumer<DroneSegment> onTelemetryCallback) {
+        this.onTelemetryCallback = onTelemetryCallback;
+    }
+
+    // Zero-allocation alternative to setOnTelemetryCallback. The callback runs on a dispatcher thread and receives a
+    // flyweight view over a pooled buffer, which is only valid until the callback returns; use
+    // DroneSegmentView.copy() to keep a segment.
+
+    public void setOnTelemetryViewCallback(final Consumer<DroneSegmentView> onTelemetryViewCallback) {
+        this.onTelemetryViewCallback = onTelemetryViewCallback;
+    }
+
+    // Per-message-code subscriptions (onRawImu, onAttitude, on(code, handler), ...). Segments whose code has no
+    // subscriber and no catch-all callback are discarded by the receive thread without being decoded.
+
+    public TelemetryListeners getTelemetryListeners() {
+        return this.telemetryListeners;
+    }
+
+    // Latest RAW_IMU, ATTITUDE, ALTITUDE, RC, MOTOR and SERVO values with their receive times, kept up to date by the
+    // telemetry receive thread for any code the server sends, whether or not anything subscribes to it. Safe to read
+    // from any thread: VehicleState.read(snapshot) neither locks nor allocates.
+
+    public VehicleState getVehicleState() {
+        return this.vehicleState;
+    }
+
+    // Flow.Publisher of one message code, created on first use and completed on close(). Subscribers set their own
+    // pace through demand, conflate(), sample() or batch(); a slow one never holds back the others or the dispatcher.
+
+    public synchronized TelemetryPublisher getTelemetryPublisher(final short code) {
+        TelemetryPublisher publisher = this.telemetryPublishers.get(code);
+        if (publisher == null) {
+            publisher = new TelemetryPublisher(this.executionMode.threadFactory("telemetry-publisher-" + code, true),
+                    TelemetryPublisher.DEFAULT_BUFFER_SIZE).attach(this.telemetryListeners, code);
+            this.telemetryPublishers.put(code, publisher);
+        }
+        return publisher;
+    }
+
+    // Replaces the default dispatcher (1024 slots, one consumer, PARK, DROP_OLDEST) that decouples the receive
+    // thread from the telemetry callbacks. Must be called before startTelemetry.
+
+    public void setTelemetryDispatcher(final TelemetryDispatcher telemetryDispatcher) {
+        if (this.telemetryStarted) {
+            throw new IllegalStateException("Telemetry already started");
+        }
+        this.telemetryDispatcher = telemetryDispatcher;
+        this.telemetryMetrics.setTelemetryDispatcher(telemetryDispatcher);
+    }
+
+    public TelemetryDispatcher getTelemetryDispatcher() {
+        return this.telemetryDispatcher;
+    }
+
+    // Receive counts, rates, jitter, round-trip and callback timings. Call getTelemetryMetrics().register(name) to
+    // expose them over JMX.
+
+    public TelemetryMetrics getTelemetryMetrics() {
+        return this.telemetryMetrics;
+    }
+
+    // Retransmission counts and the RTO estimate, which is fed by the sequenced acknowledgements of reliable commands
+    // only.
+
+    public ReliableCommandSender getReliableCommandSender() {
+        return this.reliableCommandSender;
+    }
+
+    // Records every telemetry segment with its receive timestamp, before any filtering or dispatching. Pass null to
+    // stop recording; the caller owns and closes the recorder.
+
+    public void setTelemetryRecorder(final TelemetryRecorder telemetryRecorder) {
+        this.telemetryRecorder = telemetryRecorder;
+    }
+
+    // Publishes every telemetry segment with its receive timestamp to a shared-memory region that other processes on
+    // this host follow with SharedTelemetryReader, so they get the telemetry without their own session to the drone.
+    // Pass null to stop publishing; the caller owns and closes the publisher.
+
+    public void setSharedTelemetryPublisher(final SharedTelemetryPublisher sharedTelemetryPublisher) {
+        this.sharedTelemetryPublisher = sharedTelemetryPublisher;
+    }
+
+    // Logs every telemetry segment with its receive timestamp, where AsyncTelemetryLog.attach() can only log the time
+    // a listener thread handed the segment on. Pass null to stop logging; the caller owns and closes the log.
+
+    public void setTelemetryLog(final AsyncTelemetryLog telemetryLog) {
+        this.telemetryLog = telemetryLog;
+    }
+
+    // With reliable commands, END_TELEMETRY and END_CONNECTION are delivered while the receive threads still run, which
+    // can take up to the command timeout each on a dead link.
+
+    @Override
+    public void close() throws IOException {
+        this.stopControlLoop();
+        this.stopRcStream();
+        final boolean delivered = this.isReliableCommands() && this.stopReliably();
+        this.receiving = false;
+        this.telemetryStarted = false;
+        this.telemetryDispatcher.close();
+        this.commandCorrelator.close();
+        this.reliableCommandSender.close();
+        this.closeTelemetryPublishers();
+        this.telemetryMetrics.unregister();
+        try {
+            if (!delivered) {
+                this.sendCommand(this.telemetryTransport, DroneSegment.END_TELEMETRY, (short) 0);
+                this.sendCommand(DroneSegment.END_CONNECTION);
+            }
+        } finally {
+            try {
+                this.commandTransport.close();
+            } finally {
+                this.telemetryTransport.close();
+            }
+        }
+    }
+
+    private synchronized void closeTelemetryPublishers() {
+        for (final TelemetryPublisher publisher : this.telemetryPublishers.values()) {
+            publisher.close();
+        }
+        this.telemetryPublishers.clear();
+    }
+
+    private boolean stopReliably() {
+        try {
+            await(this.stopTelemetryAsync());
+            await(this.sendControl(this.commandTransport, DroneSegment.END_CONNECTION));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    // Blocks until the drone acknowledges ARM when reliable commands are on; otherwise only sends it.
+
+    public void sendArm() throws IOException {
+        await(this.sendArmAsync());
+    }
+
+    public CompletableFuture<Void> sendArmAsync() {
+        return this.sendControl(this.commandTransport, DroneSegment.ARM);
+    }
+
+    public void sendDiasArm() throws IOException {
+        await(this.sendDisarmAsync());
+    }
+
+    public CompletableFuture<Void> sendDisarmAsync() {
+        return this.sendControl(this.commandTransport, DroneSegment.DISARM);
+    }
+
+    public void sendSetRC(short roll, short pitch, short yaw, short throttle) throws IOException {
+        await(this.sendSetRCAsync(roll, pitch, yaw, throttle));
+    }
+
+    // Sends SET_RC and completes with the drone's acknowledgement, which echoes the SET_RC code. The echo carries no
+    // sequence, so it cannot be told apart from the echoes of a running RC stream or control loop; while either is
+    // started the returned future fails with IllegalStateException instead.
+
+    public CompletableFuture<DroneSegment> sendSetRCAsync(short roll, short pitch, short yaw, short throttle) {
+        return this.sendSetRCAsync(roll, pitch, yaw, throttle, this.commandTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public CompletableFuture<DroneSegment> sendSetRCAsync(short roll, short pitch, short yaw, short throttle,
+                                                          final long timeout, final TimeUnit unit) {
+        if (this.isStreamingRc()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("RC is being streamed"));
+        }
+        return this.request(DroneSegment.SET_RC, timeout, unit, () -> this.sendRc(roll, pitch, yaw, throttle));
+    }
+
+    // Sends a command without data and completes with the first reply carrying replyCode. Replies are routed by the
+    // receive thread, so any number of commands can be in flight while telemetry keeps flowing.
+
+    public CompletableFuture<DroneSegment> request(final short code, final short replyCode, final long timeout,
+                                                   final TimeUnit unit) {
+        return this.request(replyCode, timeout, unit, () -> this.sendCommand(code));
+    }
+
+    // Starts streaming SET_RC at a fixed rate without waiting for replies. Callers publish setpoints through
+    // RcStreamer.update; intermediate updates are coalesced and only the latest one is sent on each tick.
+
+    public synchronized RcStreamer startRcStream(final int rateHz) {
+        if (this.rcStreamer != null) {
+            throw new IllegalStateException("RC stream already started");
+        }
+        if (this.controlLoop != null) {
+            throw new IllegalStateException("Control loop already sends RC");
+        }
+        this.rcStreamer = new RcStreamer(this::sendRc, rateHz, this.executionMode.threadFactory("rc-streamer", true));
+        this.rcStreamer.start();
+        return this.rcStreamer;
+    }
+
+    public synchronized void stopRcStream() {
+        if (this.rcStreamer != null) {
+            this.rcStreamer.close();
+            this.rcStreamer = null;
+        }
+    }
+
+    private synchronized boolean isStreamingRc() {
+        return this.rcStreamer != null || this.controlLoop != null;
+    }
+
+    public synchronized RcStreamer getRcStreamer() {
+        return this.rcStreamer;
+    }
+
+    // Runs controllers (e.g. ControlLoopScheduler.AltitudeHold) at rateHz on the vehicle state and sends their RC
+    // command on every tick. Replaces the RC stream, which must not be running; telemetry must be started for the
+    // controllers to get any input.
+
+    public synchronized ControlLoopScheduler startControlLoop(final int rateHz,
+                                                              final ControlLoopScheduler.Controller... controllers) {
+        if (this.controlLoop != null) {
+            throw new IllegalStateException("Control loop already started");
+        }
+        if (this.rcStreamer != null) {
+            throw new IllegalStateException("RC stream already sends RC");
+        }
+        this.controlLoop = new ControlLoopScheduler(this.vehicleState, this::sendRc, rateHz,
+                this.executionMode.threadFactory("control-loop", true), controllers);
+        this.controlLoop.start();
+        return this.controlLoop;
+    }
+
+    public synchronized void stopControlLoop() {
+        if (this.controlLoop != null) {
+            this.controlLoop.close();
+            this.controlLoop = null;
+        }
+    }
+
+    public synchronized ControlLoopScheduler getControlLoop() {
+        return this.controlLoop;
+    }
+
+    // Initializes the communication with the MultiWii Server.
+
+    private CompletableFuture<Void> startConnection() {
+        final short requested = this.requestedFeatures;
+        return this.sendReliably(DroneSegment.CONNECTION_ACCEPTED, false,
+                sequence -> this.sendCommand(DroneSegment.START_CONNECTION, requested)).thenApply(reply -> {
+                    this.features = reply.payload.length > 0 ? (short) (reply.payload[0] & requested) : 0;
+                    this.deltaDecoder = (this.features & DroneSegment.FEATURE_DELTA) != 0
+                            ? new DeltaCodec.Decoder() : null;
+                    return null;
+                });
+    }
+
+    // Starts the telemetry thread.
+
+    public void startTelemetry() throws IOException {
+        await(this.startTelemetryAsync());
+    }
+
+    // Performs the telemetry handshake (120 -> 121) and starts the dispatcher once it is accepted. In dual-channel
+    // mode the handshake goes over the telemetry channel, which tells the server where to stream.
+
+    public synchronized CompletableFuture<Void> startTelemetryAsync() {
+        if (this.telemetryStarted) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (this.telemetryHandshake == null || this.telemetryHandshake.isDone()) {
+            this.telemetryHandshake = this.sendReliably(DroneSegment.TELEMETRY_ACCEPTED, false,
+                    sequence -> this.sendCommand(this.telemetryTransport, DroneSegment.START_TELEMETRY, (short) 0))
+                    .thenAccept(reply -> this.onTelemetryAccepted());
+        }
+        return this.telemetryHandshake;
+    }
+
+    // Stops the telemetry thread.
+
+    public void stopTelemetry() throws IOException{
+        await(this.stopTelemetryAsync());
+    }
+
+    public CompletableFuture<Void> stopTelemetryAsync() {
+        return this.sendControl(this.telemetryTransport, DroneSegment.END_TELEMETRY);
+    }
+
+    private synchronized void onTelemetryAccepted() {
+        if (!this.telemetryStarted) {
+            this.telemetryDispatcher.start(this::dispatchTelemetry,
+                    this.executionMode.threadFactory("telemetry-dispatcher", true));
+            this.telemetryStarted = true;
+        }
+    }
+
+    private void startReceiving() {
+        if (this.telemetryReceiveThread == null) {
+            this.receiving = true;
+            this.telemetryReceiveThread = this.startReceiver(new Receiver(this.telemetryTransport, true,
+                    this.telemetryChannelOptions), "drone-receiver");
+            if (this.isDualChannel()) {
+                this.commandReceiveThread = this.startReceiver(new Receiver(this.commandTransport, false,
+                        this.commandChannelOptions), "drone-command-receiver");
+            }
+        }
+    }
+
+    private Thread startReceiver(final Receiver receiver, final String name) {
+        final Thread thread = this.executionMode.threadFactory(name, false).newThread(receiver);
+        try {
+            receiver.options.apply(receiver.transport, thread);
+        } catch (IOException e) {
+            // The default buffer still works, only with less headroom for bursts.
+            this.telemetryMetrics.recordReceiveError();
+            e.printStackTrace();
+        }
+        thread.start();
+        return thread;
+    }
+
+    // Reads one transport with its own pooled state: the same buffer and view are reused for every datagram, and the
+    // buffer holds a full MTU so batched frames fit. In single-channel mode one receiver reads everything; in
+    // dual-channel mode the command receiver only completes pending commands and never touches telemetry, so the
+    // dispatcher and recorder keep a single producer.
+
+    private final class Receiver implements Runnable {
+
+        private final DroneTransport transport;
+        private final boolean telemetry;
+        private final ChannelOptions options;
+        private final byte[] receiveBuffer = new byte[DroneSegmentCodec.MAX_DATAGRAM_LENGTH];
+        private final DroneSegmentView receiveView = new DroneSegmentView();
+        private final byte[] deltaBuffer = new byte[DroneSegmentCodec.HEADER_LENGTH + 128];
+
+        private Receiver(final DroneTransport transport, final boolean telemetry, final ChannelOptions options) {
+            this.transport = transport;
+            this.telemetry = telemetry;
+            this.options = options;
+        }
+
+        @Override
+        public void run() {
+            final long timeoutMillis = this.options.getReceiveTimeoutMillis();
+            while (receiving){
+                try {
+                    final int length = this.transport.receive(this.receiveBuffer, 0, this.receiveBuffer.length,
+                            timeoutMillis);
+                    final long receivedAt = System.nanoTime();
+                    if (length < 0) {
+                        // Nothing within the timeout; counted so idle links show up in the metrics.
+                        telemetryMetrics.recordReceiveTimeout();
+                        continue;
+                    }
+                    if (length < 4) {
+                        telemetryMetrics.recordMalformed();
+                        continue;
+                    }
+                    if (DroneSegmentView.code(this.receiveBuffer, 0) == DroneSegment.BATCH) {
+                        // Walk the packed segments in order, in the same pass that hands them on.
+                        final int end = DroneSegmentCodec.segmentLength(this.receiveBuffer, 0, length);
+                        int offset = DroneSegmentCodec.HEADER_LENGTH;
+                        int segmentLength;
+                        while ((segmentLength = DroneSegmentCodec.segmentLength(this.receiveBuffer, offset, end)) > 0) {
+                            this.onReceived(offset, segmentLength, receivedAt);
+                            offset += segmentLength;
+                        }
+                    } else {
+                        this.onReceived(0, length, receivedAt);
+                    }
+                } catch (IOException e) {
+                    if (receiving) {
+                        telemetryMetrics.recordReceiveError();
+                        e.printStackTrace();
+                    }
+                } catch (RuntimeException e) {
+                    // A failing consumer (recorder, shared publisher, command completion) must not end the receive
+                    // thread; the rest of the datagram is lost and counted, and the next one is read as usual.
+                    telemetryMetrics.recordReceiveError();
+                }
+            }
+        }
+
+        // Handles one segment of the receive buffer, rebuilding delta-encoded segments first.
+
+        private void onReceived(final int offset, final int length, final long receivedAt) {
+            final DeltaCodec.Decoder decoder = this.telemetry ? deltaDecoder : null;
+            if (decoder != null) {
+                if (DeltaCodec.isDelta(DroneSegmentView.code(this.receiveBuffer, offset))) {
+                    final int decoded = decoder.decode(this.receiveBuffer, offset, length, this.deltaBuffer, 0);
+                    if (decoded == 0) {
+                        telemetryMetrics.recordDropped();
+                        return;
+                    }
+                    this.onSegment(this.deltaBuffer, 0, decoded, receivedAt);
+                    return;
+                }
+                decoder.plain(this.receiveBuffer, offset, length);
+            }
+            this.onSegment(this.receiveBuffer, offset, length, receivedAt);
+        }
+
+        private void onSegment(final byte[] buffer, final int offset, final int length, final long receivedAt) {
+            final short code = DroneSegmentView.code(buffer, offset);
+            telemetryMetrics.recordReceived(code, receivedAt);
+            if (commandCorrelator.isExpected(code)
+                    && commandCorrelator.complete(this.receiveView.wrap(buffer, offset, length))) {
+                return;
+            }
+            if (!this.telemetry || !telemetryStarted || DroneSegment.isCommandReply(code)) {
+                // Replies nobody waits for, such as the SET_RC echoes of an RC stream, are not telemetry.
+                return;
+            }
+            final DroneSegmentView view = this.receiveView.wrap(buffer, offset, length);
+            vehicleState.update(receivedAt, view);
+            final TelemetryRecorder recorder = telemetryRecorder;
+            if (recorder != null) {
+                recorder.record(receivedAt, view);
+            }
+            final SharedTelemetryPublisher shared = sharedTelemetryPublisher;
+            if (shared != null) {
+                shared.record(receivedAt, view);
+            }
+            final AsyncTelemetryLog log = telemetryLog;
+            if (log != null) {
+                log.record(receivedAt, view);
+            }
+            if ((onTelemetryViewCallback != null || onTelemetryCallback != null
+                    || telemetryListeners.hasListener(code))) {
+                telemetryDispatcher.publish(buffer, offset, length);
+            }
+        }
+    }
+
+    // Runs on the dispatcher threads, in receive order for each message code.
+
+    private void dispatchTelemetry(final DroneSegmentView view) {
+        final long startedAt = System.nanoTime();
+        this.telemetryListeners.dispatch(view);
+        if (this.onTelemetryViewCallback != null) {
+            this.onTelemetryViewCallback.accept(view);
+        }
+        if (this.onTelemetryCallback != null) {
+            this.onTelemetryCallback.accept(view.copy());
+        }
+        this.telemetryMetrics.recordCallback(System.nanoTime() - startedAt);
+    }
+
+    // Registers the expected reply before sending, so the receive thread cannot see the reply first. The replies are
+    // matched by code only and may belong to another send of the same command, so their round trips go to the
+    // metrics but not to the retransmission timer, which only samples sequenced acknowledgements.
+
+    private CompletableFuture<DroneSegment> request(final short replyCode, final long timeout, final TimeUnit unit,
+                                                    final Send send) {
+        final CompletableFuture<DroneSegment> future = this.commandCorrelator.expect(replyCode, timeout, unit);
+        final long sentAt = System.nanoTime();
+        try {
+            send.run();
+        } catch (IOException e) {
+            this.commandCorrelator.fail(replyCode, future, e);
+            return future;
+        }
+        return future.whenComplete((reply, error) -> {
+            if (error == null) {
+                this.telemetryMetrics.recordRoundTrip(replyCode, System.nanoTime() - sentAt);
+            }
+        });
+    }
+
+    // Handshakes and acknowledged control commands: retransmitted every RTO until the reply arrives or the command
+    // timeout has passed.
+
+    private CompletableFuture<DroneSegment> sendReliably(final short replyCode, final boolean sequenced,
+                                                         final ReliableCommandSender.Transmission transmission) {
+        final long sentAt = System.nanoTime();
+        return this.reliableCommandSender.send(replyCode, sequenced, this.commandTimeoutMillis, TimeUnit.MILLISECONDS,
+                transmission).whenComplete((reply, error) -> {
+                    if (error == null) {
+                        this.telemetryMetrics.recordRoundTrip(replyCode, System.nanoTime() - sentAt);
+                    }
+                });
+    }
+
+    // A control command that the drone acknowledges by echoing code and sequence once FEATURE_RELIABLE has been
+    // negotiated, and that is sent once without acknowledgement otherwise.
+
+    private CompletableFuture<Void> sendControl(final DroneTransport transport, final short code) {
+        if (this.isReliableCommands()) {
+            return this.sendReliably(code, true, sequence -> this.sendCommand(transport, code, sequence))
+                    .thenApply(reply -> null);
+        }
+        final CompletableFuture<Void> sent = new CompletableFuture<>();
+        try {
+            this.sendCommand(transport, code, (short) 0);
+            sent.complete(null);
+        } catch (IOException e) {
+            sent.completeExceptionally(e);
+        }
+        return sent;
+    }
+
+    // Encodes a command without data into the shared direct buffer and sends it; nothing is allocated per command.
+
+    private void sendCommand(final short code) throws IOException {
+        this.sendCommand(code, (short) 0);
+    }
+
+    private void sendCommand(final short code, final short argument) throws IOException {
+        this.sendCommand(this.commandTransport, code, argument);
+    }
+
+    private void sendCommand(final DroneTransport transport, final short code, final short argument)
+            throws IOException {
+        synchronized (this.sendBuffer) {
+            this.sendBuffer.clear();
+            DroneSegmentCodec.encodeCommand(this.sendBuffer, code, argument).flip();
+            transport.send(this.sendBuffer);
+        }
+    }
+
+    private void sendRc(final short roll, final short pitch, final short yaw, final short throttle) throws IOException {
+        synchronized (this.sendBuffer) {
+            this.sendBuffer.clear();
+            DroneSegmentCodec.encodeSetRc(this.sendBuffer, roll, pitch, yaw, throttle).flip();
+            this.commandTransport.send(this.sendBuffer);
+        }
+    }
+
+    private static DroneTransport openUdp(final InetSocketAddress inetSocketAddress) {
+        try {
+            return new UdpTransport(inetSocketAddress);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Blocks until the future completes and rethrows its failure the way the blocking API always has.
+
+    private static <T> T await(final CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a reply");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof TimeoutException) {
+                throw new SocketTimeoutException(cause.getMessage());
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private interface Send {
+        void run() throws IOException;
+    }
+
+    public static class DroneSegment {
+
+        // Message codes of the MultiWii client/server protocol.
+        public static final short RAW_IMU = 102;
+        public static final short SERVO = 103;
+        public static final short MOTOR = 104;
+        public static final short RC = 105;
+        public static final short ATTITUDE = 108;
+        public static final short ALTITUDE = 109;
+        public static final short START_TELEMETRY = 120;
+        public static final short TELEMETRY_ACCEPTED = 121;
+        public static final short END_TELEMETRY = 122;
+        public static final short BATCH = 130;
+        public static final short SET_RC = 200;
+        public static final short ARM = 220;
+        public static final short DISARM = 221;
+        public static final short START_CONNECTION = 300;
+        public static final short CONNECTION_ACCEPTED = 301;
+        public static final short END_CONNECTION = 302;
+
+        // Feature flags carried in the START_CONNECTION payload; CONNECTION_ACCEPTED echoes the ones the server
+        // supports. Servers that predate them reply without flags, which means none.
+        public static final short FEATURE_BATCH = 0x1;
+        public static final short FEATURE_DELTA = 0x2;
+        public static final short FEATURE_RELIABLE = 0x4;
+
+        public final short code;
+
+        public final short size;
+
+        public final short[] payload;
+
+        /*Represents the structure of a communication package between the MultiWii client and sever. Requires the code
+        * of the command to be send, the size in bytes of the data, and the data. Is used to easily pack and unpack
+        * the communication packages. */
+
+        public DroneSegment(final short code, final short size, final short[] payload){
+            this.code=code;
+            this.size=size;
+            this.payload=payload;
+        }
+
+        public DroneSegment(final byte[] bytes){
+            this.code=(short) (bytes[0]<<8 &0xFF00 | bytes[1]&0xFF);
+            this.size=(short) (bytes[2]<<8 &0xFF00 | bytes[2+1]&0xFF);
+            this.payload=new short[(bytes.length-4)/2];
+            for(int i=0;(i*2)<bytes.length-4;i++){
+                this.payload[i]=(short) (bytes[(i*2)+4]<<8 &0xFF00 | bytes[(i*2)+4+1]&0xFF);
+            }
+        }
+
+        // Whether code is a reply to one of the client's commands rather than telemetry, e.g. a SET_RC echo.
+
+        public static boolean isCommandReply(final int code) {
+            switch (code) {
+                case START_TELEMETRY:
+                case TELEMETRY_ACCEPTED:
+                case END_TELEMETRY:
+                case SET_RC:
+                case ARM:
+                case DISARM:
+                case START_CONNECTION:
+                case CONNECTION_ACCEPTED:
+                case END_CONNECTION:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        // Short name of a message code for logs and displays, or the number for unknown codes.
+
+        public static String nameOf(final int code) {
+            switch (code) {
+                case RAW_IMU: return "RAW_IMU";
+                case SERVO: return "SERVO";
+                case MOTOR: return "MOTOR";
+                case RC: return "RC";
+                case ATTITUDE: return "ATTITUDE";
+                case ALTITUDE: return "ALTITUDE";
+                case START_TELEMETRY: return "START_TELEMETRY";
+                case TELEMETRY_ACCEPTED: return "TELEMETRY_ACCEPTED";
+                case END_TELEMETRY: return "END_TELEMETRY";
+                case BATCH: return "BATCH";
+                case SET_RC: return "SET_RC";
+                case ARM: return "ARM";
+                case DISARM: return "DISARM";
+                case START_CONNECTION: return "START_CONNECTION";
+                case CONNECTION_ACCEPTED: return "CONNECTION_ACCEPTED";
+                case END_CONNECTION: return "END_CONNECTION";
+                default: return Integer.toString(code);
+            }
+        }
+
+        public byte[] toBytes(){
+            final byte[] result=new byte[DroneSegmentCodec.encodedLength(this)];
+            DroneSegmentCodec.encode(ByteBuffer.wrap(result), this);
+            return result;
+        }
+
+        public static class RawImu {
+
+            public short accx;
+            public short accy;
+            public short accz;
+            public short gyrx;
+            public short gyry;
+            public short gyrz;
+            public short magx;
+            public short magy;
+            public short magz;
+
+            public RawImu (short[] payload) {
+                this.accx = payload[0];
+                this.accy = payload[1];
+                this.accz = payload[2];
+                this.gyrx = payload[3];
+                this.gyry = payload[4];
+                this.gyrz = payload[5];
+                this.magx = payload[6];
+                this.magy = payload[7];
+                this.magz = payload[8];
+            }
+
+            public RawImu() {
+            }
+
+            // Refills this instance from a segment view, so one object can be reused for every packet.
+
+            public RawImu read(final DroneSegmentView view) {
+                this.accx = view.payload(0);
+                this.accy = view.payload(1);
+                this.accz = view.payload(2);
+                this.gyrx = view.payload(3);
+                this.gyry = view.payload(4);
+                this.gyrz = view.payload(5);
+                this.magx = view.payload(6);
+                this.magy = view.payload(7);
+                this.magz = view.payload(8);
+                return this;
+            }
+
+            // Encodes this record as a complete segment at the buffer's position.
+
+            public ByteBuffer writeTo(final ByteBuffer dst) {
+                return dst.putShort(RAW_IMU).putShort((short) 18)
+                        .putShort(this.accx).putShort(this.accy).putShort(this.accz)
+                        .putShort(this.gyrx).putShort(this.gyry).putShort(this.gyrz)
+                        .putShort(this.magx).putShort(this.magy).putShort(this.magz);
+            }
+        }
+
+        public static class Altitude {
+            public short estalt;
+            public short vario;
+
+            public Altitude(short[] payload) {
+                this.estalt = payload[0];
+                this.vario = payload[1];
+            }
+
+            public Altitude() {
+            }
+
+            public Altitude read(final DroneSegmentView view) {
+                this.estalt = view.payload(0);
+                this.vario = view.payload(1);
+                return this;
+            }
+
+            public ByteBuffer writeTo(final ByteBuffer dst) {
+                return dst.putShort(ALTITUDE).putShort((short) 4)
+                        .putShort(this.estalt).putShort(this.vario);
+            }
+        }
+
+        public static class Attitude {
+            public short angx;
+            public short angy;
+            public short heading;
+
+            public Attitude(short[] payload) {
+                this.angx = payload[0];
+                this.angy = payload[1];
+                this.heading = payload[2];
+            }
+
+            public Attitude() {
+            }
+
+            public Attitude read(final DroneSegmentView view) {
+                this.angx = view.payload(0);
+                this.angy = view.payload(1);
+                this.heading = view.payload(2);
+                return this;
+            }
+
+            public ByteBuffer writeTo(final ByteBuffer dst) {
+                return dst.putShort(ATTITUDE).putShort((short) 6)
+                        .putShort(this.angx).putShort(this.angy).putShort(this.heading);
+            }
+        }
+
+        public static class Rc {
+            public short roll;
+            public short pitch;
+            public short yaw;
+            public short throttle;
+
+            public Rc(short[] payload) {
+                this.roll = payload[0];
+                this.pitch = payload[1];
+                this.yaw = payload[2];
+                this.throttle = payload[3];
+            }
+
+            public Rc() {
+            }
+
+            public Rc read(final DroneSegmentView view) {
+                this.roll = view.payload(0);
+                this.pitch = view.payload(1);
+                this.yaw = view.payload(2);
+                this.throttle = view.payload(3);
+                return this;
+            }
+
+            public ByteBuffer writeTo(final ByteBuffer dst) {
+                return dst.putShort(RC).putShort((short) 8)
+                        .putShort(this.roll).putShort(this.pitch).putShort(this.yaw)
+                        .putShort(this.throttle);
+            }
+        }
+
+        public static class Motor {
+            public short m1;
+            public short m2;
+            public short m3;
+            public short m4;
+
+            public Motor(short[] payload) {
+                this.m1 = payload[0];
+                this.m2 = payload[1];
+                this.m3 = payload[2];
+                this.m4 = payload[3];
+            }
+
+            public Motor() {
+            }
+
+            public Motor read(final DroneSegmentView view) {
+                this.m1 = view.payload(0);
+                this.m2 = view.payload(1);
+                this.m3 = view.payload(2);
+                this.m4 = view.payload(3);
+                return this;
+            }
+
+            public ByteBuffer writeTo(final ByteBuffer dst) {
+                return dst.putShort(MOTOR).putShort((short) 8)
+                        .putShort(this.m1).putShort(this.m2).putShort(this.m3)
+                        .putShort(this.m4);
+            }
+        }
+
+        public static class Servo {
+            public short s1;
+            public short s2;
+            public short s3;
+            public short s4;
+
+            public Servo(short[] payload) {
+                this.s1 = payload[0];
+                this.s2 = payload[1];
+                this.s3 = payload[2];
+                this.s4 = payload[3];
+            }
+
+            public Servo() {
+            }
+
+            public Servo read(final DroneSegmentView view) {
+                this.s1 = view.payload(0);
+                this.s2 = view.payload(1);
+                this.s3 = view.payload(2);
+                this.s4 = view.payload(3);
+                return this;
+            }
+
+            public ByteBuffer writeTo(final ByteBuffer dst) {
+                return dst.putShort(SERVO).putShort((short) 8)
+                        .putShort(this.s1).putShort(this.s2).putShort(this.s3)
+                        .putShort(this.s4);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,424 @@
+package droneclient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/* Controls many drones from a small, fixed number of event-loop threads. Every drone gets a non-blocking
+ * DatagramChannel registered with one of the loops' Selectors (round robin); the loop performs the connection (300/301)
+ * and telemetry (120/121/122) handshakes and demultiplexes inbound telemetry to the per-drone callback. Handshake
+ * commands are retransmitted until they are answered or their deadline expires. All channel I/O and all callbacks run
+ * on the owning event-loop thread, so callbacks must not block. */
+
+public class DroneFleet implements AutoCloseable {
+
+    private static final int MAX_DATAGRAM = 1500;
+    private static final long RETRANSMIT_NANOS = MILLISECONDS.toNanos(500);
+    private static final long DEFAULT_HANDSHAKE_TIMEOUT_MILLIS = 5000;
+
+    private final EventLoop[] eventLoops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicLong loopFailures = new AtomicLong();
+    private final List<Drone> drones = new ArrayList<>();
+
+    private volatile long handshakeTimeoutNanos = MILLISECONDS.toNanos(DEFAULT_HANDSHAKE_TIMEOUT_MILLIS);
+
+    public DroneFleet(final int eventLoopThreads) throws IOException {
+        if (eventLoopThreads < 1) {
+            throw new IllegalArgumentException("At least one event loop thread is required");
+        }
+        this.eventLoops = new EventLoop[eventLoopThreads];
+        for (int i = 0; i < eventLoopThreads; i++) {
+            this.eventLoops[i] = new EventLoop("drone-fleet-" + i);
+        }
+        for (final EventLoop eventLoop : this.eventLoops) {
+            eventLoop.thread.start();
+        }
+    }
+
+    public void setHandshakeTimeout(final long timeoutMillis) {
+        this.handshakeTimeoutNanos = MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    // Opens a channel to the drone and assigns it to an event loop. No packet is sent until connect() is called.
+
+    public Drone add(final InetSocketAddress address) throws IOException {
+        final int loop = Math.floorMod(this.nextLoop.getAndIncrement(), this.eventLoops.length);
+        final EventLoop eventLoop = this.eventLoops[loop];
+        final DatagramChannel channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.connect(address);
+        final Drone drone = new Drone(address, channel, eventLoop);
+        eventLoop.execute(() -> {
+            try {
+                drone.key = channel.register(eventLoop.selector, SelectionKey.OP_READ, drone);
+            } catch (IOException e) {
+                drone.fail(e);
+            }
+        });
+        synchronized (this.drones) {
+            this.drones.add(drone);
+        }
+        return drone;
+    }
+
+    public List<Drone> getDrones() {
+        synchronized (this.drones) {
+            return new ArrayList<>(this.drones);
+        }
+    }
+
+    public int getEventLoopCount() {
+        return this.eventLoops.length;
+    }
+
+    // Tasks, reads and timer ticks that threw on an event loop thread; the loop carries on with the next one.
+
+    public long getLoopFailureCount() {
+        return this.loopFailures.get();
+    }
+
+    @Override
+    public void close() {
+        for (final Drone drone : this.getDrones()) {
+            drone.disconnect();
+        }
+        for (final EventLoop eventLoop : this.eventLoops) {
+            eventLoop.shutdown();
+        }
+    }
+
+    public final class Drone {
+
+        private final InetSocketAddress address;
+        private final DatagramChannel channel;
+        private final EventLoop eventLoop;
+        private SelectionKey key;
+
+        // Handshake state, only touched by the event loop thread.
+        private CompletableFuture<Void> pendingConnect;
+        private long connectDeadline;
+        private long connectRetransmit;
+        private CompletableFuture<Void> pendingTelemetry;
+        private long telemetryDeadline;
+        private long telemetryRetransmit;
+
+        private volatile boolean connected;
+        private volatile boolean telemetryActive;
+        private volatile Consumer<DroneSegmentView> onTelemetryCallback;
+
+        private Drone(final InetSocketAddress address, final DatagramChannel channel, final EventLoop eventLoop) {
+            this.address = address;
+            this.channel = channel;
+            this.eventLoop = eventLoop;
+        }
+
+        public InetSocketAddress getAddress() {
+            return this.address;
+        }
+
+        public boolean isConnected() {
+            return this.connected;
+        }
+
+        public boolean isTelemetryActive() {
+            return this.telemetryActive;
+        }
+
+        // The callback runs on the event loop thread and the view is only valid until it returns.
+
+        public void setOnTelemetryCallback(final Consumer<DroneSegmentView> onTelemetryCallback) {
+            this.onTelemetryCallback = onTelemetryCallback;
+        }
+
+        // Sends START_CONNECTION until CONNECTION_ACCEPTED arrives or the handshake timeout expires.
+
+        public CompletableFuture<Void> connect() {
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            this.eventLoop.execute(() -> {
+                if (this.connected) {
+                    future.complete(null);
+                    return;
+                }
+                if (this.pendingConnect != null) {
+                    this.pendingConnect.whenComplete((ignored, error) -> complete(future, error));
+                    return;
+                }
+                final long now = System.nanoTime();
+                this.pendingConnect = future;
+                this.connectDeadline = now + DroneFleet.this.handshakeTimeoutNanos;
+                this.connectRetransmit = now + RETRANSMIT_NANOS;
+                this.send(DroneClientServer.DroneSegment.START_CONNECTION);
+            });
+            return future;
+        }
+
+        // Sends START_TELEMETRY until TELEMETRY_ACCEPTED arrives or the handshake timeout expires.
+
+        public CompletableFuture<Void> startTelemetry() {
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            this.eventLoop.execute(() -> {
+                if (this.telemetryActive) {
+                    future.complete(null);
+                    return;
+                }
+                if (this.pendingTelemetry != null) {
+                    this.pendingTelemetry.whenComplete((ignored, error) -> complete(future, error));
+                    return;
+                }
+                final long now = System.nanoTime();
+                this.pendingTelemetry = future;
+                this.telemetryDeadline = now + DroneFleet.this.handshakeTimeoutNanos;
+                this.telemetryRetransmit = now + RETRANSMIT_NANOS;
+                this.send(DroneClientServer.DroneSegment.START_TELEMETRY);
+            });
+            return future;
+        }
+
+        public void stopTelemetry() {
+            this.eventLoop.execute(() -> {
+                this.telemetryActive = false;
+                this.send(DroneClientServer.DroneSegment.END_TELEMETRY);
+            });
+        }
+
+        public void disconnect() {
+            this.eventLoop.execute(() -> {
+                if (this.telemetryActive) {
+                    this.telemetryActive = false;
+                    this.send(DroneClientServer.DroneSegment.END_TELEMETRY);
+                }
+                if (this.connected) {
+                    this.connected = false;
+                    this.send(DroneClientServer.DroneSegment.END_CONNECTION);
+                }
+                this.fail(new IOException("Drone " + this.address + " disconnected"));
+                if (this.key != null) {
+                    this.key.cancel();
+                }
+                try {
+                    this.channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+
+        private void send(final short code) {
+            final ByteBuffer buffer = this.eventLoop.sendBuffer;
+            buffer.clear();
+            DroneSegmentCodec.encodeCommand(buffer, code).flip();
+            try {
+                this.channel.write(buffer);
+            } catch (PortUnreachableException e) {
+                // The drone is not listening yet; the handshake retransmission will try again.
+            } catch (IOException e) {
+                this.fail(e);
+            }
+        }
+
+        private void onSegment(final DroneSegmentView view) {
+            final short code = view.code();
+            if (code == DroneClientServer.DroneSegment.CONNECTION_ACCEPTED) {
+                this.connected = true;
+                if (this.pendingConnect != null) {
+                    this.pendingConnect.complete(null);
+                    this.pendingConnect = null;
+                }
+            } else if (code == DroneClientServer.DroneSegment.TELEMETRY_ACCEPTED) {
+                this.telemetryActive = true;
+                if (this.pendingTelemetry != null) {
+                    this.pendingTelemetry.complete(null);
+                    this.pendingTelemetry = null;
+                }
+            } else if (this.telemetryActive) {
+                final Consumer<DroneSegmentView> callback = this.onTelemetryCallback;
+                if (callback != null) {
+                    try {
+                        callback.accept(view);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        private void onTimer(final long now) {
+            if (this.pendingConnect != null) {
+                if (now - this.connectDeadline >= 0) {
+                    this.pendingConnect.completeExceptionally(
+                            new TimeoutException("No CONNECTION_ACCEPTED from " + this.address));
+                    this.pendingConnect = null;
+                } else if (now - this.connectRetransmit >= 0) {
+                    this.connectRetransmit = now + RETRANSMIT_NANOS;
+                    this.send(DroneClientServer.DroneSegment.START_CONNECTION);
+                }
+            }
+            if (this.pendingTelemetry != null) {
+                if (now - this.telemetryDeadline >= 0) {
+                    this.pendingTelemetry.completeExceptionally(
+                            new TimeoutException("No TELEMETRY_ACCEPTED from " + this.address));
+                    this.pendingTelemetry = null;
+                } else if (now - this.telemetryRetransmit >= 0) {
+                    this.telemetryRetransmit = now + RETRANSMIT_NANOS;
+                    this.send(DroneClientServer.DroneSegment.START_TELEMETRY);
+                }
+            }
+        }
+
+        private void fail(final Throwable error) {
+            if (this.pendingConnect != null) {
+                this.pendingConnect.completeExceptionally(error);
+                this.pendingConnect = null;
+            }
+            if (this.pendingTelemetry != null) {
+                this.pendingTelemetry.completeExceptionally(error);
+                this.pendingTelemetry = null;
+            }
+        }
+    }
+
+    private static void complete(final CompletableFuture<Void> future, final Throwable error) {
+        if (error != null) {
+            future.completeExceptionally(error);
+        } else {
+            future.complete(null);
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+
+        private static final long TICK_MILLIS = 50;
+
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+        private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+        private final byte[] scratch = new byte[MAX_DATAGRAM];
+        private final DroneSegmentView view = new DroneSegmentView();
+
+        private volatile boolean running = true;
+
+        private EventLoop(final String name) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        private void execute(final Runnable task) {
+            this.tasks.add(task);
+            if (Thread.currentThread() != this.thread) {
+                this.selector.wakeup();
+            }
+        }
+
+        private void shutdown() {
+            this.execute(() -> this.running = false);
+            try {
+                this.thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            long nextTick = System.nanoTime();
+            while (this.running) {
+                try {
+                    this.selector.select(TICK_MILLIS);
+                    for (final SelectionKey key : this.selector.selectedKeys()) {
+                        if (key.isValid() && key.isReadable()) {
+                            try {
+                                this.read((Drone) key.attachment());
+                            } catch (RuntimeException e) {
+                                this.failed(e);
+                            }
+                        }
+                    }
+                    this.selector.selectedKeys().clear();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+
+                Runnable task;
+                while ((task = this.tasks.poll()) != null) {
+                    // One throwing task, e.g. a completion stage added to a handshake future, must not end the loop
+                    // for every drone it serves.
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        this.failed(e);
+                    }
+                }
+
+                final long now = System.nanoTime();
+                if (now - nextTick >= 0) {
+                    nextTick = now + MILLISECONDS.toNanos(TICK_MILLIS);
+                    for (final SelectionKey key : this.selector.keys()) {
+                        if (key.isValid()) {
+                            try {
+                                ((Drone) key.attachment()).onTimer(now);
+                            } catch (RuntimeException e) {
+                                this.failed(e);
+                            }
+                        }
+                    }
+                }
+            }
+            try {
+                this.selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void failed(final RuntimeException error) {
+            DroneFleet.this.loopFailures.incrementAndGet();
+            error.printStackTrace();
+        }
+
+        // Drains every datagram currently queued on the drone's channel.
+
+        private void read(final Drone drone) {
+            while (true) {
+                this.receiveBuffer.clear();
+                final int length;
+                try {
+                    length = drone.channel.read(this.receiveBuffer);
+                } catch (PortUnreachableException e) {
+                    continue;
+                } catch (IOException e) {
+                    drone.fail(e);
+                    return;
+                }
+                if (length <= 0) {
+                    return;
+                }
+                if (length < 4) {
+                    continue;
+                }
+                this.receiveBuffer.flip();
+                this.receiveBuffer.get(this.scratch, 0, length);
+                drone.onSegment(this.view.wrap(this.scratch, 0, length));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package droneclient;
+
+import java.nio.ByteBuffer;
+
+/* Shared encoder/decoder for the DroneSegment wire format: a big-endian short code, a short size holding the payload
+ * length in bytes, and the payload shorts. The encode methods write at the buffer's position and leave it after the
+ * segment, so callers can reuse one (preferably direct) buffer for every outbound command without allocating.
+ *
+ * When both ends negotiate FEATURE_BATCH, telemetry datagrams may hold a BATCH segment whose payload is a sequence of
+ * ordinary segments, packed up to the MTU. */
+
+public final class DroneSegmentCodec {
+
+    public static final int HEADER_LENGTH = 4;
+
+    // Largest UDP payload that avoids IP fragmentation on a 1500 byte Ethernet MTU.
+    public static final int MAX_DATAGRAM_LENGTH = 1472;
+
+    private DroneSegmentCodec() {
+    }
+
+    // Commands without data carry a single zero short, as the MultiWii server expects.
+
+    public static ByteBuffer encodeCommand(final ByteBuffer dst, final short code) {
+        return encodeCommand(dst, code, (short) 0);
+    }
+
+    // A command with a single short of data, e.g. the feature flags of START_CONNECTION.
+
+    public static ByteBuffer encodeCommand(final ByteBuffer dst, final short code, final short argument) {
+        return dst.putShort(code).putShort((short) 2).putShort(argument);
+    }
+
+    public static ByteBuffer encodeSetRc(final ByteBuffer dst, final short roll, final short pitch, final short yaw,
+                                         final short throttle) {
+        return dst.putShort(DroneClientServer.DroneSegment.SET_RC).putShort((short) 8)
+                .putShort(roll).putShort(pitch).putShort(yaw).putShort(throttle);
+    }
+
+    public static ByteBuffer encode(final ByteBuffer dst, final short code, final short[] payload, final int count) {
+        dst.putShort(code).putShort((short) (count * 2));
+        for (int i = 0; i < count; i++) {
+            dst.putShort(payload[i]);
+        }
+        return dst;
+    }
+
+    // Writes the segment as is, including its declared size.
+
+    public static ByteBuffer encode(final ByteBuffer dst, final DroneClientServer.DroneSegment segment) {
+        dst.putShort(segment.code).putShort(segment.size);
+        for (final short value : segment.payload) {
+            dst.putShort(value);
+        }
+        return dst;
+    }
+
+    public static int encodedLength(final DroneClientServer.DroneSegment segment) {
+        return HEADER_LENGTH + segment.payload.length * 2;
+    }
+
+    // Reads one segment starting at the buffer's position. The payload is bounded by both the declared size and the
+    // remaining bytes, so truncated datagrams decode to the shorts actually received.
+
+    public static DroneClientServer.DroneSegment decode(final ByteBuffer src) {
+        final short code = src.getShort();
+        final short size = src.getShort();
+        final short[] payload = new short[Math.min(size & 0xFFFF, src.remaining()) / 2];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = src.getShort();
+        }
+        return new DroneClientServer.DroneSegment(code, size, payload);
+    }
+
+    public static DroneClientServer.DroneSegment decode(final byte[] bytes, final int offset, final int length) {
+        return decode(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    // Starts a BATCH segment at the buffer's position and returns that position for endBatch. Segments encoded in
+    // between become the batch payload.
+
+    public static int beginBatch(final ByteBuffer dst) {
+        final int start = dst.position();
+        dst.putShort(DroneClientServer.DroneSegment.BATCH).putShort((short) 0);
+        return start;
+    }
+
+    // Fills in the size of the batch started at start. Returns false for an empty batch, which the caller should not
+    // send.
+
+    public static boolean endBatch(final ByteBuffer dst, final int start) {
+        final int size = dst.position() - start - HEADER_LENGTH;
+        dst.putShort(start + 2, (short) size);
+        return size > 0;
+    }
+
+    // Length of the segment starting at offset, bounded by the bytes left before end, or 0 when there is no complete
+    // header. Used to walk the segments of a BATCH payload.
+
+    public static int segmentLength(final byte[] bytes, final int offset, final int end) {
+        if (end - offset < HEADER_LENGTH) {
+            return 0;
+        }
+        final int size = (bytes[offset+2]<<8 &0xFF00 | bytes[offset+3]&0xFF);
+        return Math.min(HEADER_LENGTH + size, end - offset);
+    }
+}
@@ -0,0 +1,100 @@
+package droneclient;
+
+import java.util.Arrays;
+
+/* Flyweight, read-only view of an encoded DroneSegment. The code, size and payload values are read straight from the
+ * backing byte array, so a single instance can be pointed at every received datagram without allocating. A view is
+ * only valid until its buffer is reused by the next receive; consumers that want to keep a segment must call copy()
+ * (or copyPayload()) before returning. */
+
+public final class DroneSegmentView {
+
+    private static final int HEADER_LENGTH = 4;
+
+    private byte[] buffer;
+    private int offset;
+    private int length;
+
+    // Points this view at the encoded segment stored in buffer[offset, offset + length).
+
+    public DroneSegmentView wrap(final byte[] buffer, final int offset, final int length) {
+        if (offset < 0 || length < HEADER_LENGTH || offset + length > buffer.length) {
+            throw new IllegalArgumentException("Invalid segment bounds: offset " + offset + ", length " + length);
+        }
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    public short code() {
+        return this.getShort(this.offset);
+    }
+
+    public short size() {
+        return this.getShort(this.offset + 2);
+    }
+
+    // Number of payload shorts actually available: the declared size in bytes, bounded by the received length.
+
+    public int payloadLength() {
+        final int available = this.length - HEADER_LENGTH;
+        final int declared = this.size() & 0xFFFF;
+        return Math.min(declared, available) / 2;
+    }
+
+    public short payload(final int index) {
+        if (index < 0 || index >= this.payloadLength()) {
+            throw new IndexOutOfBoundsException("Payload index " + index + " for segment " + this.code());
+        }
+        return this.getShort(this.offset + HEADER_LENGTH + index * 2);
+    }
+
+    // Copies the payload into target without allocating and returns the number of shorts written.
+
+    public int copyPayload(final short[] target) {
+        final int count = Math.min(this.payloadLength(), target.length);
+        for (int i = 0; i < count; i++) {
+            target[i] = this.getShort(this.offset + HEADER_LENGTH + i * 2);
+        }
+        return count;
+    }
+
+    // Detaches the viewed segment from the shared buffer so it can be kept after the callback returns.
+
+    public DroneClientServer.DroneSegment copy() {
+        final short[] payload = new short[this.payloadLength()];
+        this.copyPayload(payload);
+        return new DroneClientServer.DroneSegment(this.code(), this.size(), payload);
+    }
+
+    public byte[] buffer() {
+        return this.buffer;
+    }
+
+    public int offset() {
+        return this.offset;
+    }
+
+    public int length() {
+        return this.length;
+    }
+
+    @Override
+    public String toString() {
+        final short[] payload = new short[this.payloadLength()];
+        this.copyPayload(payload);
+        return "DroneSegmentView{code=" + this.code() + ", size=" + this.size()
+                + ", payload=" + Arrays.toString(payload) + "}";
+    }
+
+    // Reads the message code of an encoded segment without wrapping it, e.g. to filter before dispatching.
+
+    public static short code(final byte[] buffer, final int offset) {
+        return (short) (buffer[offset]<<8 &0xFF00 | buffer[offset+1]&0xFF);
+    }
+
+    private short getShort(final int off) {
+        return (short) (this.buffer[off]<<8 &0xFF00 | this.buffer[off+1]&0xFF);
+    }
+}
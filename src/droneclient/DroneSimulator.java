@@ -0,0 +1,769 @@
+package droneclient;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/* Local stand-in for the MultiWii UDP server, for load and soak testing DroneClient, DroneClientServer and DroneFleet
+ * without hardware. Every simulated drone listens on its own localhost port and answers the connection (300/301/302),
+ * telemetry (120/121/122), ARM/DISARM (220/221) and SET_RC (200) commands. While telemetry is on it streams RAW_IMU,
+ * SERVO, MOTOR, RC, ATTITUDE and ALTITUDE frames at a configurable rate per message code, optionally dropping and
+ * reordering packets. Clients that request FEATURE_BATCH get all segments due at the same time packed into one
+ * datagram, and clients that request FEATURE_DELTA get DeltaCodec-encoded telemetry. Clients that request
+ * FEATURE_RELIABLE send ARM, DISARM, END_TELEMETRY and END_CONNECTION with a sequence number, which is acknowledged by
+ * echoing code and sequence and applied only once however often it is retransmitted. All drones share one selector
+ * thread, which spins between sub-millisecond deadlines so rates of 1 kHz and more per drone stay accurate.
+ *
+ * With a telemetry base port every drone also listens on a second port, where clients in dual-channel mode send
+ * START_TELEMETRY/END_TELEMETRY from their telemetry socket and get the stream back on it, linked to the connected
+ * command session from the same host. Extra drones can be served over any DroneTransport with attach(), typically the
+ * drone end of a LoopbackTransport pair; while one is attached the thread polls it every 50 microseconds.
+ *
+ * Usage: java droneclient.DroneSimulator [--port 4445] [--drones 1] [--telemetry-port 4446] [--rate 50]
+ *                                         [--rate-102 1000] [--loss 0.0] [--command-loss 0.0] [--reorder 0.0]
+ *                                         [--seed 1] [--features 1] */
+
+public class DroneSimulator implements AutoCloseable {
+
+    private static final short[] TELEMETRY_CODES = {
+            DroneClientServer.DroneSegment.RAW_IMU,
+            DroneClientServer.DroneSegment.SERVO,
+            DroneClientServer.DroneSegment.MOTOR,
+            DroneClientServer.DroneSegment.RC,
+            DroneClientServer.DroneSegment.ATTITUDE,
+            DroneClientServer.DroneSegment.ALTITUDE
+    };
+
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    private static final long TRANSPORT_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    // Worst case for one encoded segment: a delta of 16 three-byte varints plus its five-byte frame number.
+    private static final int MAX_SEGMENT_LENGTH = DroneSegmentCodec.HEADER_LENGTH + 3 * 16 + 5;
+
+    private final int droneCount;
+    private final long[] periodNanos = new long[TELEMETRY_CODES.length];
+    private short supportedFeatures = DroneClientServer.DroneSegment.FEATURE_BATCH
+            | DroneClientServer.DroneSegment.FEATURE_DELTA | DroneClientServer.DroneSegment.FEATURE_RELIABLE;
+    private int keyframeInterval = DeltaCodec.DEFAULT_KEYFRAME_INTERVAL;
+    private double lossProbability;
+    private double commandLossProbability;
+    private double reorderProbability;
+    private Random random = new Random(1);
+
+    private final Selector selector;
+    private final DatagramChannel[] channels;
+    private final DatagramChannel[] telemetryChannels;
+    private final Map<SocketAddress, Session>[] sessions;
+    private final List<Session> attached = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+    private volatile boolean running;
+
+    private final long startNanos = System.nanoTime();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(1500);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(1500);
+    private final ByteBuffer heldBuffer = ByteBuffer.allocateDirect(1500);
+    private final byte[] transportBytes = new byte[1500];
+    private final ByteBuffer transportBuffer = ByteBuffer.wrap(this.transportBytes);
+    private final short[] payload = new short[16];
+    private Session heldSession;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final AtomicLong reordered = new AtomicLong();
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    // Binds droneCount consecutive UDP ports on localhost, starting at basePort. Every telemetry code defaults to
+    // 50 Hz.
+
+    public DroneSimulator(final int basePort, final int droneCount) throws IOException {
+        this(basePort, droneCount, 0);
+    }
+
+    // Also binds droneCount telemetry ports starting at telemetryBasePort, for clients in dual-channel mode; 0 binds
+    // none.
+
+    public DroneSimulator(final int basePort, final int droneCount, final int telemetryBasePort) throws IOException {
+        this.droneCount = droneCount;
+        this.selector = Selector.open();
+        this.channels = new DatagramChannel[droneCount];
+        this.telemetryChannels = new DatagramChannel[telemetryBasePort > 0 ? droneCount : 0];
+        this.sessions = newSessions(droneCount);
+        for (int i = 0; i < droneCount; i++) {
+            this.channels[i] = this.bind(basePort + i, i);
+            if (telemetryBasePort > 0) {
+                this.telemetryChannels[i] = this.bind(telemetryBasePort + i, i);
+            }
+            this.sessions[i] = new HashMap<>();
+        }
+        for (final short code : TELEMETRY_CODES) {
+            this.setRate(code, 50);
+        }
+        this.thread = new Thread(this::run, "drone-simulator");
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Map<SocketAddress, Session>[] newSessions(final int droneCount) {
+        return (Map<SocketAddress, Session>[]) new Map[droneCount];
+    }
+
+    private DatagramChannel bind(final int port, final int drone) throws IOException {
+        final DatagramChannel channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.bind(new InetSocketAddress("127.0.0.1", port));
+        channel.register(this.selector, SelectionKey.OP_READ, drone);
+        return channel;
+    }
+
+    // Telemetry rate in Hz for one message code; 0 disables that code.
+
+    public void setRate(final short code, final double hz) {
+        final int index = indexOf(code);
+        if (index < 0) {
+            throw new IllegalArgumentException("Not a telemetry code: " + code);
+        }
+        this.periodNanos[index] = hz <= 0 ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / hz);
+    }
+
+    public void setRate(final double hz) {
+        for (final short code : TELEMETRY_CODES) {
+            this.setRate(code, hz);
+        }
+    }
+
+    public void setLossProbability(final double lossProbability) {
+        this.lossProbability = lossProbability;
+    }
+
+    // Probability that a command, or the reply to one, is lost; 0 keeps the command path lossless.
+
+    public void setCommandLossProbability(final double commandLossProbability) {
+        this.commandLossProbability = commandLossProbability;
+    }
+
+    // Probability that a telemetry packet is held back and sent after the following one.
+
+    public void setReorderProbability(final double reorderProbability) {
+        this.reorderProbability = reorderProbability;
+    }
+
+    public void setSeed(final long seed) {
+        this.random = new Random(seed);
+    }
+
+    // Frames per message code between delta keyframes.
+
+    public void setKeyframeInterval(final int keyframeInterval) {
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    // Feature flags granted to clients that ask for them; 0 behaves like a server that predates them.
+
+    public void setSupportedFeatures(final short supportedFeatures) {
+        this.supportedFeatures = supportedFeatures;
+    }
+
+    // Serves one more drone over the given transport, which the simulator closes on close(). Can be called while
+    // running.
+
+    public void attach(final DroneTransport transport) {
+        this.attached.add(new Session(transport));
+        this.selector.wakeup();
+    }
+
+    // Serves one more drone in dual-channel mode: commands over commandTransport, telemetry over telemetryTransport.
+
+    public void attach(final DroneTransport commandTransport, final DroneTransport telemetryTransport) {
+        final Session command = new Session(commandTransport);
+        final Session telemetry = new Session(telemetryTransport);
+        telemetry.control = command;
+        telemetry.connected = true;
+        this.attached.add(command);
+        this.attached.add(telemetry);
+        this.selector.wakeup();
+    }
+
+    public void start() {
+        this.running = true;
+        this.thread.start();
+    }
+
+    public long getSentCount() {
+        return this.sent.get();
+    }
+
+    public long getLostCount() {
+        return this.lost.get();
+    }
+
+    public long getReorderedCount() {
+        return this.reordered.get();
+    }
+
+    public long getCommandCount() {
+        return this.commands.get();
+    }
+
+    // Sequenced commands that arrived again and were acknowledged without being applied.
+
+    public long getDuplicateCount() {
+        return this.duplicates.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.running = false;
+        this.selector.wakeup();
+        try {
+            this.thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (final DatagramChannel channel : this.channels) {
+            channel.close();
+        }
+        for (final DatagramChannel channel : this.telemetryChannels) {
+            channel.close();
+        }
+        for (final Session session : this.attached) {
+            session.transport.close();
+        }
+        this.attached.clear();
+        this.selector.close();
+    }
+
+    private void run() {
+        while (this.running) {
+            try {
+                long wait = this.emitDueTelemetry(System.nanoTime());
+                if (!this.attached.isEmpty()) {
+                    this.pollTransports();
+                    wait = Math.min(wait, TRANSPORT_POLL_NANOS);
+                }
+                if (wait > TimeUnit.MILLISECONDS.toNanos(1)) {
+                    this.selector.select(TimeUnit.NANOSECONDS.toMillis(wait));
+                } else {
+                    this.selector.selectNow();
+                    if (wait > SPIN_NANOS) {
+                        LockSupport.parkNanos(wait - SPIN_NANOS);
+                    }
+                }
+                for (final SelectionKey key : this.selector.selectedKeys()) {
+                    if (key.isValid() && key.isReadable()) {
+                        this.read((Integer) key.attachment(), (DatagramChannel) key.channel());
+                    }
+                }
+                this.selector.selectedKeys().clear();
+            } catch (IOException e) {
+                if (this.running) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void read(final int drone, final DatagramChannel channel) throws IOException {
+        final boolean telemetryPort = channel != this.channels[drone];
+        SocketAddress source;
+        while ((source = this.receive(channel)) != null) {
+            if (this.receiveBuffer.remaining() < 4) {
+                continue;
+            }
+            Session session = this.sessions[drone].get(source);
+            if (session != null && session.control != null && !session.control.connected) {
+                // The command session it streamed for has ended.
+                this.sessions[drone].remove(source);
+                session = null;
+            }
+            if (session == null) {
+                final short code = this.receiveBuffer.getShort(this.receiveBuffer.position());
+                final Session control = telemetryPort && code == DroneClientServer.DroneSegment.START_TELEMETRY
+                        ? this.findCommandSession(drone, source) : null;
+                if (control == null && (telemetryPort || code != DroneClientServer.DroneSegment.START_CONNECTION)) {
+                    this.commands.incrementAndGet();
+                    continue;
+                }
+                session = new Session(channel, source);
+                if (control != null) {
+                    session.control = control;
+                    session.connected = true;
+                }
+                this.sessions[drone].put(source, session);
+            }
+            this.handle(this.receiveBuffer, session);
+            if (!session.connected && !session.isReliable()) {
+                // Reliable sessions linger, so a retransmitted END_CONNECTION whose acknowledgement was lost is
+                // acknowledged again.
+                this.sessions[drone].remove(source);
+            }
+        }
+    }
+
+    // The connected command-port session of this drone from the same host as a telemetry-port source.
+
+    private Session findCommandSession(final int drone, final SocketAddress source) {
+        final InetAddress host = ((InetSocketAddress) source).getAddress();
+        for (final Session session : this.sessions[drone].values()) {
+            if (session.control == null && session.connected && session.channel == this.channels[drone]
+                    && ((InetSocketAddress) session.target).getAddress().equals(host)) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+    // Drains every attached transport without blocking, dropping the ones that were closed.
+
+    private void pollTransports() throws IOException {
+        for (final Session session : this.attached) {
+            try {
+                int length;
+                while (session.transport.isOpen()
+                        && (length = session.transport.receive(this.transportBytes, 0, this.transportBytes.length,
+                        0)) >= 0) {
+                    if (length < 4) {
+                        continue;
+                    }
+                    this.transportBuffer.clear();
+                    this.transportBuffer.limit(length);
+                    this.handle(this.transportBuffer, session);
+                }
+            } catch (ClosedChannelException e) {
+                // Closed by its owner while we were reading.
+            }
+            if (!session.transport.isOpen()) {
+                this.attached.remove(session);
+            }
+        }
+    }
+
+    private void handle(final ByteBuffer in, final Session session) throws IOException {
+        this.commands.incrementAndGet();
+        if (this.commandLossProbability > 0 && this.random.nextDouble() < this.commandLossProbability) {
+            this.lost.incrementAndGet();
+            return;
+        }
+        final short code = in.getShort();
+        final short size = in.getShort();
+        final int sequence = session.isReliable() && isSequenced(code) && size >= 2 && in.remaining() >= 2
+                ? in.getShort() & 0x7FFF : -1;
+        if (sequence >= 0) {
+            final boolean fresh = session.accept(sequence);
+            this.reply(session, code, (short) sequence);
+            if (!fresh) {
+                this.duplicates.incrementAndGet();
+                return;
+            }
+        }
+        if (code != DroneClientServer.DroneSegment.START_CONNECTION && !session.connected) {
+            return;
+        }
+        if (session.control != null) {
+            this.handleTelemetryChannel(session, code);
+            return;
+        }
+
+        switch (code) {
+            case DroneClientServer.DroneSegment.START_CONNECTION:
+                if (!session.connected) {
+                    session.resetSequences();
+                }
+                session.connected = true;
+                final short requested = size >= 2 && in.remaining() >= 2 ? in.getShort() : 0;
+                session.features = (short) (requested & this.supportedFeatures);
+                session.encoder = (session.features & DroneClientServer.DroneSegment.FEATURE_DELTA) != 0
+                        ? new DeltaCodec.Encoder(this.keyframeInterval) : null;
+                this.reply(session, DroneClientServer.DroneSegment.CONNECTION_ACCEPTED, session.features);
+                break;
+            case DroneClientServer.DroneSegment.END_CONNECTION:
+                session.connected = false;
+                session.telemetry = false;
+                break;
+            case DroneClientServer.DroneSegment.START_TELEMETRY:
+                if (!session.telemetry) {
+                    session.schedule(System.nanoTime());
+                    if (session.encoder != null) {
+                        session.encoder.reset();
+                    }
+                }
+                session.telemetry = true;
+                this.reply(session, DroneClientServer.DroneSegment.TELEMETRY_ACCEPTED, (short) 0);
+                break;
+            case DroneClientServer.DroneSegment.END_TELEMETRY:
+                session.telemetry = false;
+                break;
+            case DroneClientServer.DroneSegment.ARM:
+            case DroneClientServer.DroneSegment.DISARM:
+                session.armed = code == DroneClientServer.DroneSegment.ARM;
+                break;
+            case DroneClientServer.DroneSegment.SET_RC:
+                if (size >= 8 && in.remaining() >= 8) {
+                    for (int i = 0; i < 4; i++) {
+                        session.rc[i] = in.getShort();
+                    }
+                    this.reply(session, DroneClientServer.DroneSegment.SET_RC, (short) 0);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Control commands that carry a sequence number once FEATURE_RELIABLE is negotiated.
+
+    private static boolean isSequenced(final short code) {
+        return code == DroneClientServer.DroneSegment.ARM || code == DroneClientServer.DroneSegment.DISARM
+                || code == DroneClientServer.DroneSegment.END_TELEMETRY
+                || code == DroneClientServer.DroneSegment.END_CONNECTION;
+    }
+
+    // A telemetry-channel session only starts and stops the stream; it takes the features negotiated on the command
+    // channel and the RC state set there.
+
+    private void handleTelemetryChannel(final Session session, final short code) throws IOException {
+        if (code == DroneClientServer.DroneSegment.START_TELEMETRY && session.control.connected) {
+            if (!session.telemetry) {
+                session.features = session.control.features;
+                if ((session.features & DroneClientServer.DroneSegment.FEATURE_DELTA) == 0) {
+                    session.encoder = null;
+                } else if (session.encoder == null) {
+                    session.encoder = new DeltaCodec.Encoder(this.keyframeInterval);
+                } else {
+                    // Frame numbers keep counting, so the client's decoder does not take new frames for late ones.
+                    session.encoder.reset();
+                }
+                session.schedule(System.nanoTime());
+            }
+            session.telemetry = true;
+            this.reply(session, DroneClientServer.DroneSegment.TELEMETRY_ACCEPTED, (short) 0);
+        } else if (code == DroneClientServer.DroneSegment.END_TELEMETRY) {
+            session.telemetry = false;
+        }
+    }
+
+    private SocketAddress receive(final DatagramChannel channel) throws IOException {
+        this.receiveBuffer.clear();
+        final SocketAddress source = channel.receive(this.receiveBuffer);
+        this.receiveBuffer.flip();
+        return source;
+    }
+
+    private void reply(final Session session, final short code, final short argument) throws IOException {
+        if (this.commandLossProbability > 0 && this.random.nextDouble() < this.commandLossProbability) {
+            this.lost.incrementAndGet();
+            return;
+        }
+        this.sendBuffer.clear();
+        DroneSegmentCodec.encodeCommand(this.sendBuffer, code, argument).flip();
+        session.send(this.sendBuffer);
+    }
+
+    // Sends every telemetry frame that is due and returns the time until the next one.
+
+    private long emitDueTelemetry(final long now) throws IOException {
+        long wait = TimeUnit.MILLISECONDS.toNanos(100);
+        for (int drone = 0; drone < this.droneCount; drone++) {
+            for (final Session session : this.sessions[drone].values()) {
+                wait = Math.min(wait, this.emitDueTelemetry(session, now));
+            }
+        }
+        for (final Session session : this.attached) {
+            wait = Math.min(wait, this.emitDueTelemetry(session, now));
+        }
+        return wait;
+    }
+
+    private long emitDueTelemetry(final Session session, final long now) throws IOException {
+        long wait = Long.MAX_VALUE;
+        if (session.control != null && !session.control.connected) {
+            session.telemetry = false;
+        }
+        if (!session.telemetry) {
+            return wait;
+        }
+        final boolean batch = (session.features & DroneClientServer.DroneSegment.FEATURE_BATCH) != 0;
+        int batchStart = -1;
+        for (int i = 0; i < TELEMETRY_CODES.length; i++) {
+            final long period = this.periodNanos[i];
+            if (period == 0) {
+                continue;
+            }
+            if (now - session.nextDue[i] >= 0) {
+                if (!batch) {
+                    this.sendBuffer.clear();
+                    this.encode(session, i, now);
+                    this.emit(session);
+                } else {
+                    if (batchStart >= 0 && this.sendBuffer.position() + MAX_SEGMENT_LENGTH
+                            > DroneSegmentCodec.MAX_DATAGRAM_LENGTH) {
+                        DroneSegmentCodec.endBatch(this.sendBuffer, batchStart);
+                        this.emit(session);
+                        batchStart = -1;
+                    }
+                    if (batchStart < 0) {
+                        this.sendBuffer.clear();
+                        batchStart = DroneSegmentCodec.beginBatch(this.sendBuffer);
+                    }
+                    this.encode(session, i, now);
+                }
+                session.nextDue[i] += period;
+                if (now - session.nextDue[i] >= period) {
+                    session.nextDue[i] = now + period;
+                }
+            }
+            wait = Math.min(wait, session.nextDue[i] - now);
+        }
+        if (batchStart >= 0 && DroneSegmentCodec.endBatch(this.sendBuffer, batchStart)) {
+            this.emit(session);
+        }
+        return wait;
+    }
+
+    // Appends one telemetry segment to the send buffer.
+
+    private void encode(final Session session, final int index, final long now) {
+        final double t = (now - this.startNanos) / 1e9;
+        final short code = TELEMETRY_CODES[index];
+        final int count = this.fillPayload(code, session, t);
+        if (session.encoder != null) {
+            session.encoder.encode(this.sendBuffer, code, this.payload, count);
+        } else {
+            DroneSegmentCodec.encode(this.sendBuffer, code, this.payload, count);
+        }
+    }
+
+    // Sends the send buffer's content as one datagram, subject to the simulated loss and reordering.
+
+    private void emit(final Session session) throws IOException {
+        this.sendBuffer.flip();
+        if (this.random.nextDouble() < this.lossProbability) {
+            this.lost.incrementAndGet();
+            return;
+        }
+        if (this.heldSession == null && this.random.nextDouble() < this.reorderProbability) {
+            this.heldBuffer.clear();
+            this.heldBuffer.put(this.sendBuffer).flip();
+            this.heldSession = session;
+            this.reordered.incrementAndGet();
+            return;
+        }
+        session.send(this.sendBuffer);
+        this.sent.incrementAndGet();
+        if (this.heldSession != null) {
+            this.heldSession.send(this.heldBuffer);
+            this.heldSession = null;
+            this.sent.incrementAndGet();
+        }
+    }
+
+    // Smooth synthetic flight data, so filters and plots downstream see plausible signals.
+
+    private int fillPayload(final short code, final Session session, final double t) {
+        final Session state = session.control != null ? session.control : session;
+        final short throttle = state.armed ? state.rc[3] : 1000;
+        switch (code) {
+            case DroneClientServer.DroneSegment.RAW_IMU:
+                this.payload[0] = (short) (40 * Math.sin(2.1 * t));
+                this.payload[1] = (short) (40 * Math.cos(1.7 * t));
+                this.payload[2] = (short) (512 + 10 * Math.sin(9.0 * t));
+                this.payload[3] = (short) (25 * Math.cos(2.1 * t));
+                this.payload[4] = (short) (-25 * Math.sin(1.7 * t));
+                this.payload[5] = (short) (5 * Math.sin(0.3 * t));
+                this.payload[6] = (short) (200 * Math.cos(0.05 * t));
+                this.payload[7] = (short) (200 * Math.sin(0.05 * t));
+                this.payload[8] = (short) -400;
+                return 9;
+            case DroneClientServer.DroneSegment.SERVO:
+                for (int i = 0; i < 4; i++) {
+                    this.payload[i] = (short) (1500 + 100 * Math.sin(t + i));
+                }
+                return 4;
+            case DroneClientServer.DroneSegment.MOTOR:
+                for (int i = 0; i < 4; i++) {
+                    this.payload[i] = (short) (throttle + 20 * Math.sin(3 * t + i));
+                }
+                return 4;
+            case DroneClientServer.DroneSegment.RC:
+                System.arraycopy(state.rc, 0, this.payload, 0, 4);
+                return 4;
+            case DroneClientServer.DroneSegment.ATTITUDE:
+                this.payload[0] = (short) (150 * Math.sin(2.1 * t));
+                this.payload[1] = (short) (150 * Math.cos(1.7 * t));
+                this.payload[2] = (short) ((int) (t * 10) % 360);
+                return 3;
+            case DroneClientServer.DroneSegment.ALTITUDE:
+                this.payload[0] = (short) (state.armed ? 500 + 100 * Math.sin(0.2 * t) : 0);
+                this.payload[1] = (short) (state.armed ? 20 * Math.cos(0.2 * t) : 0);
+                return 2;
+            default:
+                return 0;
+        }
+    }
+
+    private static int indexOf(final short code) {
+        for (int i = 0; i < TELEMETRY_CODES.length; i++) {
+            if (TELEMETRY_CODES[i] == code) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // One client of one drone, reached either through a drone's channel or through an attached transport. A session
+    // on a telemetry channel points at the command session it streams for.
+
+    private static final class Session {
+
+        // Sequence numbers of sequenced commands already applied: the newest one and a bitmap of the 64 before it,
+        // as in an anti-replay window. Anything older than the window counts as a duplicate.
+        private static final int WINDOW = 64;
+
+        private final DatagramChannel channel;
+        private final SocketAddress target;
+        private final DroneTransport transport;
+        private Session control;
+        private final long[] nextDue = new long[TELEMETRY_CODES.length];
+        private final short[] rc = {1500, 1500, 1500, 1000};
+        private boolean connected;
+        private boolean telemetry;
+        private boolean armed;
+        private short features;
+        private DeltaCodec.Encoder encoder;
+        private int lastSequence = -1;
+        private long sequenceWindow;
+
+        private Session(final DatagramChannel channel, final SocketAddress target) {
+            this.channel = channel;
+            this.target = target;
+            this.transport = null;
+        }
+
+        private Session(final DroneTransport transport) {
+            this.channel = null;
+            this.target = null;
+            this.transport = transport;
+        }
+
+        private void send(final ByteBuffer datagram) throws IOException {
+            if (this.transport != null) {
+                if (this.transport.isOpen()) {
+                    this.transport.send(datagram);
+                }
+            } else {
+                this.channel.send(datagram, this.target);
+            }
+        }
+
+        private boolean isReliable() {
+            final short negotiated = this.control != null ? this.control.features : this.features;
+            return (negotiated & DroneClientServer.DroneSegment.FEATURE_RELIABLE) != 0;
+        }
+
+        private void resetSequences() {
+            this.lastSequence = -1;
+            this.sequenceWindow = 0;
+        }
+
+        // Records a 15-bit sequence number and returns whether it was seen for the first time.
+
+        private boolean accept(final int sequence) {
+            if (this.lastSequence < 0) {
+                this.lastSequence = sequence;
+                this.sequenceWindow = 1;
+                return true;
+            }
+            final int ahead = (sequence - this.lastSequence) & 0x7FFF;
+            if (ahead != 0 && ahead < 0x4000) {
+                this.sequenceWindow = ahead >= WINDOW ? 1 : this.sequenceWindow << ahead | 1;
+                this.lastSequence = sequence;
+                return true;
+            }
+            final int behind = (this.lastSequence - sequence) & 0x7FFF;
+            if (behind >= WINDOW || (this.sequenceWindow & 1L << behind) != 0) {
+                return false;
+            }
+            this.sequenceWindow |= 1L << behind;
+            return true;
+        }
+
+        private void schedule(final long now) {
+            for (int i = 0; i < this.nextDue.length; i++) {
+                this.nextDue[i] = now;
+            }
+        }
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        int port = 4445;
+        int drones = 1;
+        int telemetryPort = 0;
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+        if (options.containsKey("--port")) {
+            port = Integer.parseInt(options.get("--port"));
+        }
+        if (options.containsKey("--drones")) {
+            drones = Integer.parseInt(options.get("--drones"));
+        }
+        if (options.containsKey("--telemetry-port")) {
+            telemetryPort = Integer.parseInt(options.get("--telemetry-port"));
+        }
+
+        try (DroneSimulator simulator = new DroneSimulator(port, drones, telemetryPort)) {
+            if (options.containsKey("--rate")) {
+                simulator.setRate(Double.parseDouble(options.get("--rate")));
+            }
+            for (final short code : TELEMETRY_CODES) {
+                final String rate = options.get("--rate-" + code);
+                if (rate != null) {
+                    simulator.setRate(code, Double.parseDouble(rate));
+                }
+            }
+            if (options.containsKey("--loss")) {
+                simulator.setLossProbability(Double.parseDouble(options.get("--loss")));
+            }
+            if (options.containsKey("--command-loss")) {
+                simulator.setCommandLossProbability(Double.parseDouble(options.get("--command-loss")));
+            }
+            if (options.containsKey("--reorder")) {
+                simulator.setReorderProbability(Double.parseDouble(options.get("--reorder")));
+            }
+            if (options.containsKey("--seed")) {
+                simulator.setSeed(Long.parseLong(options.get("--seed")));
+            }
+            if (options.containsKey("--features")) {
+                simulator.setSupportedFeatures(Short.parseShort(options.get("--features")));
+            }
+            simulator.start();
+            System.out.format("Simulating %d drone(s) on 127.0.0.1:%d-%d\n", drones, port, port + drones - 1);
+            if (telemetryPort > 0) {
+                System.out.format("Telemetry ports 127.0.0.1:%d-%d\n", telemetryPort, telemetryPort + drones - 1);
+            }
+
+            long lastSent = 0;
+            while (true) {
+                Thread.sleep(1000);
+                final long sent = simulator.getSentCount();
+                System.out.format("sent/s: %d, lost: %d, reordered: %d, commands: %d\n",
+                        sent - lastSent, simulator.getLostCount(), simulator.getReorderedCount(),
+                        simulator.getCommandCount());
+                lastSent = sent;
+            }
+        }
+    }
+}
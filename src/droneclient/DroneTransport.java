@@ -0,0 +1,36 @@
+package droneclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/* Datagram link between a client and one drone. DroneClientServer and DroneClient only speak the protocol through
+ * this interface, so the same code runs over real UDP (UdpTransport) or in-process queues (LoopbackTransport).
+ * Implementations keep datagram semantics: every send is delivered whole or not at all, and nothing is retried. */
+
+public interface DroneTransport extends Closeable {
+
+    // Sends the bytes between the buffer's position and limit as one datagram to the peer.
+
+    void send(ByteBuffer datagram) throws IOException;
+
+    // Waits for one datagram and copies it into buffer[offset, offset + length), truncating longer ones. Returns the
+    // number of bytes copied, or -1 if nothing arrived within timeoutMillis. A timeout of 0 only takes what is
+    // already there (UDP waits up to a millisecond); a negative timeout waits until a datagram arrives or the
+    // transport is closed.
+
+    int receive(byte[] buffer, int offset, int length, long timeoutMillis) throws IOException;
+
+    boolean isOpen();
+
+    // Requests a receive buffer of the given size in bytes (SO_RCVBUF for sockets). Transports without a kernel
+    // buffer ignore it.
+
+    default void setReceiveBufferSize(final int bytes) throws IOException {
+    }
+
+    // Address of the peer, for logs and metrics names.
+
+    SocketAddress getRemoteAddress();
+}
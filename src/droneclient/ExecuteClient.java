@@ -0,0 +1,44 @@
+package droneclient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+public class ExecuteClient {
+
+    private static final int command_port = 4445;
+    private static final int telemetry_port = 4446;
+    private static final String ip = "192.168.0.162";
+
+    public static void main (String[] args) throws SocketException, UnknownHostException, InterruptedException {
+        // An optional first argument names a file to record the flight telemetry to, an optional second one a file
+        // for the per-packet telemetry log and an optional third one a shared-memory file (e.g. under /dev/shm) that
+        // other local processes can follow with SharedTelemetryReader.
+        // Resources close in reverse order, so the client is declared last: its receive thread stops before the
+        // recorder, log and shared publisher it feeds are closed.
+        try(TelemetryRecorder recorder=args.length > 0 ? new TelemetryRecorder(Paths.get(args[0])) : null;
+            AsyncTelemetryLog log=args.length > 1
+                    ? new AsyncTelemetryLog(Files.newOutputStream(Paths.get(args[1]))) : null;
+            SharedTelemetryPublisher shared=args.length > 2 ? new SharedTelemetryPublisher(Paths.get(args[2])) : null;
+            ConsoleDashboard dashboard=new ConsoleDashboard();
+            DroneClientServer droneClientServer=new DroneClientServer(new InetSocketAddress(ip,4445))){
+            dashboard.attach(droneClientServer.getTelemetryListeners());
+            droneClientServer.setTelemetryRecorder(recorder);
+            droneClientServer.setTelemetryLog(log);
+            droneClientServer.setSharedTelemetryPublisher(shared);
+            droneClientServer.getTelemetryMetrics().register(ip);
+            droneClientServer.start();
+            //dronClientServer.send Arm();
+            droneClientServer.startTelemetry();
+            dashboard.start();
+            Thread.sleep((long)1000000000);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+    }
+
+}
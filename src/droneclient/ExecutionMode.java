@@ -0,0 +1,45 @@
+package droneclient;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Selects the kind of threads a DroneClientServer runs its blocking socket work and callbacks on. PLATFORM keeps the
+ * classic one-OS-thread-per-task behaviour. VIRTUAL uses virtual threads, so one process can drive many drone sessions
+ * and slow callbacks without exhausting platform threads. Virtual threads are looked up reflectively because the
+ * project still compiles for Java 9; selecting VIRTUAL on a JVM older than 21 fails fast. */
+
+public enum ExecutionMode {
+
+    PLATFORM,
+    VIRTUAL;
+
+    public ThreadFactory threadFactory(final String namePrefix, final boolean daemon) {
+        if (this == VIRTUAL) {
+            return VirtualThreads.factory(namePrefix);
+        }
+        final AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, namePrefix + "-" + counter.getAndIncrement());
+            thread.setDaemon(daemon);
+            return thread;
+        };
+    }
+
+    private static final class VirtualThreads {
+
+        private static ThreadFactory factory(final String namePrefix) {
+            try {
+                final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                final Object named = builderClass.getMethod("name", String.class, long.class)
+                        .invoke(builder, namePrefix + "-", 0L);
+                return (ThreadFactory) builderClass.getMethod("factory").invoke(named);
+            } catch (NoSuchMethodException | ClassNotFoundException e) {
+                throw new UnsupportedOperationException("Virtual threads require Java 21 or newer", e);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException("Unable to create a virtual thread factory", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package droneclient;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* Lock-free histogram of durations in nanoseconds. Every power of two is split into eight linear sub-buckets, so
+ * recording is a few shifts and atomic adds and never allocates, which keeps it cheap enough for the receive and
+ * dispatcher threads. Quantiles are reported as the upper bound of their bucket, i.e. within 12.5% of the true
+ * value. */
+
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(final long nanos) {
+        final long value = nanos < 0 ? 0 : nanos;
+        this.buckets.incrementAndGet(bucket(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        long current = this.max.get();
+        while (value > current && !this.max.compareAndSet(current, value)) {
+            current = this.max.get();
+        }
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    // Copies the current state. Concurrent recording may make the copy slightly inconsistent (e.g. count one ahead
+    // of the buckets), which is fine for monitoring.
+
+    public Snapshot snapshot() {
+        final long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = this.buckets.get(i);
+        }
+        return new Snapshot(copy, this.count.get(), this.sum.get(), this.max.get());
+    }
+
+    // Values below SUB_BUCKETS get a bucket each; above that, the leading bit picks the power of two and the next
+    // SUB_BUCKET_BITS bits pick the sub-bucket.
+
+    private static int bucket(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long upperBound(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    public static final class Snapshot {
+
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(final long[] buckets, final long count, final long sum, final long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public double getMeanNanos() {
+            return this.count == 0 ? 0 : (double) this.sum / this.count;
+        }
+
+        public long getMaxNanos() {
+            return this.max;
+        }
+
+        public long getP50Nanos() {
+            return this.percentile(0.5);
+        }
+
+        public long getP99Nanos() {
+            return this.percentile(0.99);
+        }
+
+        public long getP999Nanos() {
+            return this.percentile(0.999);
+        }
+
+        // Upper bound of the bucket holding the q-th quantile (0 <= q <= 1), capped at the largest recorded value.
+
+        public long percentile(final double q) {
+            long total = 0;
+            for (final long bucket : this.buckets) {
+                total += bucket;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(q * total));
+            long seen = 0;
+            for (int i = 0; i < this.buckets.length; i++) {
+                seen += this.buckets[i];
+                if (seen >= rank) {
+                    return Math.min(this.max, upperBound(i));
+                }
+            }
+            return this.max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus", this.count,
+                    this.getMeanNanos() / 1e3, this.getP50Nanos() / 1e3, this.getP99Nanos() / 1e3, this.max / 1e3);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package droneclient;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* In-process DroneTransport: pair() returns two connected endpoints that exchange datagrams through bounded queues of
+ * pooled byte slots, so a client and a simulated drone (see DroneSimulator.attach) can run the full protocol at
+ * memory speed without touching the kernel. Like UDP, a send to a full queue drops the datagram. */
+
+public class LoopbackTransport implements DroneTransport {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final int SLOT_SIZE = DroneSegmentCodec.MAX_DATAGRAM_LENGTH;
+
+    private final Direction outbound;
+    private final Direction inbound;
+    private final SocketAddress remoteAddress;
+    private volatile boolean open = true;
+    private volatile LoopbackTransport peer;
+
+    private LoopbackTransport(final Direction outbound, final Direction inbound, final SocketAddress remoteAddress) {
+        this.outbound = outbound;
+        this.inbound = inbound;
+        this.remoteAddress = remoteAddress;
+    }
+
+    // Returns {client end, drone end}.
+
+    public static LoopbackTransport[] pair() {
+        return pair(DEFAULT_CAPACITY);
+    }
+
+    // capacity is the number of datagrams that can be in flight in each direction.
+
+    public static LoopbackTransport[] pair(final int capacity) {
+        final Direction toDrone = new Direction(capacity);
+        final Direction toClient = new Direction(capacity);
+        final LoopbackTransport client = new LoopbackTransport(toDrone, toClient,
+                InetSocketAddress.createUnresolved("loopback-drone", 0));
+        final LoopbackTransport drone = new LoopbackTransport(toClient, toDrone,
+                InetSocketAddress.createUnresolved("loopback-client", 0));
+        client.peer = drone;
+        drone.peer = client;
+        return new LoopbackTransport[]{client, drone};
+    }
+
+    @Override
+    public void send(final ByteBuffer datagram) throws IOException {
+        if (!this.open) {
+            throw new ClosedChannelException();
+        }
+        final Slot slot = this.outbound.free.poll();
+        if (slot == null || !this.peer.open) {
+            // Queue full or nobody listening: dropped, as UDP would.
+            datagram.position(datagram.limit());
+            if (slot != null) {
+                this.outbound.free.offer(slot);
+            }
+            this.outbound.dropped.incrementAndGet();
+            return;
+        }
+        slot.length = Math.min(datagram.remaining(), SLOT_SIZE);
+        datagram.get(slot.bytes, 0, slot.length);
+        datagram.position(datagram.limit());
+        this.outbound.filled.offer(slot);
+    }
+
+    @Override
+    public int receive(final byte[] buffer, final int offset, final int length, final long timeoutMillis)
+            throws IOException {
+        if (!this.open) {
+            throw new ClosedChannelException();
+        }
+        final Slot slot;
+        try {
+            if (timeoutMillis == 0) {
+                slot = this.inbound.filled.poll();
+            } else {
+                slot = this.inbound.filled.poll(timeoutMillis < 0 ? Long.MAX_VALUE : timeoutMillis,
+                        TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while receiving");
+        }
+        if (slot == null) {
+            return -1;
+        }
+        if (slot == Direction.CLOSED) {
+            throw new ClosedChannelException();
+        }
+        final int copied = Math.min(slot.length, length);
+        System.arraycopy(slot.bytes, 0, buffer, offset, copied);
+        this.inbound.free.offer(slot);
+        return copied;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.open;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return this.remoteAddress;
+    }
+
+    // Datagrams this end could not send because the peer's queue was full or the peer was closed.
+
+    public long getDroppedCount() {
+        return this.outbound.dropped.get();
+    }
+
+    // Wakes up a receive blocked on this end.
+
+    @Override
+    public void close() {
+        if (this.open) {
+            this.open = false;
+            this.inbound.filled.offer(Direction.CLOSED);
+        }
+    }
+
+    private static final class Slot {
+
+        private final byte[] bytes;
+        private int length;
+
+        private Slot(final int size) {
+            this.bytes = new byte[size];
+        }
+    }
+
+    private static final class Direction {
+
+        private static final Slot CLOSED = new Slot(0);
+
+        private final BlockingQueue<Slot> filled;
+        private final BlockingQueue<Slot> free;
+        private final AtomicLong dropped = new AtomicLong();
+
+        private Direction(final int capacity) {
+            // One spare place so close() can always enqueue its marker.
+            this.filled = new ArrayBlockingQueue<>(capacity + 1);
+            this.free = new ArrayBlockingQueue<>(capacity);
+            for (int i = 0; i < capacity; i++) {
+                this.free.offer(new Slot(SLOT_SIZE));
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package droneclient;
+
+/* Discrete PID controller for the control loops run by ControlLoopScheduler. The derivative acts on the measurement
+ * rather than the error, so a setpoint change does not kick the output, and the integral only accumulates while the
+ * output is not saturated in the direction of the error (conditional integration), so it cannot wind up while the
+ * output sits at a limit. Not thread-safe: it belongs to the loop thread that calls update(). */
+
+public class PidController {
+
+    private final double kp;
+    private final double ki;
+    private final double kd;
+    private final double outputMin;
+    private final double outputMax;
+
+    private double integral;
+    private double derivative;
+    private double previousMeasurement;
+    private long previousSampleNanos;
+    private boolean initialized;
+
+    public PidController(final double kp, final double ki, final double kd, final double outputMin,
+                         final double outputMax) {
+        if (outputMin >= outputMax) {
+            throw new IllegalArgumentException("outputMin must be below outputMax: " + outputMin + ".." + outputMax);
+        }
+        this.kp = kp;
+        this.ki = ki;
+        this.kd = kd;
+        this.outputMin = outputMin;
+        this.outputMax = outputMax;
+    }
+
+    // Advances the controller by dtSeconds and returns the output, clamped to [outputMin, outputMax]. Every call is
+    // taken as a new measurement dtSeconds after the previous one.
+
+    public double update(final double setpoint, final double measurement, final double dtSeconds) {
+        checkDt(dtSeconds);
+        this.derivative = this.initialized ? -(measurement - this.previousMeasurement) / dtSeconds : 0;
+        this.previousMeasurement = measurement;
+        this.initialized = true;
+        return this.output(setpoint - measurement, dtSeconds);
+    }
+
+    // Same as above for a loop running faster than its input: sampleNanos is the time the measurement was taken, and
+    // the derivative is only updated when it changes, over the real interval between the two samples. Between new
+    // samples the last derivative is held, so repeated samples neither zero it nor make the next one spike.
+
+    public double update(final double setpoint, final double measurement, final long sampleNanos,
+                         final double dtSeconds) {
+        checkDt(dtSeconds);
+        if (!this.initialized) {
+            this.derivative = 0;
+        } else if (sampleNanos != this.previousSampleNanos) {
+            final double interval = (sampleNanos - this.previousSampleNanos) / 1e9;
+            this.derivative = interval > 0 ? -(measurement - this.previousMeasurement) / interval : 0;
+        }
+        this.previousMeasurement = measurement;
+        this.previousSampleNanos = sampleNanos;
+        this.initialized = true;
+        return this.output(setpoint - measurement, dtSeconds);
+    }
+
+    // Clears the integral and derivative history, e.g. when the loop is re-engaged.
+
+    public void reset() {
+        this.integral = 0;
+        this.derivative = 0;
+        this.previousMeasurement = 0;
+        this.previousSampleNanos = 0;
+        this.initialized = false;
+    }
+
+    public double getIntegral() {
+        return this.integral;
+    }
+
+    private double output(final double error, final double dtSeconds) {
+        final double unclamped = this.kp * error + this.integral + this.kd * this.derivative;
+        final boolean saturatedHigh = unclamped >= this.outputMax && error > 0;
+        final boolean saturatedLow = unclamped <= this.outputMin && error < 0;
+        if (!saturatedHigh && !saturatedLow) {
+            this.integral = clamp(this.integral + this.ki * error * dtSeconds, this.outputMin, this.outputMax);
+        }
+        return clamp(this.kp * error + this.integral + this.kd * this.derivative, this.outputMin, this.outputMax);
+    }
+
+    private static void checkDt(final double dtSeconds) {
+        if (dtSeconds <= 0) {
+            throw new IllegalArgumentException("dtSeconds must be positive: " + dtSeconds);
+        }
+    }
+
+    private static double clamp(final double value, final double min, final double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,146 @@
+package droneclient;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/* Streams SET_RC commands at a fixed rate. Callers only publish the latest roll/pitch/yaw/throttle setpoint, which is
+ * packed into a single AtomicLong, so updates never block and intermediate values are coalesced: each tick sends
+ * whatever setpoint is current, without waiting for an acknowledgement. A tick that is late by a whole period or more
+ * counts as a missed deadline and is skipped instead of being sent in a burst. */
+
+public class RcStreamer implements AutoCloseable {
+
+    public interface RcSender {
+        void sendRc(short roll, short pitch, short yaw, short throttle) throws IOException;
+    }
+
+    public static final int MIN_RATE_HZ = 1;
+    public static final int MAX_RATE_HZ = 1000;
+
+    // Remaining time below which the sender stops parking and yields until the deadline.
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final RcSender sender;
+    private final long periodNanos;
+    private final Thread thread;
+
+    private final AtomicLong setpoint = new AtomicLong();
+    private final AtomicLong pendingUpdates = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong missedDeadlines = new AtomicLong();
+    private final AtomicLong sendErrors = new AtomicLong();
+
+    private volatile boolean hasSetpoint;
+    private volatile boolean running;
+
+    public RcStreamer(final RcSender sender, final int rateHz, final ThreadFactory threadFactory) {
+        if (rateHz < MIN_RATE_HZ || rateHz > MAX_RATE_HZ) {
+            throw new IllegalArgumentException(
+                    "RC rate must be between " + MIN_RATE_HZ + " and " + MAX_RATE_HZ + " Hz");
+        }
+        this.sender = sender;
+        this.periodNanos = TimeUnit.SECONDS.toNanos(1) / rateHz;
+        this.thread = threadFactory.newThread(this::run);
+    }
+
+    public void start() {
+        this.running = true;
+        this.thread.start();
+    }
+
+    // Replaces the setpoint sent on the next tick. Safe to call from any thread at any rate.
+
+    public void update(final short roll, final short pitch, final short yaw, final short throttle) {
+        this.setpoint.set(pack(roll, pitch, yaw, throttle));
+        this.hasSetpoint = true;
+        this.pendingUpdates.incrementAndGet();
+    }
+
+    public long getSentCount() {
+        return this.sent.get();
+    }
+
+    // Updates that were overwritten by a newer setpoint before they could be sent.
+
+    public long getCoalescedCount() {
+        return this.coalesced.get();
+    }
+
+    public long getMissedDeadlineCount() {
+        return this.missedDeadlines.get();
+    }
+
+    public long getSendErrorCount() {
+        return this.sendErrors.get();
+    }
+
+    public long getPeriodNanos() {
+        return this.periodNanos;
+    }
+
+    @Override
+    public void close() {
+        this.running = false;
+        LockSupport.unpark(this.thread);
+        if (Thread.currentThread() != this.thread) {
+            try {
+                this.thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        long deadline = System.nanoTime();
+        while (this.running) {
+            this.awaitDeadline(deadline);
+            if (!this.running) {
+                return;
+            }
+
+            final long late = System.nanoTime() - deadline;
+            if (late >= this.periodNanos) {
+                final long missed = late / this.periodNanos;
+                this.missedDeadlines.addAndGet(missed);
+                deadline += missed * this.periodNanos;
+            }
+
+            if (this.hasSetpoint) {
+                final long updates = this.pendingUpdates.getAndSet(0);
+                if (updates > 1) {
+                    this.coalesced.addAndGet(updates - 1);
+                }
+                final long value = this.setpoint.get();
+                try {
+                    this.sender.sendRc((short) (value >>> 48), (short) (value >>> 32), (short) (value >>> 16),
+                            (short) value);
+                    this.sent.incrementAndGet();
+                } catch (IOException e) {
+                    this.sendErrors.incrementAndGet();
+                }
+            }
+
+            deadline += this.periodNanos;
+        }
+    }
+
+    private void awaitDeadline(final long deadline) {
+        long remaining;
+        while (this.running && (remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    private static long pack(final short roll, final short pitch, final short yaw, final short throttle) {
+        return (roll & 0xFFFFL) << 48 | (pitch & 0xFFFFL) << 32 | (yaw & 0xFFFFL) << 16 | throttle & 0xFFFFL;
+    }
+}
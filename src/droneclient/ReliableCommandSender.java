@@ -0,0 +1,154 @@
+package droneclient;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Delivers control commands over the unreliable link: a command is retransmitted with exponential backoff from the RTO
+ * (see RetransmissionTimer) until its reply arrives or its total deadline passes, and the RTO is learned from the round
+ * trips of sequenced commands answered on their first transmission. Sequenced commands carry a 15-bit sequence number
+ * that the server echoes in its acknowledgement and uses to apply every command once, however many copies arrive; the
+ * CommandCorrelator only accepts the acknowledgement for the current sequence, so a late duplicate cannot complete a
+ * newer command. Handshakes whose replies are idempotent (START_CONNECTION, START_TELEMETRY) are retransmitted without
+ * a sequence. */
+
+public class ReliableCommandSender implements AutoCloseable {
+
+    public interface Transmission {
+        void send(short sequence) throws IOException;
+    }
+
+    private final CommandCorrelator correlator;
+    private final RetransmissionTimer timer;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicInteger nextSequence = new AtomicInteger();
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong retransmissions = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    public ReliableCommandSender(final CommandCorrelator correlator, final RetransmissionTimer timer,
+                                 final ThreadFactory threadFactory) {
+        this.correlator = correlator;
+        this.timer = timer;
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+        executor.setRemoveOnCancelPolicy(true);
+        this.scheduler = executor;
+    }
+
+    // Sends a command and completes with its reply, retransmitting until the deadline. With sequenced, the
+    // transmission gets a fresh sequence number and only a reply echoing it counts; otherwise it gets
+    // CommandCorrelator.NO_SEQUENCE and any reply with replyCode completes it. Fails with a TimeoutException once the
+    // deadline has passed.
+
+    public CompletableFuture<DroneClientServer.DroneSegment> send(final short replyCode, final boolean sequenced,
+                                                                  final long deadline, final TimeUnit unit,
+                                                                  final Transmission transmission) {
+        final int sequence = sequenced ? this.nextSequence.getAndIncrement() & 0x7FFF : CommandCorrelator.NO_SEQUENCE;
+        final CompletableFuture<DroneClientServer.DroneSegment> future =
+                this.correlator.expect(replyCode, sequence, deadline, unit);
+        final Attempt attempt = new Attempt(replyCode, sequence, future, transmission);
+        this.sent.incrementAndGet();
+        attempt.transmit();
+        return future.whenComplete((reply, error) -> {
+            attempt.cancel();
+            if (error == null) {
+                if (attempt.transmissions == 1 && sequenced) {
+                    // An unsequenced reply may answer an earlier send of the same code, so only echoes are timed.
+                    this.timer.sample(System.nanoTime() - attempt.firstSentAt);
+                }
+            } else {
+                this.expired.incrementAndGet();
+            }
+        });
+    }
+
+    public RetransmissionTimer getTimer() {
+        return this.timer;
+    }
+
+    public long getSentCount() {
+        return this.sent.get();
+    }
+
+    public long getRetransmissionCount() {
+        return this.retransmissions.get();
+    }
+
+    // Commands that failed: deadline passed, send error or connection closed.
+
+    public long getExpiredCount() {
+        return this.expired.get();
+    }
+
+    @Override
+    public void close() {
+        this.scheduler.shutdownNow();
+    }
+
+    private final class Attempt {
+
+        private final short replyCode;
+        private final int sequence;
+        private final CompletableFuture<DroneClientServer.DroneSegment> future;
+        private final Transmission transmission;
+        private volatile long firstSentAt;
+        private volatile int transmissions;
+        private volatile long rtoNanos;
+        private volatile ScheduledFuture<?> retransmit;
+
+        private Attempt(final short replyCode, final int sequence,
+                        final CompletableFuture<DroneClientServer.DroneSegment> future,
+                        final Transmission transmission) {
+            this.replyCode = replyCode;
+            this.sequence = sequence;
+            this.future = future;
+            this.transmission = transmission;
+        }
+
+        private void transmit() {
+            if (this.future.isDone()) {
+                return;
+            }
+            final long now = System.nanoTime();
+            if (this.transmissions == 0) {
+                this.firstSentAt = now;
+                this.rtoNanos = timer.getRtoNanos();
+            }
+            this.transmissions++;
+            try {
+                this.transmission.send((short) this.sequence);
+            } catch (IOException e) {
+                correlator.fail(this.replyCode, this.future, e);
+                return;
+            }
+            try {
+                this.retransmit = scheduler.schedule(this::onTimeout, this.rtoNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // Closed: the correlator fails the command.
+            }
+        }
+
+        private void onTimeout() {
+            if (!this.future.isDone()) {
+                this.rtoNanos = timer.backoff(this.rtoNanos);
+                retransmissions.incrementAndGet();
+                this.transmit();
+            }
+        }
+
+        private void cancel() {
+            final ScheduledFuture<?> scheduled = this.retransmit;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package droneclient;
+
+import java.util.concurrent.TimeUnit;
+
+/* Retransmission timeout estimator after RFC 6298: a smoothed round-trip time and its mean deviation are updated from
+ * every unambiguous round trip, and RTO = SRTT + max(G, 4 * RTTVAR), clamped to [minRto, maxRto]. Every expiry of a
+ * command's timer doubles that command's RTO (exponential backoff), but unlike RFC 6298 the backoff is not carried
+ * over to the next command: each one starts from the estimate, which keeps one unlucky command from slowing down all
+ * that follow on a link that is lossy but not congested. Samples must come from commands answered on their first
+ * transmission only (Karn's algorithm), since a reply to a retransmitted command cannot be matched to one send.
+ *
+ * The RFC's 1 s lower bound is meant for the Internet; a drone link is a single hop, so the default minimum is 10 ms
+ * and the initial RTO, used until the first sample, is 250 ms. */
+
+public class RetransmissionTimer {
+
+    public static final long DEFAULT_INITIAL_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    public static final long DEFAULT_MIN_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    public static final long DEFAULT_MAX_RTO_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    // Granularity of the timer that fires retransmissions.
+    private static final long CLOCK_GRANULARITY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final long minRtoNanos;
+    private final long maxRtoNanos;
+    private long srttNanos;
+    private long rttvarNanos;
+    private long rtoNanos;
+    private boolean sampled;
+
+    public RetransmissionTimer() {
+        this(DEFAULT_INITIAL_RTO_NANOS, DEFAULT_MIN_RTO_NANOS, DEFAULT_MAX_RTO_NANOS);
+    }
+
+    public RetransmissionTimer(final long initialRtoNanos, final long minRtoNanos, final long maxRtoNanos) {
+        if (minRtoNanos <= 0 || maxRtoNanos < minRtoNanos) {
+            throw new IllegalArgumentException("Invalid RTO bounds: " + minRtoNanos + ".." + maxRtoNanos);
+        }
+        this.minRtoNanos = minRtoNanos;
+        this.maxRtoNanos = maxRtoNanos;
+        this.rtoNanos = this.clamp(initialRtoNanos);
+    }
+
+    // Feeds one measured round trip (RFC 6298 sections 2.2 and 2.3).
+
+    public synchronized void sample(final long rttNanos) {
+        if (rttNanos < 0) {
+            return;
+        }
+        if (!this.sampled) {
+            this.srttNanos = rttNanos;
+            this.rttvarNanos = rttNanos / 2;
+            this.sampled = true;
+        } else {
+            // RTTVAR <- 3/4 RTTVAR + 1/4 |SRTT - R|, then SRTT <- 7/8 SRTT + 1/8 R.
+            this.rttvarNanos += (Math.abs(this.srttNanos - rttNanos) - this.rttvarNanos) / 4;
+            this.srttNanos += (rttNanos - this.srttNanos) / 8;
+        }
+        this.rtoNanos = this.clamp(this.srttNanos + Math.max(CLOCK_GRANULARITY_NANOS, 4 * this.rttvarNanos));
+    }
+
+    // The RTO after one more expiry of a command whose current RTO is rtoNanos (RFC 6298 section 5.5).
+
+    public long backoff(final long rtoNanos) {
+        return Math.min(this.maxRtoNanos, rtoNanos * 2);
+    }
+
+    public synchronized long getRtoNanos() {
+        return this.rtoNanos;
+    }
+
+    // Smoothed round trip, or 0 before the first sample.
+
+    public synchronized long getSmoothedRttNanos() {
+        return this.srttNanos;
+    }
+
+    public synchronized long getRttVariationNanos() {
+        return this.rttvarNanos;
+    }
+
+    private long clamp(final long rtoNanos) {
+        return Math.max(this.minRtoNanos, Math.min(this.maxRtoNanos, rtoNanos));
+    }
+}
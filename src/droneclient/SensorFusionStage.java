@@ -0,0 +1,402 @@
+package droneclient;
+
+import java.util.function.Consumer;
+
+/* Streaming sensor fusion over RAW_IMU telemetry. Every RAW_IMU segment updates, in O(1) and without allocating:
+ *  - a moving average and a first-order low-pass filter per raw axis (acc, gyro and mag x/y/z),
+ *  - an attitude estimate from a complementary filter or Madgwick's gradient-descent filter, fed with the raw gyro
+ *    rates and the low-passed accelerometer and magnetometer.
+ * The fused roll/pitch/heading come out at the RAW_IMU rate and can be compared with the drone's own ATTITUDE (108),
+ * which reports angx/angy in tenths of a degree and heading in degrees.
+ *
+ * The stage is meant to run on the dispatcher thread that owns RAW_IMU (see attach). Its getters are only consistent
+ * when read from the update callback on that thread; copy what other threads need. The time spent in each update is
+ * kept in getUpdateTime() to check it stays within the latency budget. */
+
+public class SensorFusionStage {
+
+    public enum Estimator {
+        COMPLEMENTARY,
+        MADGWICK
+    }
+
+    // MultiWii sends gyroADC / 4 with the MPU6050 scale of 16.4 LSB per deg/s.
+    private static final double DEFAULT_GYRO_SCALE = Math.toRadians(4 / 16.4);
+    private static final double MAX_DT = 0.1;
+    private static final int AXES = 9;
+
+    private final Estimator estimator;
+    private final MovingAverage[] averages = new MovingAverage[AXES];
+    private final LowPass[] lowPasses = new LowPass[AXES];
+    private final LatencyHistogram updateTime = new LatencyHistogram();
+
+    private double gyroScale = DEFAULT_GYRO_SCALE;
+    private double complementaryGain = 0.98;
+    private double beta = 0.1;
+    private Consumer<SensorFusionStage> onUpdate;
+
+    private long lastNanos;
+    private long updates;
+
+    // Madgwick state, also used to report the complementary estimate.
+    private double q0 = 1;
+    private double q1;
+    private double q2;
+    private double q3;
+
+    // Complementary state, radians.
+    private double roll;
+    private double pitch;
+    private double yaw;
+
+    public SensorFusionStage() {
+        this(Estimator.MADGWICK, 8, 20);
+    }
+
+    // window is the moving-average length in samples; cutoffHz is the corner frequency of the low-pass filters.
+
+    public SensorFusionStage(final Estimator estimator, final int window, final double cutoffHz) {
+        if (window < 1 || cutoffHz <= 0) {
+            throw new IllegalArgumentException("window and cutoffHz must be positive");
+        }
+        this.estimator = estimator;
+        for (int i = 0; i < AXES; i++) {
+            this.averages[i] = new MovingAverage(window);
+            this.lowPasses[i] = new LowPass(cutoffHz);
+        }
+    }
+
+    // Radians per second for one unit of the raw gyro values.
+
+    public void setGyroScale(final double gyroScale) {
+        this.gyroScale = gyroScale;
+    }
+
+    // Weight of the integrated gyro in the complementary filter (0..1); the rest comes from the accelerometer and
+    // magnetometer.
+
+    public void setComplementaryGain(final double complementaryGain) {
+        this.complementaryGain = complementaryGain;
+    }
+
+    // Madgwick filter gain: higher converges faster but lets more accelerometer noise through.
+
+    public void setBeta(final double beta) {
+        this.beta = beta;
+    }
+
+    // Called on the updating thread after every RAW_IMU sample.
+
+    public void setOnUpdate(final Consumer<SensorFusionStage> onUpdate) {
+        this.onUpdate = onUpdate;
+    }
+
+    public SensorFusionStage attach(final TelemetryListeners listeners) {
+        listeners.on(DroneClientServer.DroneSegment.RAW_IMU, this::update);
+        return this;
+    }
+
+    public void update(final DroneSegmentView view) {
+        this.update(System.nanoTime(), view);
+    }
+
+    public void update(final long nanoTime, final DroneSegmentView view) {
+        if (view.code() != DroneClientServer.DroneSegment.RAW_IMU || view.payloadLength() < AXES) {
+            return;
+        }
+        final long startedAt = System.nanoTime();
+        final double dt = this.lastNanos == 0 ? 0 : Math.min(MAX_DT, Math.max(0, (nanoTime - this.lastNanos) / 1e9));
+        this.lastNanos = nanoTime;
+        for (int i = 0; i < AXES; i++) {
+            final short raw = view.payload(i);
+            this.averages[i].update(raw);
+            this.lowPasses[i].update(raw, dt);
+        }
+        final double gx = view.payload(3) * this.gyroScale;
+        final double gy = view.payload(4) * this.gyroScale;
+        final double gz = view.payload(5) * this.gyroScale;
+        final double ax = this.lowPasses[0].value;
+        final double ay = this.lowPasses[1].value;
+        final double az = this.lowPasses[2].value;
+        final double mx = this.lowPasses[6].value;
+        final double my = this.lowPasses[7].value;
+        final double mz = this.lowPasses[8].value;
+        if (this.estimator == Estimator.MADGWICK && dt > 0) {
+            this.madgwick(gx, gy, gz, ax, ay, az, mx, my, mz, dt);
+        } else if (this.estimator == Estimator.MADGWICK) {
+            // Start from the measured tilt and heading instead of letting the filter converge from level.
+            this.complementary(gx, gy, gz, ax, ay, az, mx, my, mz, 0);
+            this.setQuaternion(this.roll, this.pitch, this.yaw);
+        } else {
+            this.complementary(gx, gy, gz, ax, ay, az, mx, my, mz, dt);
+        }
+        this.updates++;
+        this.updateTime.record(System.nanoTime() - startedAt);
+        if (this.onUpdate != null) {
+            this.onUpdate.accept(this);
+        }
+    }
+
+    public long getUpdateCount() {
+        return this.updates;
+    }
+
+    public LatencyHistogram.Snapshot getUpdateTime() {
+        return this.updateTime.snapshot();
+    }
+
+    // Moving average of a raw axis: 0..2 acc x/y/z, 3..5 gyro x/y/z, 6..8 mag x/y/z (RAW_IMU payload order).
+
+    public double getAverage(final int axis) {
+        return this.averages[axis].value;
+    }
+
+    public double getLowPass(final int axis) {
+        return this.lowPasses[axis].value;
+    }
+
+    public double getRollDegrees() {
+        return Math.toDegrees(this.estimator == Estimator.MADGWICK
+                ? Math.atan2(2 * (this.q0 * this.q1 + this.q2 * this.q3),
+                        1 - 2 * (this.q1 * this.q1 + this.q2 * this.q2))
+                : this.roll);
+    }
+
+    public double getPitchDegrees() {
+        if (this.estimator != Estimator.MADGWICK) {
+            return Math.toDegrees(this.pitch);
+        }
+        final double sin = 2 * (this.q0 * this.q2 - this.q3 * this.q1);
+        return Math.toDegrees(Math.asin(Math.max(-1, Math.min(1, sin))));
+    }
+
+    // Heading in [0, 360) degrees, as in ATTITUDE.
+
+    public double getHeadingDegrees() {
+        final double heading = Math.toDegrees(this.estimator == Estimator.MADGWICK
+                ? Math.atan2(2 * (this.q0 * this.q3 + this.q1 * this.q2),
+                        1 - 2 * (this.q2 * this.q2 + this.q3 * this.q3))
+                : this.yaw);
+        return heading < 0 ? heading + 360 : heading;
+    }
+
+    // Differences to the drone's own attitude estimate, in degrees (roll, pitch) and degrees of heading wrapped to
+    // [-180, 180).
+
+    public double rollError(final DroneClientServer.DroneSegment.Attitude attitude) {
+        return this.getRollDegrees() - attitude.angx / 10.0;
+    }
+
+    public double pitchError(final DroneClientServer.DroneSegment.Attitude attitude) {
+        return this.getPitchDegrees() - attitude.angy / 10.0;
+    }
+
+    public double headingError(final DroneClientServer.DroneSegment.Attitude attitude) {
+        final double error = (this.getHeadingDegrees() - attitude.heading) % 360;
+        return error >= 180 ? error - 360 : error < -180 ? error + 360 : error;
+    }
+
+    // Gyro integration corrected towards the accelerometer tilt and the tilt-compensated magnetometer heading.
+
+    private void complementary(final double gx, final double gy, final double gz, final double ax, final double ay,
+                               final double az, final double mx, final double my, final double mz, final double dt) {
+        final double accRoll = Math.atan2(ay, az);
+        final double accPitch = Math.atan2(-ax, Math.sqrt(ay * ay + az * az));
+        final double cosRoll = Math.cos(accRoll);
+        final double sinRoll = Math.sin(accRoll);
+        final double cosPitch = Math.cos(accPitch);
+        final double sinPitch = Math.sin(accPitch);
+        final double hx = mx * cosPitch + my * sinRoll * sinPitch + mz * cosRoll * sinPitch;
+        final double hy = my * cosRoll - mz * sinRoll;
+        final boolean hasMag = mx != 0 || my != 0 || mz != 0;
+        final double magYaw = Math.atan2(-hy, hx);
+        if (dt == 0) {
+            this.roll = accRoll;
+            this.pitch = accPitch;
+            this.yaw = hasMag ? magYaw : 0;
+        } else {
+            final double k = this.complementaryGain;
+            this.roll = k * (this.roll + gx * dt) + (1 - k) * accRoll;
+            this.pitch = k * (this.pitch + gy * dt) + (1 - k) * accPitch;
+            final double predicted = this.yaw + gz * dt;
+            this.yaw = hasMag ? predicted + (1 - k) * wrap(magYaw - predicted) : predicted;
+            this.yaw = wrap(this.yaw);
+        }
+    }
+
+    // Madgwick's MARG update (gradient descent on the accelerometer and magnetometer error). Falls back to the
+    // IMU-only form when there is no magnetometer reading.
+
+    private void madgwick(final double gx, final double gy, final double gz, double ax, double ay, double az,
+                          double mx, double my, double mz, final double dt) {
+        double q0 = this.q0;
+        double q1 = this.q1;
+        double q2 = this.q2;
+        double q3 = this.q3;
+        double qDot1 = 0.5 * (-q1 * gx - q2 * gy - q3 * gz);
+        double qDot2 = 0.5 * (q0 * gx + q2 * gz - q3 * gy);
+        double qDot3 = 0.5 * (q0 * gy - q1 * gz + q3 * gx);
+        double qDot4 = 0.5 * (q0 * gz + q1 * gy - q2 * gx);
+
+        final double accNorm = Math.sqrt(ax * ax + ay * ay + az * az);
+        if (accNorm > 0) {
+            ax /= accNorm;
+            ay /= accNorm;
+            az /= accNorm;
+            double s0;
+            double s1;
+            double s2;
+            double s3;
+            final double magNorm = Math.sqrt(mx * mx + my * my + mz * mz);
+            if (magNorm > 0) {
+                mx /= magNorm;
+                my /= magNorm;
+                mz /= magNorm;
+                final double q0mx = 2 * q0 * mx;
+                final double q0my = 2 * q0 * my;
+                final double q0mz = 2 * q0 * mz;
+                final double q1mx = 2 * q1 * mx;
+                final double q0q0 = q0 * q0;
+                final double q0q1 = q0 * q1;
+                final double q0q2 = q0 * q2;
+                final double q0q3 = q0 * q3;
+                final double q1q1 = q1 * q1;
+                final double q1q2 = q1 * q2;
+                final double q1q3 = q1 * q3;
+                final double q2q2 = q2 * q2;
+                final double q2q3 = q2 * q3;
+                final double q3q3 = q3 * q3;
+                // Reference direction of the Earth's magnetic field.
+                final double hx = mx * q0q0 - q0my * q3 + q0mz * q2 + mx * q1q1 + 2 * q1 * my * q2 + 2 * q1 * mz * q3
+                        - mx * q2q2 - mx * q3q3;
+                final double hy = q0mx * q3 + my * q0q0 - q0mz * q1 + q1mx * q2 - my * q1q1 + my * q2q2
+                        + 2 * q2 * mz * q3 - my * q3q3;
+                final double bx2 = Math.sqrt(hx * hx + hy * hy);
+                final double bz2 = -q0mx * q2 + q0my * q1 + mz * q0q0 + q1mx * q3 - mz * q1q1 + 2 * q2 * my * q3
+                        - mz * q2q2 + mz * q3q3;
+                final double bx4 = 2 * bx2;
+                final double bz4 = 2 * bz2;
+                final double fx = 2 * (q1q3 - q0q2) - ax;
+                final double fy = 2 * (q0q1 + q2q3) - ay;
+                final double fz = 1 - 2 * (q1q1 + q2q2) - az;
+                final double gmx = bx2 * (0.5 - q2q2 - q3q3) + bz2 * (q1q3 - q0q2) - mx;
+                final double gmy = bx2 * (q1q2 - q0q3) + bz2 * (q0q1 + q2q3) - my;
+                final double gmz = bx2 * (q0q2 + q1q3) + bz2 * (0.5 - q1q1 - q2q2) - mz;
+                s0 = -2 * q2 * fx + 2 * q1 * fy - bz2 * q2 * gmx + (-bx2 * q3 + bz2 * q1) * gmy + bx2 * q2 * gmz;
+                s1 = 2 * q3 * fx + 2 * q0 * fy - 4 * q1 * fz + bz2 * q3 * gmx + (bx2 * q2 + bz2 * q0) * gmy
+                        + (bx2 * q3 - bz4 * q1) * gmz;
+                s2 = -2 * q0 * fx + 2 * q3 * fy - 4 * q2 * fz + (-bx4 * q2 - bz2 * q0) * gmx
+                        + (bx2 * q1 + bz2 * q3) * gmy + (bx2 * q0 - bz4 * q2) * gmz;
+                s3 = 2 * q1 * fx + 2 * q2 * fy + (-bx4 * q3 + bz2 * q1) * gmx + (-bx2 * q0 + bz2 * q2) * gmy
+                        + bx2 * q1 * gmz;
+            } else {
+                final double fx = 2 * (q1 * q3 - q0 * q2) - ax;
+                final double fy = 2 * (q0 * q1 + q2 * q3) - ay;
+                final double fz = 1 - 2 * (q1 * q1 + q2 * q2) - az;
+                s0 = -2 * q2 * fx + 2 * q1 * fy;
+                s1 = 2 * q3 * fx + 2 * q0 * fy - 4 * q1 * fz;
+                s2 = -2 * q0 * fx + 2 * q3 * fy - 4 * q2 * fz;
+                s3 = 2 * q1 * fx + 2 * q2 * fy;
+            }
+            final double stepNorm = Math.sqrt(s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3);
+            if (stepNorm > 0) {
+                qDot1 -= this.beta * s0 / stepNorm;
+                qDot2 -= this.beta * s1 / stepNorm;
+                qDot3 -= this.beta * s2 / stepNorm;
+                qDot4 -= this.beta * s3 / stepNorm;
+            }
+        }
+
+        q0 += qDot1 * dt;
+        q1 += qDot2 * dt;
+        q2 += qDot3 * dt;
+        q3 += qDot4 * dt;
+        final double norm = Math.sqrt(q0 * q0 + q1 * q1 + q2 * q2 + q3 * q3);
+        this.q0 = q0 / norm;
+        this.q1 = q1 / norm;
+        this.q2 = q2 / norm;
+        this.q3 = q3 / norm;
+    }
+
+    private void setQuaternion(final double roll, final double pitch, final double yaw) {
+        final double cr = Math.cos(roll / 2);
+        final double sr = Math.sin(roll / 2);
+        final double cp = Math.cos(pitch / 2);
+        final double sp = Math.sin(pitch / 2);
+        final double cy = Math.cos(yaw / 2);
+        final double sy = Math.sin(yaw / 2);
+        this.q0 = cr * cp * cy + sr * sp * sy;
+        this.q1 = sr * cp * cy - cr * sp * sy;
+        this.q2 = cr * sp * cy + sr * cp * sy;
+        this.q3 = cr * cp * sy - sr * sp * cy;
+    }
+
+    private static double wrap(final double angle) {
+        double wrapped = angle % (2 * Math.PI);
+        if (wrapped >= Math.PI) {
+            wrapped -= 2 * Math.PI;
+        } else if (wrapped < -Math.PI) {
+            wrapped += 2 * Math.PI;
+        }
+        return wrapped;
+    }
+
+    /* Moving average over the last window samples, kept as a running sum over a ring. */
+
+    public static final class MovingAverage {
+
+        private final int[] samples;
+        private long sum;
+        private int next;
+        private int count;
+        private double value;
+
+        public MovingAverage(final int window) {
+            this.samples = new int[window];
+        }
+
+        public double update(final int sample) {
+            if (this.count == this.samples.length) {
+                this.sum -= this.samples[this.next];
+            } else {
+                this.count++;
+            }
+            this.samples[this.next] = sample;
+            this.sum += sample;
+            this.next = this.next + 1 == this.samples.length ? 0 : this.next + 1;
+            this.value = (double) this.sum / this.count;
+            return this.value;
+        }
+
+        public double value() {
+            return this.value;
+        }
+    }
+
+    /* First-order low-pass (exponential smoothing) whose smoothing factor follows the actual sample interval. */
+
+    public static final class LowPass {
+
+        private final double timeConstant;
+        private boolean primed;
+        private double value;
+
+        public LowPass(final double cutoffHz) {
+            this.timeConstant = 1 / (2 * Math.PI * cutoffHz);
+        }
+
+        public double update(final double sample, final double dt) {
+            if (!this.primed) {
+                this.value = sample;
+                this.primed = true;
+            } else {
+                this.value += dt / (this.timeConstant + dt) * (sample - this.value);
+            }
+            return this.value;
+        }
+
+        public double value() {
+            return this.value;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package droneclient;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/* Shares received telemetry with other processes on the same host through a memory-mapped file, so an autopilot, a
+ * logger and a ground-station UI can all follow one drone without opening their own sessions to it. The file is best
+ * placed on a memory-backed file system such as /dev/shm; it is never forced to disk. Readers attach with
+ * SharedTelemetryReader.
+ *
+ * Layout (native byte order, all offsets 8-byte aligned):
+ * - a HEADER_LENGTH byte header: magic, version, ring capacity, latest slot count, wall-clock start in epoch millis,
+ *   a writer-closed flag and, on its own cache line, the write position;
+ * - LATEST_SLOT_COUNT slots of LATEST_SLOT_LENGTH bytes holding the latest segment of each message code below
+ *   LATEST_SLOT_COUNT, each published through its own seqlock (sequence, receive time, length, segment);
+ * - a ring of ringCapacity bytes holding every segment as a record: frame length, segment length, receive time and
+ *   the segment exactly as received. A record never wraps; a record with segment length 0 pads the end of the ring.
+ *
+ * There is a single writer, which never waits for readers: it writes a record and then publishes the new write
+ * position with a release store. Readers follow the write position on their own and detect from it when the writer
+ * has lapped them. Receive times are System.nanoTime() values of the writer, which every JVM on a Linux host takes
+ * from the same monotonic clock, so readers can measure their delivery latency directly. */
+
+public class SharedTelemetryPublisher implements Consumer<DroneSegmentView>, AutoCloseable {
+
+    public static final int MAGIC = 0x44525348;
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = 128;
+    public static final int LATEST_SLOT_COUNT = 512;
+    public static final int LATEST_SLOT_LENGTH = 192;
+    public static final int RECORD_HEADER_LENGTH = 16;
+    public static final int DEFAULT_RING_CAPACITY = 1 << 20;
+
+    // Header fields.
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int CAPACITY_OFFSET = 8;
+    static final int SLOT_COUNT_OFFSET = 12;
+    static final int START_EPOCH_MILLIS_OFFSET = 16;
+    static final int CLOSED_OFFSET = 24;
+    static final int WRITE_POSITION_OFFSET = 64;
+
+    // Fields of a latest slot, followed by the segment.
+    static final int SLOT_SEQUENCE_OFFSET = 0;
+    static final int SLOT_RECEIVED_AT_OFFSET = 8;
+    static final int SLOT_LENGTH_OFFSET = 16;
+    static final int SLOT_HEADER_LENGTH = 24;
+
+    static final int LATEST_OFFSET = HEADER_LENGTH;
+    static final int RING_OFFSET = LATEST_OFFSET + LATEST_SLOT_COUNT * LATEST_SLOT_LENGTH;
+
+    // Largest record; the writer may be writing up to two of them (a padding record and the next one) past the
+    // published write position.
+    static final int MAX_FRAME_LENGTH = align(RECORD_HEADER_LENGTH + DroneSegmentCodec.MAX_DATAGRAM_LENGTH);
+
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+    private final MappedByteBuffer region;
+    private final int capacity;
+    private long position;
+    private long recordCount;
+    private volatile boolean closed;
+
+    public SharedTelemetryPublisher(final Path path) throws IOException {
+        this(path, DEFAULT_RING_CAPACITY);
+    }
+
+    // ringCapacity is in bytes and must be a power of two of at least 64 KiB. An existing region with the same layout
+    // is reused and continues at its write position, so readers attached to it keep reading across writer restarts;
+    // any other file at path is replaced.
+
+    public SharedTelemetryPublisher(final Path path, final int ringCapacity) throws IOException {
+        if (ringCapacity < 64 * 1024 || Integer.bitCount(ringCapacity) != 1) {
+            throw new IllegalArgumentException("ringCapacity must be a power of two of at least 64 KiB: "
+                    + ringCapacity);
+        }
+        this.capacity = ringCapacity;
+        final long size = regionLength(ringCapacity);
+        if (Files.exists(path) && !this.isCompatible(path, size)) {
+            // Deleted rather than truncated: readers still mapping the old file must not lose its pages.
+            Files.delete(path);
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        final boolean reused = this.channel.size() == size;
+        this.region = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        this.region.order(ByteOrder.nativeOrder());
+        if (reused) {
+            this.position = (long) LONGS.getAcquire(this.region, WRITE_POSITION_OFFSET);
+            this.releaseLatestSlots();
+        } else {
+            this.region.putInt(VERSION_OFFSET, VERSION);
+            this.region.putInt(CAPACITY_OFFSET, ringCapacity);
+            this.region.putInt(SLOT_COUNT_OFFSET, LATEST_SLOT_COUNT);
+            // The magic goes last, so a reader never accepts a half-initialized header.
+            INTS.setRelease(this.region, MAGIC_OFFSET, MAGIC);
+        }
+        this.region.putLong(START_EPOCH_MILLIS_OFFSET, System.currentTimeMillis());
+        LONGS.setRelease(this.region, CLOSED_OFFSET, 0L);
+    }
+
+    // Publishes a segment as received now. Suitable as a telemetry callback.
+
+    @Override
+    public void accept(final DroneSegmentView view) {
+        this.record(System.nanoTime(), view);
+    }
+
+    // Publishes a segment received at nanoTime (a System.nanoTime() value) to the ring and, for codes below
+    // LATEST_SLOT_COUNT, to the code's latest slot. Must only be called by one thread at a time; DroneClientServer
+    // calls it from the telemetry receive thread.
+
+    public void record(final long nanoTime, final DroneSegmentView view) {
+        if (this.closed) {
+            return;
+        }
+        final int length = view.length();
+        if (length > DroneSegmentCodec.MAX_DATAGRAM_LENGTH) {
+            throw new IllegalArgumentException("Segment too large to publish: " + length + " bytes");
+        }
+        this.writeLatest(nanoTime, view);
+
+        final int frameLength = align(RECORD_HEADER_LENGTH + length);
+        int index = (int) (this.position & (this.capacity - 1));
+        final int remaining = this.capacity - index;
+        if (remaining < frameLength) {
+            // Readers only need the first two fields of a padding record, which always fit.
+            this.region.putInt(RING_OFFSET + index, remaining);
+            this.region.putInt(RING_OFFSET + index + 4, 0);
+            this.position += remaining;
+            index = 0;
+        }
+        final int offset = RING_OFFSET + index;
+        this.region.putInt(offset, frameLength);
+        this.region.putInt(offset + 4, length);
+        this.region.putLong(offset + 8, nanoTime);
+        this.region.position(offset + RECORD_HEADER_LENGTH);
+        this.region.put(view.buffer(), view.offset(), length);
+        this.position += frameLength;
+        this.recordCount++;
+        LONGS.setRelease(this.region, WRITE_POSITION_OFFSET, this.position);
+    }
+
+    public long getRecordCount() {
+        return this.recordCount;
+    }
+
+    // Bytes published since the region was created, including padding; the position readers follow.
+
+    public long getWritePosition() {
+        return this.position;
+    }
+
+    public int getRingCapacity() {
+        return this.capacity;
+    }
+
+    // Marks the region closed for readers and stops publishing. The file is left in place for readers still attached
+    // and for the next writer.
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        LONGS.setRelease(this.region, CLOSED_OFFSET, 1L);
+        this.channel.close();
+    }
+
+    static long regionLength(final int ringCapacity) {
+        return (long) RING_OFFSET + ringCapacity;
+    }
+
+    static int align(final int length) {
+        return (length + 7) & ~7;
+    }
+
+    private void writeLatest(final long nanoTime, final DroneSegmentView view) {
+        final int code = view.code() & 0xFFFF;
+        if (code >= LATEST_SLOT_COUNT || view.length() > LATEST_SLOT_LENGTH - SLOT_HEADER_LENGTH) {
+            return;
+        }
+        final int slot = LATEST_OFFSET + code * LATEST_SLOT_LENGTH;
+        final long sequence = (long) LONGS.getOpaque(this.region, slot + SLOT_SEQUENCE_OFFSET);
+        LONGS.setOpaque(this.region, slot + SLOT_SEQUENCE_OFFSET, sequence + 1);
+        // Keeps the stores below from becoming visible before the odd sequence (see VehicleState).
+        VarHandle.releaseFence();
+        this.region.putLong(slot + SLOT_RECEIVED_AT_OFFSET, nanoTime);
+        this.region.putInt(slot + SLOT_LENGTH_OFFSET, view.length());
+        this.region.position(slot + SLOT_HEADER_LENGTH);
+        this.region.put(view.buffer(), view.offset(), view.length());
+        LONGS.setRelease(this.region, slot + SLOT_SEQUENCE_OFFSET, sequence + 2);
+    }
+
+    // A writer that died during an update leaves its slot's sequence odd, which readers would wait on forever.
+
+    private void releaseLatestSlots() {
+        for (int code = 0; code < LATEST_SLOT_COUNT; code++) {
+            final int slot = LATEST_OFFSET + code * LATEST_SLOT_LENGTH + SLOT_SEQUENCE_OFFSET;
+            final long sequence = (long) LONGS.getAcquire(this.region, slot);
+            if ((sequence & 1) != 0) {
+                LONGS.setRelease(this.region, slot, sequence + 1);
+            }
+        }
+    }
+
+    private boolean isCompatible(final Path path, final long size) throws IOException {
+        if (Files.size(path) != size) {
+            return false;
+        }
+        try (FileChannel existing = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer header = existing.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH);
+            header.order(ByteOrder.nativeOrder());
+            return header.getInt(MAGIC_OFFSET) == MAGIC && header.getInt(VERSION_OFFSET) == VERSION
+                    && header.getInt(CAPACITY_OFFSET) == this.capacity
+                    && header.getInt(SLOT_COUNT_OFFSET) == LATEST_SLOT_COUNT;
+        }
+    }
+}
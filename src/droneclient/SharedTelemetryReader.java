@@ -0,0 +1,190 @@
+package droneclient;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/* Follows the telemetry a SharedTelemetryPublisher, usually in another process, writes to a memory-mapped file. Each
+ * reader keeps its own read position and never writes to the region, so any number of readers can attach without
+ * slowing the writer or each other, and none of them talks to the drone.
+ *
+ * A reader copies each record out of the ring and then checks that the writer has not come round and started
+ * overwriting it meanwhile. A reader that falls a whole ring behind loses the overwritten records: it skips to the
+ * writer's position and counts an overrun. Segments are handed to the handler through one reused DroneSegmentView
+ * over the reader's own copy, which is only valid until the handler returns. Readers are not thread-safe; each thread
+ * should open its own. */
+
+public class SharedTelemetryReader implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer region;
+    // Second view of the region for bulk copies, whose position the region's own readers never depend on.
+    private final ByteBuffer source;
+    private final int capacity;
+    private final byte[] scratch = new byte[DroneSegmentCodec.MAX_DATAGRAM_LENGTH];
+    private final DroneSegmentView view = new DroneSegmentView();
+    private long position;
+    private long overruns;
+
+    // Attaches at the writer's current position, so the first poll returns the segments published after it.
+
+    public SharedTelemetryReader(final Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        final long size = this.channel.size();
+        if (size < SharedTelemetryPublisher.RING_OFFSET) {
+            this.channel.close();
+            throw new IOException("Not a shared telemetry region: " + path);
+        }
+        this.region = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        this.region.order(ByteOrder.nativeOrder());
+        final int magic = (int) SharedTelemetryPublisher.INTS.getAcquire(this.region,
+                SharedTelemetryPublisher.MAGIC_OFFSET);
+        final int version = this.region.getInt(SharedTelemetryPublisher.VERSION_OFFSET);
+        this.capacity = this.region.getInt(SharedTelemetryPublisher.CAPACITY_OFFSET);
+        if (magic != SharedTelemetryPublisher.MAGIC) {
+            this.channel.close();
+            throw new IOException("Not a shared telemetry region: " + path);
+        }
+        final int slotCount = this.region.getInt(SharedTelemetryPublisher.SLOT_COUNT_OFFSET);
+        if (version != SharedTelemetryPublisher.VERSION || slotCount != SharedTelemetryPublisher.LATEST_SLOT_COUNT
+                || size != SharedTelemetryPublisher.regionLength(this.capacity)) {
+            this.channel.close();
+            throw new IOException("Unsupported shared telemetry region version " + version + " (ring capacity "
+                    + this.capacity + ")");
+        }
+        this.source = this.region.duplicate();
+        this.position = this.getWritePosition();
+    }
+
+    // Hands every record published since the last poll, up to limit, to handler and returns how many it handed on.
+    // Never blocks: callers that want microsecond latency poll in a loop (with Thread.onSpinWait() when it returns
+    // 0), others poll at their own pace.
+
+    public int poll(final TelemetryReplayer.RecordHandler handler, final int limit) {
+        int count = 0;
+        while (count < limit) {
+            final long available = this.getWritePosition();
+            if (this.position == available) {
+                break;
+            }
+            if (this.isLapped(available)) {
+                this.skipToWriter();
+                continue;
+            }
+            final int index = (int) (this.position & (this.capacity - 1));
+            final int offset = SharedTelemetryPublisher.RING_OFFSET + index;
+            final int frameLength = this.region.getInt(offset);
+            final int length = this.region.getInt(offset + 4);
+            final boolean valid = frameLength >= 8 && frameLength <= this.capacity - index && length >= 0
+                    && length <= frameLength - SharedTelemetryPublisher.RECORD_HEADER_LENGTH;
+            long receivedAt = 0;
+            if (valid && length > 0) {
+                receivedAt = this.region.getLong(offset + 8);
+                this.source.position(offset + SharedTelemetryPublisher.RECORD_HEADER_LENGTH);
+                this.source.get(this.scratch, 0, length);
+            }
+            // Keeps the reads above from being satisfied after the write position is read again.
+            VarHandle.acquireFence();
+            if (!valid || this.isLapped(this.getWritePosition())) {
+                // An invalid record can only be one the writer overwrote while it was read.
+                this.skipToWriter();
+                continue;
+            }
+            this.position += frameLength;
+            if (length >= DroneSegmentCodec.HEADER_LENGTH) {
+                handler.onRecord(receivedAt, this.view.wrap(this.scratch, 0, length));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int poll(final TelemetryReplayer.RecordHandler handler) {
+        return this.poll(handler, Integer.MAX_VALUE);
+    }
+
+    // Hands the latest segment with code and its receive time to handler, taken consistently from the code's latest
+    // slot however often the writer updates it. Returns false, without calling handler, if no segment with code has
+    // been published (or code is not below SharedTelemetryPublisher.LATEST_SLOT_COUNT).
+
+    public boolean readLatest(final short code, final TelemetryReplayer.RecordHandler handler) {
+        final int index = code & 0xFFFF;
+        if (index >= SharedTelemetryPublisher.LATEST_SLOT_COUNT) {
+            return false;
+        }
+        final int slot = SharedTelemetryPublisher.LATEST_OFFSET + index * SharedTelemetryPublisher.LATEST_SLOT_LENGTH;
+        final int sequenceOffset = slot + SharedTelemetryPublisher.SLOT_SEQUENCE_OFFSET;
+        while (true) {
+            final long before = (long) SharedTelemetryPublisher.LONGS.getAcquire(this.region, sequenceOffset);
+            if (before == 0) {
+                return false;
+            }
+            if ((before & 1) == 0) {
+                final long receivedAt = this.region.getLong(slot + SharedTelemetryPublisher.SLOT_RECEIVED_AT_OFFSET);
+                final int length = this.region.getInt(slot + SharedTelemetryPublisher.SLOT_LENGTH_OFFSET);
+                final boolean valid = length >= DroneSegmentCodec.HEADER_LENGTH && length
+                        <= SharedTelemetryPublisher.LATEST_SLOT_LENGTH - SharedTelemetryPublisher.SLOT_HEADER_LENGTH;
+                if (valid) {
+                    this.source.position(slot + SharedTelemetryPublisher.SLOT_HEADER_LENGTH);
+                    this.source.get(this.scratch, 0, length);
+                }
+                VarHandle.acquireFence();
+                if ((long) SharedTelemetryPublisher.LONGS.getOpaque(this.region, sequenceOffset) == before && valid) {
+                    handler.onRecord(receivedAt, this.view.wrap(this.scratch, 0, length));
+                    return true;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    // Position the writer has published up to; equal to getPosition() when this reader has caught up.
+
+    public long getWritePosition() {
+        return (long) SharedTelemetryPublisher.LONGS.getAcquire(this.region,
+                SharedTelemetryPublisher.WRITE_POSITION_OFFSET);
+    }
+
+    public long getPosition() {
+        return this.position;
+    }
+
+    // Times this reader fell a whole ring behind and skipped the records it had missed.
+
+    public long getOverrunCount() {
+        return this.overruns;
+    }
+
+    // True once the writer has closed the region; a writer opened later on the same file clears it again.
+
+    public boolean isWriterClosed() {
+        return (long) SharedTelemetryPublisher.LONGS.getAcquire(this.region,
+                SharedTelemetryPublisher.CLOSED_OFFSET) != 0;
+    }
+
+    public long getStartEpochMillis() {
+        return this.region.getLong(SharedTelemetryPublisher.START_EPOCH_MILLIS_OFFSET);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    // The writer may already be writing two frames past available (a padding record and the next record), so a
+    // record is safe only while those cannot reach it on the writer's next lap.
+
+    private boolean isLapped(final long available) {
+        return available - this.position > this.capacity - 2 * SharedTelemetryPublisher.MAX_FRAME_LENGTH;
+    }
+
+    private void skipToWriter() {
+        this.position = this.getWritePosition();
+        this.overruns++;
+    }
+}
@@ -0,0 +1,556 @@
+package droneclient;
+
+import java.util.function.LongToDoubleFunction;
+
+/* Built-in aggregators for TelemetryAnalyzer, each over one TelemetryChannel:
+ *  - stats: count, mean, standard deviation, min and max, e.g. of the accelerometer axes,
+ *  - histogram: distribution in fixed-width bins, e.g. of the MOTOR outputs,
+ *  - spectrum: Welch power spectrum from Hann-windowed FFT segments, e.g. of RAW_IMU gyro vibration,
+ *  - trackingError: mean, RMS and worst deviation from a target profile, e.g. of EST_ALT from the commanded altitude.
+ * Their partials only hold sums, counts and bins, so combining two is exact. The spectrum's partials also keep their
+ * first and last samples, so the samples left over at the end of one chunk are completed into a segment with the
+ * start of the next instead of being dropped. */
+
+public final class TelemetryAggregators {
+
+    private TelemetryAggregators() {
+    }
+
+    public static TelemetryAnalyzer.Aggregator<Stats> stats(final TelemetryChannel channel) {
+        return new TelemetryAnalyzer.Aggregator<Stats>() {
+            @Override
+            public Stats create() {
+                return new Stats(channel);
+            }
+
+            @Override
+            public void accumulate(final Stats partial, final long timestampNanos, final DroneSegmentView segment) {
+                if (carries(channel, segment)) {
+                    partial.add(segment.payload(channel.index()));
+                }
+            }
+
+            @Override
+            public Stats combine(final Stats earlier, final Stats later) {
+                return earlier.merge(later);
+            }
+        };
+    }
+
+    // bins bins of equal width covering [min, max); values outside it are counted as under- or overflow.
+
+    public static TelemetryAnalyzer.Aggregator<Histogram> histogram(final TelemetryChannel channel, final int min,
+                                                                    final int max, final int bins) {
+        if (bins < 1 || max <= min) {
+            throw new IllegalArgumentException("Invalid histogram range " + min + ".." + max + " with " + bins
+                    + " bins");
+        }
+        return new TelemetryAnalyzer.Aggregator<Histogram>() {
+            @Override
+            public Histogram create() {
+                return new Histogram(channel, min, max, bins);
+            }
+
+            @Override
+            public void accumulate(final Histogram partial, final long timestampNanos,
+                                   final DroneSegmentView segment) {
+                if (carries(channel, segment)) {
+                    partial.add(segment.payload(channel.index()));
+                }
+            }
+
+            @Override
+            public Histogram combine(final Histogram earlier, final Histogram later) {
+                return earlier.merge(later);
+            }
+        };
+    }
+
+    // fftSize is the length of each FFT segment, a power of two; the frequency resolution is the channel's sample rate
+    // divided by it.
+
+    public static TelemetryAnalyzer.Aggregator<Spectrum> spectrum(final TelemetryChannel channel, final int fftSize) {
+        if (fftSize < 2 || Integer.bitCount(fftSize) != 1) {
+            throw new IllegalArgumentException("fftSize must be a power of two: " + fftSize);
+        }
+        return new TelemetryAnalyzer.Aggregator<Spectrum>() {
+            @Override
+            public Spectrum create() {
+                return new Spectrum(channel, fftSize);
+            }
+
+            @Override
+            public void accumulate(final Spectrum partial, final long timestampNanos, final DroneSegmentView segment) {
+                if (carries(channel, segment)) {
+                    partial.add(timestampNanos, segment.payload(channel.index()));
+                }
+            }
+
+            @Override
+            public Spectrum combine(final Spectrum earlier, final Spectrum later) {
+                return earlier.merge(later);
+            }
+        };
+    }
+
+    // target gives the value the channel should have had at a timestamp (nanoseconds since the recording started). It
+    // is called from several worker threads at once, so it must be thread-safe.
+
+    public static TelemetryAnalyzer.Aggregator<TrackingError> trackingError(final TelemetryChannel channel,
+                                                                            final LongToDoubleFunction target) {
+        return new TelemetryAnalyzer.Aggregator<TrackingError>() {
+            @Override
+            public TrackingError create() {
+                return new TrackingError(channel);
+            }
+
+            @Override
+            public void accumulate(final TrackingError partial, final long timestampNanos,
+                                   final DroneSegmentView segment) {
+                if (carries(channel, segment)) {
+                    partial.add(segment.payload(channel.index()) - target.applyAsDouble(timestampNanos));
+                }
+            }
+
+            @Override
+            public TrackingError combine(final TrackingError earlier, final TrackingError later) {
+                return earlier.merge(later);
+            }
+        };
+    }
+
+    private static boolean carries(final TelemetryChannel channel, final DroneSegmentView segment) {
+        return segment.code() == channel.code() && segment.payloadLength() > channel.index();
+    }
+
+    public static final class Stats {
+
+        private final TelemetryChannel channel;
+        private long count;
+        private long sum;
+        private long sumOfSquares;
+        private short min = Short.MAX_VALUE;
+        private short max = Short.MIN_VALUE;
+
+        private Stats(final TelemetryChannel channel) {
+            this.channel = channel;
+        }
+
+        private void add(final short value) {
+            this.count++;
+            this.sum += value;
+            this.sumOfSquares += (long) value * value;
+            if (value < this.min) {
+                this.min = value;
+            }
+            if (value > this.max) {
+                this.max = value;
+            }
+        }
+
+        private Stats merge(final Stats later) {
+            this.count += later.count;
+            this.sum += later.sum;
+            this.sumOfSquares += later.sumOfSquares;
+            this.min = (short) Math.min(this.min, later.min);
+            this.max = (short) Math.max(this.max, later.max);
+            return this;
+        }
+
+        public TelemetryChannel getChannel() {
+            return this.channel;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public double getMean() {
+            return this.count == 0 ? Double.NaN : (double) this.sum / this.count;
+        }
+
+        // Population standard deviation.
+
+        public double getStandardDeviation() {
+            if (this.count == 0) {
+                return Double.NaN;
+            }
+            final double mean = this.getMean();
+            return Math.sqrt(Math.max(0, (double) this.sumOfSquares / this.count - mean * mean));
+        }
+
+        public short getMin() {
+            return this.min;
+        }
+
+        public short getMax() {
+            return this.max;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{channel=" + this.channel + ", count=" + this.count + ", mean=" + this.getMean()
+                    + ", stddev=" + this.getStandardDeviation() + ", min=" + this.min + ", max=" + this.max + "}";
+        }
+    }
+
+    public static final class Histogram {
+
+        private final TelemetryChannel channel;
+        private final int min;
+        private final double binWidth;
+        private final long[] counts;
+        private long underflow;
+        private long overflow;
+
+        private Histogram(final TelemetryChannel channel, final int min, final int max, final int bins) {
+            this.channel = channel;
+            this.min = min;
+            this.binWidth = (double) (max - min) / bins;
+            this.counts = new long[bins];
+        }
+
+        private void add(final short value) {
+            if (value < this.min) {
+                this.underflow++;
+                return;
+            }
+            final int bin = (int) ((value - this.min) / this.binWidth);
+            if (bin >= this.counts.length) {
+                this.overflow++;
+            } else {
+                this.counts[bin]++;
+            }
+        }
+
+        private Histogram merge(final Histogram later) {
+            for (int i = 0; i < this.counts.length; i++) {
+                this.counts[i] += later.counts[i];
+            }
+            this.underflow += later.underflow;
+            this.overflow += later.overflow;
+            return this;
+        }
+
+        public TelemetryChannel getChannel() {
+            return this.channel;
+        }
+
+        public int getBinCount() {
+            return this.counts.length;
+        }
+
+        public long getCount(final int bin) {
+            return this.counts[bin];
+        }
+
+        // Lower bound of bin; the bin covers [getBinStart(bin), getBinStart(bin + 1)).
+
+        public double getBinStart(final int bin) {
+            return this.min + bin * this.binWidth;
+        }
+
+        public long getUnderflow() {
+            return this.underflow;
+        }
+
+        public long getOverflow() {
+            return this.overflow;
+        }
+
+        public long getTotal() {
+            long total = this.underflow + this.overflow;
+            for (final long count : this.counts) {
+                total += count;
+            }
+            return total;
+        }
+
+        // Upper bound of the bin holding the q-quantile (0 < q <= 1), or NaN if the quantile is out of range.
+
+        public double percentile(final double q) {
+            final long total = this.getTotal();
+            final long rank = (long) Math.ceil(q * total);
+            long seen = this.underflow;
+            if (total == 0 || rank <= seen) {
+                return Double.NaN;
+            }
+            for (int bin = 0; bin < this.counts.length; bin++) {
+                seen += this.counts[bin];
+                if (seen >= rank) {
+                    return this.getBinStart(bin + 1);
+                }
+            }
+            return Double.NaN;
+        }
+
+        @Override
+        public String toString() {
+            return "Histogram{channel=" + this.channel + ", total=" + this.getTotal() + ", p50=" + this.percentile(0.5)
+                    + ", p99=" + this.percentile(0.99) + ", underflow=" + this.underflow + ", overflow="
+                    + this.overflow + "}";
+        }
+    }
+
+    public static final class Spectrum {
+
+        private final TelemetryChannel channel;
+        private final int fftSize;
+        private final double[] window;
+        private final double windowPower;
+        // Samples of the segment being filled, and a copy of the first fftSize - 1 samples of the partial.
+        private double[] samples;
+        private final double[] head;
+        private int headLength;
+        private final double[] real;
+        private final double[] imaginary;
+        private final double[] powerSums;
+        private int buffered;
+        private long segments;
+
+        private long sampleCount;
+        private long firstTimestamp = Long.MAX_VALUE;
+        private long lastTimestamp = Long.MIN_VALUE;
+
+        private Spectrum(final TelemetryChannel channel, final int fftSize) {
+            this.channel = channel;
+            this.fftSize = fftSize;
+            this.window = new double[fftSize];
+            double power = 0;
+            for (int i = 0; i < fftSize; i++) {
+                this.window[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / fftSize);
+                power += this.window[i] * this.window[i];
+            }
+            this.windowPower = power;
+            this.samples = new double[fftSize];
+            this.head = new double[fftSize - 1];
+            this.real = new double[fftSize];
+            this.imaginary = new double[fftSize];
+            this.powerSums = new double[fftSize / 2 + 1];
+        }
+
+        private void add(final long timestampNanos, final short value) {
+            this.sampleCount++;
+            this.firstTimestamp = Math.min(this.firstTimestamp, timestampNanos);
+            this.lastTimestamp = Math.max(this.lastTimestamp, timestampNanos);
+            if (this.headLength < this.head.length) {
+                this.head[this.headLength++] = value;
+            }
+            this.push(value);
+        }
+
+        private void push(final double value) {
+            this.samples[this.buffered++] = value;
+            if (this.buffered == this.fftSize) {
+                this.transformSegment();
+                this.buffered = 0;
+            }
+        }
+
+        // Continues this partial's last segment with the start of later's samples. When later has segments of its own,
+        // the completed segment overlaps its first one, as segments do in Welch's method; otherwise later's samples
+        // are simply appended, as if one partial had read them all.
+
+        private Spectrum merge(final Spectrum later) {
+            if (this.sampleCount == 0) {
+                return later;
+            }
+            for (int i = 0; i < later.headLength && this.headLength < this.head.length; i++) {
+                this.head[this.headLength++] = later.head[i];
+            }
+            if (later.segments == 0) {
+                for (int i = 0; i < later.buffered; i++) {
+                    this.push(later.samples[i]);
+                }
+            } else {
+                // later has at least fftSize samples, so its head holds enough to complete the segment.
+                for (int i = 0; this.buffered > 0; i++) {
+                    this.push(later.head[i]);
+                }
+                this.samples = later.samples;
+                this.buffered = later.buffered;
+            }
+            for (int k = 0; k < this.powerSums.length; k++) {
+                this.powerSums[k] += later.powerSums[k];
+            }
+            this.segments += later.segments;
+            this.sampleCount += later.sampleCount;
+            this.firstTimestamp = Math.min(this.firstTimestamp, later.firstTimestamp);
+            this.lastTimestamp = Math.max(this.lastTimestamp, later.lastTimestamp);
+            return this;
+        }
+
+        public TelemetryChannel getChannel() {
+            return this.channel;
+        }
+
+        // Number of FFT segments averaged.
+
+        public long getSegmentCount() {
+            return this.segments;
+        }
+
+        public int getBinCount() {
+            return this.powerSums.length;
+        }
+
+        // Mean sample rate of the channel over the log, from its first and last timestamps.
+
+        public double getSampleRateHz() {
+            if (this.sampleCount < 2 || this.lastTimestamp <= this.firstTimestamp) {
+                return Double.NaN;
+            }
+            return (this.sampleCount - 1) * 1e9 / (this.lastTimestamp - this.firstTimestamp);
+        }
+
+        public double getFrequencyHz(final int bin) {
+            return bin * this.getSampleRateHz() / this.fftSize;
+        }
+
+        // One-sided power spectral density of bin in squared channel units per Hz.
+
+        public double getPowerDensity(final int bin) {
+            if (this.segments == 0) {
+                return Double.NaN;
+            }
+            final double scale = (bin == 0 || bin == this.fftSize / 2) ? 1 : 2;
+            return scale * this.powerSums[bin] / (this.segments * this.windowPower * this.getSampleRateHz());
+        }
+
+        // Bin with the most power, ignoring the DC bin; e.g. the dominant vibration frequency of a gyro axis.
+
+        public int getPeakBin() {
+            int peak = 1;
+            for (int k = 2; k < this.powerSums.length; k++) {
+                if (this.powerSums[k] > this.powerSums[peak]) {
+                    peak = k;
+                }
+            }
+            return peak;
+        }
+
+        @Override
+        public String toString() {
+            return "Spectrum{channel=" + this.channel + ", segments=" + this.segments + ", sampleRateHz="
+                    + this.getSampleRateHz() + ", peakHz=" + this.getFrequencyHz(this.getPeakBin()) + "}";
+        }
+
+        // Removes the segment's mean, applies the Hann window and adds |X(k)|^2 of its FFT to the sums.
+
+        private void transformSegment() {
+            double mean = 0;
+            for (int i = 0; i < this.fftSize; i++) {
+                mean += this.samples[i];
+            }
+            mean /= this.fftSize;
+            for (int i = 0; i < this.fftSize; i++) {
+                this.real[i] = (this.samples[i] - mean) * this.window[i];
+                this.imaginary[i] = 0;
+            }
+            fft(this.real, this.imaginary);
+            for (int k = 0; k < this.powerSums.length; k++) {
+                this.powerSums[k] += this.real[k] * this.real[k] + this.imaginary[k] * this.imaginary[k];
+            }
+            this.segments++;
+        }
+
+        // In-place iterative radix-2 Cooley-Tukey FFT; the length must be a power of two.
+
+        private static void fft(final double[] real, final double[] imaginary) {
+            final int n = real.length;
+            for (int i = 1, j = 0; i < n; i++) {
+                int bit = n >> 1;
+                for (; (j & bit) != 0; bit >>= 1) {
+                    j ^= bit;
+                }
+                j ^= bit;
+                if (i < j) {
+                    double swap = real[i];
+                    real[i] = real[j];
+                    real[j] = swap;
+                    swap = imaginary[i];
+                    imaginary[i] = imaginary[j];
+                    imaginary[j] = swap;
+                }
+            }
+            for (int length = 2; length <= n; length <<= 1) {
+                final double angle = -2 * Math.PI / length;
+                final double stepReal = Math.cos(angle);
+                final double stepImaginary = Math.sin(angle);
+                for (int start = 0; start < n; start += length) {
+                    double twiddleReal = 1;
+                    double twiddleImaginary = 0;
+                    for (int k = 0; k < length / 2; k++) {
+                        final int even = start + k;
+                        final int odd = even + length / 2;
+                        final double oddReal = real[odd] * twiddleReal - imaginary[odd] * twiddleImaginary;
+                        final double oddImaginary = real[odd] * twiddleImaginary + imaginary[odd] * twiddleReal;
+                        real[odd] = real[even] - oddReal;
+                        imaginary[odd] = imaginary[even] - oddImaginary;
+                        real[even] += oddReal;
+                        imaginary[even] += oddImaginary;
+                        final double nextReal = twiddleReal * stepReal - twiddleImaginary * stepImaginary;
+                        twiddleImaginary = twiddleReal * stepImaginary + twiddleImaginary * stepReal;
+                        twiddleReal = nextReal;
+                    }
+                }
+            }
+        }
+    }
+
+    public static final class TrackingError {
+
+        private final TelemetryChannel channel;
+        private long count;
+        private double sum;
+        private double sumOfSquares;
+        private double maxAbsolute;
+
+        private TrackingError(final TelemetryChannel channel) {
+            this.channel = channel;
+        }
+
+        private void add(final double error) {
+            this.count++;
+            this.sum += error;
+            this.sumOfSquares += error * error;
+            this.maxAbsolute = Math.max(this.maxAbsolute, Math.abs(error));
+        }
+
+        private TrackingError merge(final TrackingError later) {
+            this.count += later.count;
+            this.sum += later.sum;
+            this.sumOfSquares += later.sumOfSquares;
+            this.maxAbsolute = Math.max(this.maxAbsolute, later.maxAbsolute);
+            return this;
+        }
+
+        public TelemetryChannel getChannel() {
+            return this.channel;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        // Mean of measured minus target: the bias of the tracking.
+
+        public double getMeanError() {
+            return this.count == 0 ? Double.NaN : this.sum / this.count;
+        }
+
+        public double getRmsError() {
+            return this.count == 0 ? Double.NaN : Math.sqrt(this.sumOfSquares / this.count);
+        }
+
+        public double getMaxAbsoluteError() {
+            return this.maxAbsolute;
+        }
+
+        @Override
+        public String toString() {
+            return "TrackingError{channel=" + this.channel + ", count=" + this.count + ", mean=" + this.getMeanError()
+                    + ", rms=" + this.getRmsError() + ", maxAbs=" + this.maxAbsolute + "}";
+        }
+    }
+}
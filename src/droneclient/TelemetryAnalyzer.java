@@ -0,0 +1,205 @@
+package droneclient;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/* Offline analysis of TelemetryRecorder logs on all cores. Records never straddle a recorder block, so the log is cut
+ * into chunks of whole blocks that can be parsed independently: a fork/join task splits the block range in halves
+ * until a chunk is at most getChunkBlocks() blocks long, each chunk is mapped and read by TelemetryReplayer on its own
+ * worker, and the partial results of the two halves are combined on the way back up. Every aggregator is fed in the
+ * same pass, so the log is read once however many statistics are computed. Nothing is shared between workers while
+ * a chunk is read, which lets the pass scale with the number of cores until the disk or page cache is the limit.
+ *
+ * Aggregators (see TelemetryAggregators for the built-in ones) create a partial result per chunk, accumulate records
+ * into it and combine two partials of adjacent ranges, earlier one first. Partials are only touched by one thread at
+ * a time. Timestamps are nanoseconds since the recording started. */
+
+public class TelemetryAnalyzer implements AutoCloseable {
+
+    public interface Aggregator<P> {
+
+        P create();
+
+        void accumulate(P partial, long timestampNanos, DroneSegmentView segment);
+
+        // Merges the partials of two adjacent ranges of the log; earlier covers the range before later's. May return
+        // either argument, updated in place.
+
+        P combine(P earlier, P later);
+    }
+
+    // 64 blocks of 64 KiB: chunks of 4 MiB, small enough to balance across workers, large enough to keep the
+    // splitting and combining overhead negligible.
+    public static final int DEFAULT_CHUNK_BLOCKS = 64;
+
+    private final TelemetryReplayer replayer;
+    private final ForkJoinPool pool;
+    private int chunkBlocks = DEFAULT_CHUNK_BLOCKS;
+
+    public TelemetryAnalyzer(final Path path) throws IOException {
+        this(path, ForkJoinPool.commonPool());
+    }
+
+    public TelemetryAnalyzer(final Path path, final ForkJoinPool pool) throws IOException {
+        this.replayer = new TelemetryReplayer(path);
+        this.pool = pool;
+    }
+
+    public int getChunkBlocks() {
+        return this.chunkBlocks;
+    }
+
+    public void setChunkBlocks(final int chunkBlocks) {
+        if (chunkBlocks < 1) {
+            throw new IllegalArgumentException("chunkBlocks must be positive: " + chunkBlocks);
+        }
+        this.chunkBlocks = chunkBlocks;
+    }
+
+    public long getStartEpochMillis() {
+        return this.replayer.getStartEpochMillis();
+    }
+
+    public <P> P analyze(final Aggregator<P> aggregator) throws IOException {
+        return this.analyze(new Aggregator<?>[] {aggregator}).get(aggregator);
+    }
+
+    // Runs every aggregator over the whole log in one parallel pass.
+
+    public Results analyze(final Aggregator<?>... aggregators) throws IOException {
+        final long startedAt = System.nanoTime();
+        final long size = this.replayer.size();
+        final long dataLength = size - TelemetryRecorder.HEADER_LENGTH;
+        final long blocks = dataLength <= 0 ? 0 : (dataLength + TelemetryRecorder.BLOCK_SIZE - 1)
+                / TelemetryRecorder.BLOCK_SIZE;
+        final Partials partials;
+        try {
+            partials = this.pool.invoke(new ChunkTask(aggregators, 0, blocks, size));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        final Map<Aggregator<?>, Object> results = new IdentityHashMap<>();
+        for (int i = 0; i < aggregators.length; i++) {
+            results.put(aggregators[i], partials.values[i]);
+        }
+        return new Results(results, partials.records, System.nanoTime() - startedAt);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.replayer.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <P> void accumulate(final Aggregator<P> aggregator, final Object partial,
+                                       final long timestampNanos, final DroneSegmentView segment) {
+        aggregator.accumulate((P) partial, timestampNanos, segment);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <P> Object combine(final Aggregator<P> aggregator, final Object earlier, final Object later) {
+        return aggregator.combine((P) earlier, (P) later);
+    }
+
+    private static final class Partials {
+
+        private final Object[] values;
+        private long records;
+
+        private Partials(final Aggregator<?>[] aggregators) {
+            this.values = new Object[aggregators.length];
+            for (int i = 0; i < aggregators.length; i++) {
+                this.values[i] = aggregators[i].create();
+            }
+        }
+    }
+
+    // Reads blocks [fromBlock, toBlock) of the log, splitting the range while it is longer than one chunk.
+
+    @SuppressWarnings("serial")
+    private final class ChunkTask extends RecursiveTask<Partials> {
+
+        private final Aggregator<?>[] aggregators;
+        private final long fromBlock;
+        private final long toBlock;
+        private final long end;
+
+        // end is the length of the log, at which its last block may be cut short.
+
+        private ChunkTask(final Aggregator<?>[] aggregators, final long fromBlock, final long toBlock, final long end) {
+            this.aggregators = aggregators;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+            this.end = end;
+        }
+
+        @Override
+        protected Partials compute() {
+            if (this.toBlock - this.fromBlock <= chunkBlocks) {
+                return this.read();
+            }
+            final long middle = (this.fromBlock + this.toBlock) >>> 1;
+            final ChunkTask earlier = new ChunkTask(this.aggregators, this.fromBlock, middle, this.end);
+            earlier.fork();
+            final Partials later = new ChunkTask(this.aggregators, middle, this.toBlock, this.end).compute();
+            final Partials combined = earlier.join();
+            for (int i = 0; i < this.aggregators.length; i++) {
+                combined.values[i] = combine(this.aggregators[i], combined.values[i], later.values[i]);
+            }
+            combined.records += later.records;
+            return combined;
+        }
+
+        private Partials read() {
+            final Partials partials = new Partials(this.aggregators);
+            final long from = TelemetryRecorder.HEADER_LENGTH + this.fromBlock * TelemetryRecorder.BLOCK_SIZE;
+            final long to = TelemetryRecorder.HEADER_LENGTH + this.toBlock * TelemetryRecorder.BLOCK_SIZE;
+            try {
+                partials.records = replayer.read(from, Math.min(to, this.end), (timestampNanos, segment) -> {
+                    for (int i = 0; i < this.aggregators.length; i++) {
+                        accumulate(this.aggregators[i], partials.values[i], timestampNanos, segment);
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return partials;
+        }
+    }
+
+    /* Final results of one analyze() pass, looked up by the aggregator that produced them. */
+
+    public static final class Results {
+
+        private final Map<Aggregator<?>, Object> results;
+        private final long recordCount;
+        private final long elapsedNanos;
+
+        private Results(final Map<Aggregator<?>, Object> results, final long recordCount, final long elapsedNanos) {
+            this.results = results;
+            this.recordCount = recordCount;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <P> P get(final Aggregator<P> aggregator) {
+            if (!this.results.containsKey(aggregator)) {
+                throw new IllegalArgumentException("Aggregator was not part of this analysis: " + aggregator);
+            }
+            return (P) this.results.get(aggregator);
+        }
+
+        public long getRecordCount() {
+            return this.recordCount;
+        }
+
+        public long getElapsedNanos() {
+            return this.elapsedNanos;
+        }
+    }
+}
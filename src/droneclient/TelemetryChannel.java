@@ -0,0 +1,49 @@
+package droneclient;
+
+/* A single scalar telemetry value: the message code carrying it and its position in the payload. */
+
+public enum TelemetryChannel {
+
+    ACC_X(DroneClientServer.DroneSegment.RAW_IMU, 0),
+    ACC_Y(DroneClientServer.DroneSegment.RAW_IMU, 1),
+    ACC_Z(DroneClientServer.DroneSegment.RAW_IMU, 2),
+    GYR_X(DroneClientServer.DroneSegment.RAW_IMU, 3),
+    GYR_Y(DroneClientServer.DroneSegment.RAW_IMU, 4),
+    GYR_Z(DroneClientServer.DroneSegment.RAW_IMU, 5),
+    MAG_X(DroneClientServer.DroneSegment.RAW_IMU, 6),
+    MAG_Y(DroneClientServer.DroneSegment.RAW_IMU, 7),
+    MAG_Z(DroneClientServer.DroneSegment.RAW_IMU, 8),
+    SERVO_1(DroneClientServer.DroneSegment.SERVO, 0),
+    SERVO_2(DroneClientServer.DroneSegment.SERVO, 1),
+    SERVO_3(DroneClientServer.DroneSegment.SERVO, 2),
+    SERVO_4(DroneClientServer.DroneSegment.SERVO, 3),
+    MOTOR_1(DroneClientServer.DroneSegment.MOTOR, 0),
+    MOTOR_2(DroneClientServer.DroneSegment.MOTOR, 1),
+    MOTOR_3(DroneClientServer.DroneSegment.MOTOR, 2),
+    MOTOR_4(DroneClientServer.DroneSegment.MOTOR, 3),
+    RC_ROLL(DroneClientServer.DroneSegment.RC, 0),
+    RC_PITCH(DroneClientServer.DroneSegment.RC, 1),
+    RC_YAW(DroneClientServer.DroneSegment.RC, 2),
+    RC_THROTTLE(DroneClientServer.DroneSegment.RC, 3),
+    ANG_X(DroneClientServer.DroneSegment.ATTITUDE, 0),
+    ANG_Y(DroneClientServer.DroneSegment.ATTITUDE, 1),
+    HEADING(DroneClientServer.DroneSegment.ATTITUDE, 2),
+    EST_ALT(DroneClientServer.DroneSegment.ALTITUDE, 0),
+    VARIO(DroneClientServer.DroneSegment.ALTITUDE, 1);
+
+    private final short code;
+    private final int index;
+
+    TelemetryChannel(final short code, final int index) {
+        this.code = code;
+        this.index = index;
+    }
+
+    public short code() {
+        return this.code;
+    }
+
+    public int index() {
+        return this.index;
+    }
+}
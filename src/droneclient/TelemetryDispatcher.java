@@ -0,0 +1,266 @@
+package droneclient;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/* Hands received telemetry datagrams from the receive thread over to a fixed set of consumer threads. Every consumer
+ * owns a pre-allocated ring of byte slots, so publishing only copies the datagram into a slot and never allocates.
+ * Segments are routed to a consumer by message code, which keeps delivery ordered per code even with several
+ * consumers. When a ring is full the overflow policy decides whether the oldest segment, the newest segment or the
+ * receive thread gives way. publish() must only be called from a single thread (the receive thread). */
+
+public class TelemetryDispatcher implements AutoCloseable {
+
+    // Handler that also gets the receive time published with the segment.
+
+    public interface TimestampedHandler {
+        void accept(long receivedAt, DroneSegmentView view);
+    }
+
+    public enum WaitStrategy {
+        BUSY_SPIN,
+        YIELD,
+        PARK
+    }
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST,
+        BLOCK
+    }
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int DEFAULT_SLOT_SIZE = 40;
+    private static final long PARK_NANOS = 50_000L;
+
+    private final Ring[] rings;
+    private final WaitStrategy waitStrategy;
+    private final OverflowPolicy overflowPolicy;
+    private final Thread[] consumerThreads;
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+
+    private volatile boolean running;
+
+    public TelemetryDispatcher() {
+        this(DEFAULT_CAPACITY, DEFAULT_SLOT_SIZE, 1, WaitStrategy.PARK, OverflowPolicy.DROP_OLDEST);
+    }
+
+    // capacity is the number of slots per consumer and is rounded up to a power of two; slotSize is the largest
+    // datagram that can be published.
+
+    public TelemetryDispatcher(final int capacity, final int slotSize, final int consumers,
+                               final WaitStrategy waitStrategy, final OverflowPolicy overflowPolicy) {
+        if (capacity < 1 || slotSize < 4 || consumers < 1) {
+            throw new IllegalArgumentException("capacity, slotSize and consumers must be positive");
+        }
+        int ringCapacity = 1;
+        while (ringCapacity < capacity) {
+            ringCapacity <<= 1;
+        }
+        this.rings = new Ring[consumers];
+        for (int i = 0; i < consumers; i++) {
+            this.rings[i] = new Ring(ringCapacity, slotSize);
+        }
+        this.consumerThreads = new Thread[consumers];
+        this.waitStrategy = waitStrategy;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    // Starts the consumer threads. The handler receives a view that is only valid until it returns.
+
+    public void start(final Consumer<DroneSegmentView> handler) {
+        this.start(handler, runnable -> {
+            final Thread thread = new Thread(runnable, "telemetry-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Same as start(handler), creating the consumer threads through threadFactory (e.g. virtual threads).
+
+    public void start(final Consumer<DroneSegmentView> handler, final ThreadFactory threadFactory) {
+        this.start(handler, null, threadFactory);
+    }
+
+    // Same as start(handler, threadFactory); onDrained (may be null) runs on a consumer thread each time its ring runs
+    // empty after delivering segments, which lets handlers batch work such as flushing buffered output.
+
+    public void start(final Consumer<DroneSegmentView> handler, final Runnable onDrained,
+                      final ThreadFactory threadFactory) {
+        this.start((receivedAt, view) -> handler.accept(view), onDrained, threadFactory);
+    }
+
+    // Same as start(handler, onDrained, threadFactory) for handlers that need the time passed to publish().
+
+    public synchronized void start(final TimestampedHandler handler, final Runnable onDrained,
+                                   final ThreadFactory threadFactory) {
+        if (this.running) {
+            throw new IllegalStateException("Dispatcher already started");
+        }
+        this.running = true;
+        for (int i = 0; i < this.rings.length; i++) {
+            final Ring ring = this.rings[i];
+            final Thread thread = threadFactory.newThread(() -> this.consume(ring, handler, onDrained));
+            this.consumerThreads[i] = thread;
+            thread.start();
+        }
+    }
+
+    // Copies the segment in buffer[offset, offset + length) into the ring of the consumer owning its code. Returns
+    // false when the segment was dropped.
+
+    public boolean publish(final byte[] buffer, final int offset, final int length) {
+        return this.publish(buffer, offset, length, 0);
+    }
+
+    // Same, passing receivedAt (e.g. a System.nanoTime() value) on to a TimestampedHandler with the segment.
+
+    public boolean publish(final byte[] buffer, final int offset, final int length, final long receivedAt) {
+        final int code = buffer[offset] << 8 & 0xFF00 | buffer[offset + 1] & 0xFF;
+        final Ring ring = this.rings[this.rings.length == 1 ? 0 : code % this.rings.length];
+        if (length < 4 || length > ring.slotSize) {
+            this.dropped.incrementAndGet();
+            return false;
+        }
+
+        final long head = ring.head.get();
+        while (head - ring.tail.get() >= ring.slots.length) {
+            switch (this.overflowPolicy) {
+                case DROP_NEWEST:
+                    this.dropped.incrementAndGet();
+                    return false;
+                case DROP_OLDEST:
+                    final long tail = ring.tail.get();
+                    if (head - tail >= ring.slots.length && ring.tail.compareAndSet(tail, tail + 1)) {
+                        this.dropped.incrementAndGet();
+                    }
+                    break;
+                case BLOCK:
+                    if (!this.running) {
+                        this.dropped.incrementAndGet();
+                        return false;
+                    }
+                    this.idle();
+                    break;
+            }
+        }
+
+        final int index = (int) (head & ring.mask);
+        System.arraycopy(buffer, offset, ring.slots[index], 0, length);
+        ring.lengths[index] = length;
+        ring.timestamps[index] = receivedAt;
+        ring.head.lazySet(head + 1);
+        this.published.incrementAndGet();
+        return true;
+    }
+
+    public long getPublishedCount() {
+        return this.published.get();
+    }
+
+    public long getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    public long getDeliveredCount() {
+        return this.delivered.get();
+    }
+
+    @Override
+    public void close() {
+        this.running = false;
+        for (final Thread thread : this.consumerThreads) {
+            if (thread != null && thread != Thread.currentThread()) {
+                LockSupport.unpark(thread);
+                try {
+                    thread.join(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // Consumer loop. The slot is copied into a private buffer before the segment is claimed, because with DROP_OLDEST
+    // the receive thread may reclaim the slot at any time; a failed claim means the copy must be discarded.
+
+    private void consume(final Ring ring, final TimestampedHandler handler, final Runnable onDrained) {
+        final byte[] scratch = new byte[ring.slotSize];
+        final DroneSegmentView view = new DroneSegmentView();
+        boolean delivering = false;
+
+        while (this.running) {
+            final long tail = ring.tail.get();
+            if (tail >= ring.head.get()) {
+                if (delivering && onDrained != null) {
+                    try {
+                        onDrained.run();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+                delivering = false;
+                this.idle();
+                continue;
+            }
+            final int index = (int) (tail & ring.mask);
+            final int length = Math.min(Math.max(ring.lengths[index], 0), ring.slotSize);
+            System.arraycopy(ring.slots[index], 0, scratch, 0, length);
+            final long receivedAt = ring.timestamps[index];
+            if (!ring.tail.compareAndSet(tail, tail + 1)) {
+                continue;
+            }
+            try {
+                handler.accept(receivedAt, view.wrap(scratch, 0, length));
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            this.delivered.incrementAndGet();
+            delivering = true;
+        }
+        if (delivering && onDrained != null) {
+            try {
+                onDrained.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void idle() {
+        switch (this.waitStrategy) {
+            case BUSY_SPIN:
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            case PARK:
+                LockSupport.parkNanos(PARK_NANOS);
+                break;
+        }
+    }
+
+    private static final class Ring {
+
+        private final byte[][] slots;
+        private final int[] lengths;
+        private final long[] timestamps;
+        private final int slotSize;
+        private final long mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        private Ring(final int capacity, final int slotSize) {
+            this.slots = new byte[capacity][slotSize];
+            this.lengths = new int[capacity];
+            this.timestamps = new long[capacity];
+            this.slotSize = slotSize;
+            this.mask = capacity - 1;
+        }
+    }
+}
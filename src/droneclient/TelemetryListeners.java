@@ -0,0 +1,96 @@
+package droneclient;
+
+import java.util.function.Consumer;
+
+/* Registry of telemetry handlers indexed by message code. Handlers live in a dense array, so routing a segment is a
+ * single array load with no boxing and no switch, and codes without a subscriber can be skipped by looking only at the
+ * two code bytes, before any payload is decoded. Registration copies the array, so dispatch never locks.
+ *
+ * The typed subscriptions (onRawImu, onAttitude, ...) decode into one object per subscription that is refilled for
+ * every segment; handlers must copy the fields they want to keep. This is safe because a given code is always
+ * dispatched from a single thread. */
+
+public class TelemetryListeners {
+
+    private static final int MAX_CODE = 512;
+
+    private volatile Consumer<DroneSegmentView>[] handlers = newHandlers();
+
+    public boolean hasListener(final int code) {
+        final int index = code & 0xFFFF;
+        return index < MAX_CODE && this.handlers[index] != null;
+    }
+
+    // Routes the segment to the handlers of its code. Returns false when nobody subscribed to that code.
+
+    public boolean dispatch(final DroneSegmentView view) {
+        final int index = view.code() & 0xFFFF;
+        if (index >= MAX_CODE) {
+            return false;
+        }
+        final Consumer<DroneSegmentView> handler = this.handlers[index];
+        if (handler == null) {
+            return false;
+        }
+        handler.accept(view);
+        return true;
+    }
+
+    // Adds a handler for a raw message code. Several handlers per code are called in registration order.
+
+    public synchronized TelemetryListeners on(final int code, final Consumer<DroneSegmentView> handler) {
+        final int index = code & 0xFFFF;
+        if (index >= MAX_CODE) {
+            throw new IllegalArgumentException("Message code out of range: " + code);
+        }
+        final Consumer<DroneSegmentView>[] updated = this.handlers.clone();
+        updated[index] = updated[index] == null ? handler : updated[index].andThen(handler);
+        this.handlers = updated;
+        return this;
+    }
+
+    public synchronized TelemetryListeners remove(final int code) {
+        final int index = code & 0xFFFF;
+        if (index < MAX_CODE) {
+            final Consumer<DroneSegmentView>[] updated = this.handlers.clone();
+            updated[index] = null;
+            this.handlers = updated;
+        }
+        return this;
+    }
+
+    public TelemetryListeners onRawImu(final Consumer<DroneClientServer.DroneSegment.RawImu> handler) {
+        final DroneClientServer.DroneSegment.RawImu rawImu = new DroneClientServer.DroneSegment.RawImu();
+        return this.on(DroneClientServer.DroneSegment.RAW_IMU, view -> handler.accept(rawImu.read(view)));
+    }
+
+    public TelemetryListeners onServo(final Consumer<DroneClientServer.DroneSegment.Servo> handler) {
+        final DroneClientServer.DroneSegment.Servo servo = new DroneClientServer.DroneSegment.Servo();
+        return this.on(DroneClientServer.DroneSegment.SERVO, view -> handler.accept(servo.read(view)));
+    }
+
+    public TelemetryListeners onMotor(final Consumer<DroneClientServer.DroneSegment.Motor> handler) {
+        final DroneClientServer.DroneSegment.Motor motor = new DroneClientServer.DroneSegment.Motor();
+        return this.on(DroneClientServer.DroneSegment.MOTOR, view -> handler.accept(motor.read(view)));
+    }
+
+    public TelemetryListeners onRc(final Consumer<DroneClientServer.DroneSegment.Rc> handler) {
+        final DroneClientServer.DroneSegment.Rc rc = new DroneClientServer.DroneSegment.Rc();
+        return this.on(DroneClientServer.DroneSegment.RC, view -> handler.accept(rc.read(view)));
+    }
+
+    public TelemetryListeners onAttitude(final Consumer<DroneClientServer.DroneSegment.Attitude> handler) {
+        final DroneClientServer.DroneSegment.Attitude attitude = new DroneClientServer.DroneSegment.Attitude();
+        return this.on(DroneClientServer.DroneSegment.ATTITUDE, view -> handler.accept(attitude.read(view)));
+    }
+
+    public TelemetryListeners onAltitude(final Consumer<DroneClientServer.DroneSegment.Altitude> handler) {
+        final DroneClientServer.DroneSegment.Altitude altitude = new DroneClientServer.DroneSegment.Altitude();
+        return this.on(DroneClientServer.DroneSegment.ALTITUDE, view -> handler.accept(altitude.read(view)));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Consumer<DroneSegmentView>[] newHandlers() {
+        return (Consumer<DroneSegmentView>[]) new Consumer[MAX_CODE];
+    }
+}
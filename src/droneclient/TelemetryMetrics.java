@@ -0,0 +1,358 @@
+package droneclient;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/* Receive-side metrics of a client: per-code receive counts, rates, staleness and inter-arrival histograms, command
+ * round trips per reply code, callback execution time and loss counters. The record* methods are lock-free and
+ * allocation-free once a code has been seen, so they run inline on the receive and dispatcher threads. Per-code
+ * arrival state is written only by the receive thread. Read the numbers through snapshot() or over JMX after
+ * register(). */
+
+public class TelemetryMetrics implements TelemetryMetricsMXBean {
+
+    private static final int MAX_CODE = 512;
+
+    private final long startNanos = System.nanoTime();
+    private final AtomicLongArray received = new AtomicLongArray(MAX_CODE);
+    private final AtomicLongArray lastArrival = new AtomicLongArray(MAX_CODE);
+    private final AtomicLongArray lastInterval = new AtomicLongArray(MAX_CODE);
+    private final AtomicLongArray jitter = new AtomicLongArray(MAX_CODE);
+    private final AtomicReferenceArray<LatencyHistogram> interArrival = new AtomicReferenceArray<>(MAX_CODE);
+    private final AtomicReferenceArray<LatencyHistogram> roundTrip = new AtomicReferenceArray<>(MAX_CODE);
+    private final LatencyHistogram callbackTime = new LatencyHistogram();
+    private final AtomicLong receivedTotal = new AtomicLong();
+    private final AtomicLong receiveTimeouts = new AtomicLong();
+    private final AtomicLong receiveErrors = new AtomicLong();
+    private final AtomicLong malformed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile TelemetryDispatcher telemetryDispatcher;
+    private ObjectName objectName;
+
+    // Segments dropped by the dispatcher's overflow policy are included in getDroppedCount().
+
+    public void setTelemetryDispatcher(final TelemetryDispatcher telemetryDispatcher) {
+        this.telemetryDispatcher = telemetryDispatcher;
+    }
+
+    // Called by the receive thread for every datagram with a readable code. Tracks the inter-arrival time and an
+    // RFC 3550 style jitter estimate (mean deviation of consecutive intervals, gain 1/16) per code.
+
+    public void recordReceived(final int code, final long nanoTime) {
+        this.receivedTotal.incrementAndGet();
+        if (code < 0 || code >= MAX_CODE) {
+            return;
+        }
+        this.received.incrementAndGet(code);
+        final long previous = this.lastArrival.get(code);
+        this.lastArrival.lazySet(code, nanoTime);
+        if (previous == 0) {
+            return;
+        }
+        final long interval = nanoTime - previous;
+        histogram(this.interArrival, code).record(interval);
+        final long previousInterval = this.lastInterval.get(code);
+        this.lastInterval.lazySet(code, interval);
+        if (previousInterval != 0) {
+            final long estimate = this.jitter.get(code);
+            this.jitter.lazySet(code, estimate + (Math.abs(interval - previousInterval) - estimate) / 16);
+        }
+    }
+
+    public void recordRoundTrip(final int replyCode, final long nanos) {
+        if (replyCode >= 0 && replyCode < MAX_CODE) {
+            histogram(this.roundTrip, replyCode).record(nanos);
+        }
+    }
+
+    public void recordCallback(final long nanos) {
+        this.callbackTime.record(nanos);
+    }
+
+    public void recordReceiveTimeout() {
+        this.receiveTimeouts.incrementAndGet();
+    }
+
+    // A failed receive, or a datagram whose handling failed.
+
+    public void recordReceiveError() {
+        this.receiveErrors.incrementAndGet();
+    }
+
+    // A datagram too short to carry a segment header.
+
+    public void recordMalformed() {
+        this.malformed.incrementAndGet();
+    }
+
+    // A segment lost on the client side outside the dispatcher, e.g. because it did not fit a buffer.
+
+    public void recordDropped() {
+        this.dropped.incrementAndGet();
+    }
+
+    @Override
+    public long getReceivedCount() {
+        return this.receivedTotal.get();
+    }
+
+    public long getReceivedCount(final int code) {
+        return code < 0 || code >= MAX_CODE ? 0 : this.received.get(code);
+    }
+
+    @Override
+    public long getReceiveTimeouts() {
+        return this.receiveTimeouts.get();
+    }
+
+    @Override
+    public long getReceiveErrors() {
+        return this.receiveErrors.get();
+    }
+
+    @Override
+    public long getMalformedCount() {
+        return this.malformed.get();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        final TelemetryDispatcher dispatcher = this.telemetryDispatcher;
+        return this.dropped.get() + (dispatcher == null ? 0 : dispatcher.getDroppedCount());
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getConnectRoundTrip() {
+        return this.getRoundTrip(DroneClientServer.DroneSegment.CONNECTION_ACCEPTED);
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getTelemetryRoundTrip() {
+        return this.getRoundTrip(DroneClientServer.DroneSegment.TELEMETRY_ACCEPTED);
+    }
+
+    // Time from sending a command to receiving the reply with replyCode.
+
+    public LatencyHistogram.Snapshot getRoundTrip(final int replyCode) {
+        final LatencyHistogram histogram =
+                replyCode < 0 || replyCode >= MAX_CODE ? null : this.roundTrip.get(replyCode);
+        return (histogram == null ? new LatencyHistogram() : histogram).snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getCallbackTime() {
+        return this.callbackTime.snapshot();
+    }
+
+    // Statistics for every code received so far, in code order.
+
+    @Override
+    public List<CodeStats> getCodes() {
+        final long now = System.nanoTime();
+        final double elapsedSeconds = Math.max(1, now - this.startNanos) / 1e9;
+        final List<CodeStats> codes = new ArrayList<>();
+        for (int code = 0; code < MAX_CODE; code++) {
+            final long count = this.received.get(code);
+            if (count == 0) {
+                continue;
+            }
+            final LatencyHistogram histogram = this.interArrival.get(code);
+            codes.add(new CodeStats(code, count, count / elapsedSeconds, now - this.lastArrival.get(code),
+                    this.jitter.get(code), (histogram == null ? new LatencyHistogram() : histogram).snapshot()));
+        }
+        return codes;
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(System.nanoTime() - this.startNanos, this.getReceivedCount(), this.getReceiveTimeouts(),
+                this.getReceiveErrors(), this.getMalformedCount(), this.getDroppedCount(), this.getConnectRoundTrip(),
+                this.getTelemetryRoundTrip(), this.getCallbackTime(), this.getCodes());
+    }
+
+    // Registers these metrics with the platform MBean server as droneclient:type=TelemetryMetrics,name=<name>.
+
+    public synchronized void register(final String name) {
+        try {
+            final ObjectName objectName = new ObjectName("droneclient:type=TelemetryMetrics,name="
+                    + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (MalformedObjectNameException | InstanceAlreadyExistsException | MBeanRegistrationException
+                | NotCompliantMBeanException e) {
+            throw new IllegalStateException("Could not register telemetry metrics as " + name, e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if (this.objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+        } catch (InstanceNotFoundException | MBeanRegistrationException e) {
+            // Already gone; nothing left to clean up.
+        }
+        this.objectName = null;
+    }
+
+    private static LatencyHistogram histogram(final AtomicReferenceArray<LatencyHistogram> histograms, final int code) {
+        LatencyHistogram histogram = histograms.get(code);
+        if (histogram == null) {
+            histograms.compareAndSet(code, null, new LatencyHistogram());
+            histogram = histograms.get(code);
+        }
+        return histogram;
+    }
+
+    public static final class CodeStats {
+
+        private final int code;
+        private final long count;
+        private final double ratePerSecond;
+        private final long ageNanos;
+        private final long jitterNanos;
+        private final LatencyHistogram.Snapshot interArrival;
+
+        private CodeStats(final int code, final long count, final double ratePerSecond, final long ageNanos,
+                          final long jitterNanos, final LatencyHistogram.Snapshot interArrival) {
+            this.code = code;
+            this.count = count;
+            this.ratePerSecond = ratePerSecond;
+            this.ageNanos = ageNanos;
+            this.jitterNanos = jitterNanos;
+            this.interArrival = interArrival;
+        }
+
+        public int getCode() {
+            return this.code;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        // Average rate since the metrics were created.
+
+        public double getRatePerSecond() {
+            return this.ratePerSecond;
+        }
+
+        // Time since the last segment with this code arrived, i.e. how stale its latest value is.
+
+        public long getAgeNanos() {
+            return this.ageNanos;
+        }
+
+        public long getJitterNanos() {
+            return this.jitterNanos;
+        }
+
+        public LatencyHistogram.Snapshot getInterArrival() {
+            return this.interArrival;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("code=%d count=%d rate=%.1f/s age=%.1fms jitter=%.1fus interArrival[%s]", this.code,
+                    this.count, this.ratePerSecond, this.ageNanos / 1e6, this.jitterNanos / 1e3, this.interArrival);
+        }
+    }
+
+    public static final class Snapshot {
+
+        private final long elapsedNanos;
+        private final long receivedCount;
+        private final long receiveTimeouts;
+        private final long receiveErrors;
+        private final long malformedCount;
+        private final long droppedCount;
+        private final LatencyHistogram.Snapshot connectRoundTrip;
+        private final LatencyHistogram.Snapshot telemetryRoundTrip;
+        private final LatencyHistogram.Snapshot callbackTime;
+        private final List<CodeStats> codes;
+
+        private Snapshot(final long elapsedNanos, final long receivedCount, final long receiveTimeouts,
+                         final long receiveErrors, final long malformedCount, final long droppedCount,
+                         final LatencyHistogram.Snapshot connectRoundTrip,
+                         final LatencyHistogram.Snapshot telemetryRoundTrip,
+                         final LatencyHistogram.Snapshot callbackTime, final List<CodeStats> codes) {
+            this.elapsedNanos = elapsedNanos;
+            this.receivedCount = receivedCount;
+            this.receiveTimeouts = receiveTimeouts;
+            this.receiveErrors = receiveErrors;
+            this.malformedCount = malformedCount;
+            this.droppedCount = droppedCount;
+            this.connectRoundTrip = connectRoundTrip;
+            this.telemetryRoundTrip = telemetryRoundTrip;
+            this.callbackTime = callbackTime;
+            this.codes = Collections.unmodifiableList(codes);
+        }
+
+        public long getElapsedNanos() {
+            return this.elapsedNanos;
+        }
+
+        public long getReceivedCount() {
+            return this.receivedCount;
+        }
+
+        public long getReceiveTimeouts() {
+            return this.receiveTimeouts;
+        }
+
+        public long getReceiveErrors() {
+            return this.receiveErrors;
+        }
+
+        public long getMalformedCount() {
+            return this.malformedCount;
+        }
+
+        public long getDroppedCount() {
+            return this.droppedCount;
+        }
+
+        public LatencyHistogram.Snapshot getConnectRoundTrip() {
+            return this.connectRoundTrip;
+        }
+
+        public LatencyHistogram.Snapshot getTelemetryRoundTrip() {
+            return this.telemetryRoundTrip;
+        }
+
+        public LatencyHistogram.Snapshot getCallbackTime() {
+            return this.callbackTime;
+        }
+
+        public List<CodeStats> getCodes() {
+            return this.codes;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder();
+            builder.append(String.format("received=%d timeouts=%d errors=%d malformed=%d dropped=%d%n",
+                    this.receivedCount, this.receiveTimeouts, this.receiveErrors, this.malformedCount,
+                    this.droppedCount));
+            builder.append("connect rtt: ").append(this.connectRoundTrip).append(System.lineSeparator());
+            builder.append("telemetry rtt: ").append(this.telemetryRoundTrip).append(System.lineSeparator());
+            builder.append("callback: ").append(this.callbackTime).append(System.lineSeparator());
+            for (final CodeStats code : this.codes) {
+                builder.append(code).append(System.lineSeparator());
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package droneclient;
+
+import java.util.List;
+
+/* JMX view of TelemetryMetrics. Durations are reported in nanoseconds. */
+
+public interface TelemetryMetricsMXBean {
+
+    long getReceivedCount();
+
+    long getReceiveTimeouts();
+
+    long getReceiveErrors();
+
+    long getMalformedCount();
+
+    long getDroppedCount();
+
+    LatencyHistogram.Snapshot getConnectRoundTrip();
+
+    LatencyHistogram.Snapshot getTelemetryRoundTrip();
+
+    LatencyHistogram.Snapshot getCallbackTime();
+
+    List<TelemetryMetrics.CodeStats> getCodes();
+}
@@ -0,0 +1,467 @@
+package droneclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/* Reactive Streams view of telemetry: a Flow.Publisher of DroneSegment copies that honours each subscriber's demand.
+ * Every subscription has its own small buffer and is drained on a pool thread, so segments are offered by the
+ * dispatcher thread without ever waiting for a subscriber, and a slow subscriber only loses its own oldest segments
+ * (see getDroppedCount) instead of slowing down the others. The operators give each subscriber the rate it wants:
+ *
+ *   subscribe(s)                  every segment, up to bufferSize waiting
+ *   conflate().subscribe(s)       only the latest segment whenever s asks for more
+ *   sample(200, MILLISECONDS)     the latest segment once per period, if a new one arrived
+ *   batch(64, 100, MILLISECONDS)  arrays of all segments, emitted when full or once per period
+ *
+ * so a 5 Hz display and a 500 Hz controller can read the same stream. Feed it with attach(listeners, codes...) for
+ * some message codes, or pass it as a Consumer<DroneSegmentView> to receive every code. */
+
+public class TelemetryPublisher implements Flow.Publisher<DroneClientServer.DroneSegment>,
+        Consumer<DroneSegmentView>, AutoCloseable {
+
+    public static final int DEFAULT_BUFFER_SIZE = Flow.defaultBufferSize();
+
+    private final int bufferSize;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+    private final List<Sink<?>> sinks = new CopyOnWriteArrayList<>();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed;
+
+    public TelemetryPublisher() {
+        this(ExecutionMode.PLATFORM.threadFactory("telemetry-publisher", true), DEFAULT_BUFFER_SIZE);
+    }
+
+    // Subscribers are called on threads from threadFactory; bufferSize is the number of segments (or batches) that may
+    // wait for one subscriber before its oldest are dropped.
+
+    public TelemetryPublisher(final ThreadFactory threadFactory, final int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        this.executor = Executors.newCachedThreadPool(threadFactory);
+        final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, threadFactory);
+        timer.setRemoveOnCancelPolicy(true);
+        this.scheduler = timer;
+    }
+
+    // Publishes the given message codes of a client's telemetry.
+
+    public TelemetryPublisher attach(final TelemetryListeners listeners, final short... codes) {
+        for (final short code : codes) {
+            listeners.on(code, this);
+        }
+        return this;
+    }
+
+    // Copies the segment once and offers it to every subscriber; runs on the dispatcher thread and never blocks.
+
+    @Override
+    public void accept(final DroneSegmentView view) {
+        if (this.sinks.isEmpty()) {
+            return;
+        }
+        final DroneClientServer.DroneSegment segment = view.copy();
+        this.published.incrementAndGet();
+        for (final Sink<?> sink : this.sinks) {
+            sink.offer(segment);
+        }
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super DroneClientServer.DroneSegment> subscriber) {
+        this.add(new QueueSink(subscriber));
+    }
+
+    // Keeps only the latest segment for each subscriber; whenever it requests more it gets the newest one.
+
+    public Flow.Publisher<DroneClientServer.DroneSegment> conflate() {
+        return subscriber -> this.add(new LatestSink(subscriber));
+    }
+
+    // Emits the latest segment once per period, skipping periods in which nothing new arrived. Without demand the
+    // sample waits and is replaced by newer ones.
+
+    public Flow.Publisher<DroneClientServer.DroneSegment> sample(final long period, final TimeUnit unit) {
+        checkPeriod(period);
+        return subscriber -> this.add(new SampleSink(subscriber, period, unit));
+    }
+
+    // Collects segments into arrays of at most maxSize, emitted when full or at the end of every period that
+    // collected anything.
+
+    public Flow.Publisher<DroneClientServer.DroneSegment[]> batch(final int maxSize, final long period,
+                                                                 final TimeUnit unit) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        checkPeriod(period);
+        return subscriber -> this.add(new BatchSink(subscriber, maxSize, period, unit));
+    }
+
+    public int getSubscriberCount() {
+        return this.sinks.size();
+    }
+
+    public long getPublishedCount() {
+        return this.published.get();
+    }
+
+    // Segments and batches discarded because a subscriber's buffer was full, summed over all subscribers.
+
+    public long getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    // Completes every subscription once its buffer is drained.
+
+    @Override
+    public void close() {
+        this.closed = true;
+        for (final Sink<?> sink : this.sinks) {
+            sink.complete();
+        }
+        this.scheduler.shutdownNow();
+        this.executor.shutdown();
+    }
+
+    private void add(final Sink<?> sink) {
+        sink.subscriber.onSubscribe(sink);
+        if (this.closed) {
+            sink.complete();
+            return;
+        }
+        this.sinks.add(sink);
+        sink.start();
+    }
+
+    private static void checkPeriod(final long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive: " + period);
+        }
+    }
+
+    // One subscription: demand accounting and a serial drain loop. Only the drain loop calls the subscriber after
+    // onSubscribe, and at most one drain runs at a time.
+
+    private abstract class Sink<T> implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger work = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private volatile Throwable error;
+
+        private Sink(final Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = Objects.requireNonNull(subscriber, "subscriber");
+        }
+
+        // Called on the dispatcher thread for every segment.
+
+        abstract void offer(DroneClientServer.DroneSegment segment);
+
+        // Next item ready for the subscriber, or null.
+
+        abstract T poll();
+
+        abstract boolean isEmpty();
+
+        void start() {
+        }
+
+        void stop() {
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                // Reactive Streams rule 3.9.
+                this.error = new IllegalArgumentException("Non-positive request: " + n);
+                this.done = true;
+            } else {
+                this.demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+            this.drain();
+        }
+
+        @Override
+        public void cancel() {
+            this.cancelled = true;
+            this.release();
+        }
+
+        void complete() {
+            this.done = true;
+            this.drain();
+        }
+
+        void drain() {
+            if (this.work.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this::drainLoop);
+                } catch (RejectedExecutionException e) {
+                    // Closed while a drain was pending; the subscription ends with the publisher.
+                    this.cancelled = true;
+                    this.release();
+                }
+            }
+        }
+
+        private void drainLoop() {
+            int missed = 1;
+            do {
+                final long requested = this.demand.get();
+                long emitted = 0;
+                while (emitted != requested && !this.cancelled && this.error == null) {
+                    final T item = this.poll();
+                    if (item == null) {
+                        break;
+                    }
+                    try {
+                        this.subscriber.onNext(item);
+                    } catch (Throwable t) {
+                        // Rule 2.13: a throwing subscriber is cancelled.
+                        this.cancel();
+                        return;
+                    }
+                    emitted++;
+                }
+                if (this.cancelled) {
+                    return;
+                }
+                if (this.done && (this.error != null || this.isEmpty())) {
+                    this.cancelled = true;
+                    this.release();
+                    if (this.error != null) {
+                        this.subscriber.onError(this.error);
+                    } else {
+                        this.subscriber.onComplete();
+                    }
+                    return;
+                }
+                if (emitted != 0 && requested != Long.MAX_VALUE) {
+                    this.demand.addAndGet(-emitted);
+                }
+                missed = this.work.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void release() {
+            if (sinks.remove(this)) {
+                this.stop();
+            }
+        }
+    }
+
+    private final class QueueSink extends Sink<DroneClientServer.DroneSegment> {
+
+        private final ArrayBlockingQueue<DroneClientServer.DroneSegment> queue;
+
+        private QueueSink(final Flow.Subscriber<? super DroneClientServer.DroneSegment> subscriber) {
+            super(subscriber);
+            this.queue = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        @Override
+        void offer(final DroneClientServer.DroneSegment segment) {
+            while (!this.queue.offer(segment)) {
+                if (this.queue.poll() != null) {
+                    dropped.incrementAndGet();
+                }
+            }
+            this.drain();
+        }
+
+        @Override
+        DroneClientServer.DroneSegment poll() {
+            return this.queue.poll();
+        }
+
+        @Override
+        boolean isEmpty() {
+            return this.queue.isEmpty();
+        }
+    }
+
+    private final class LatestSink extends Sink<DroneClientServer.DroneSegment> {
+
+        private final AtomicReference<DroneClientServer.DroneSegment> latest = new AtomicReference<>();
+
+        private LatestSink(final Flow.Subscriber<? super DroneClientServer.DroneSegment> subscriber) {
+            super(subscriber);
+        }
+
+        @Override
+        void offer(final DroneClientServer.DroneSegment segment) {
+            this.latest.set(segment);
+            this.drain();
+        }
+
+        @Override
+        DroneClientServer.DroneSegment poll() {
+            return this.latest.getAndSet(null);
+        }
+
+        @Override
+        boolean isEmpty() {
+            return this.latest.get() == null;
+        }
+    }
+
+    private final class SampleSink extends Sink<DroneClientServer.DroneSegment> {
+
+        private final long period;
+        private final TimeUnit unit;
+        private final AtomicReference<DroneClientServer.DroneSegment> latest = new AtomicReference<>();
+        private final AtomicReference<DroneClientServer.DroneSegment> ready = new AtomicReference<>();
+        private volatile ScheduledFuture<?> ticks;
+
+        private SampleSink(final Flow.Subscriber<? super DroneClientServer.DroneSegment> subscriber,
+                           final long period, final TimeUnit unit) {
+            super(subscriber);
+            this.period = period;
+            this.unit = unit;
+        }
+
+        @Override
+        void start() {
+            this.ticks = schedule(this::tick, this.period, this.unit);
+        }
+
+        @Override
+        void stop() {
+            cancelTicks(this.ticks);
+        }
+
+        private void tick() {
+            final DroneClientServer.DroneSegment sample = this.latest.getAndSet(null);
+            if (sample != null) {
+                this.ready.set(sample);
+                this.drain();
+            }
+        }
+
+        @Override
+        void offer(final DroneClientServer.DroneSegment segment) {
+            this.latest.set(segment);
+        }
+
+        @Override
+        DroneClientServer.DroneSegment poll() {
+            return this.ready.getAndSet(null);
+        }
+
+        @Override
+        boolean isEmpty() {
+            return this.ready.get() == null;
+        }
+    }
+
+    private final class BatchSink extends Sink<DroneClientServer.DroneSegment[]> {
+
+        private final int maxSize;
+        private final long period;
+        private final TimeUnit unit;
+        private final ArrayBlockingQueue<DroneClientServer.DroneSegment[]> queue;
+        private final List<DroneClientServer.DroneSegment> pending;
+        private volatile ScheduledFuture<?> ticks;
+
+        private BatchSink(final Flow.Subscriber<? super DroneClientServer.DroneSegment[]> subscriber,
+                          final int maxSize, final long period, final TimeUnit unit) {
+            super(subscriber);
+            this.maxSize = maxSize;
+            this.period = period;
+            this.unit = unit;
+            this.queue = new ArrayBlockingQueue<>(bufferSize);
+            this.pending = new ArrayList<>(maxSize);
+        }
+
+        @Override
+        void start() {
+            this.ticks = schedule(this::flush, this.period, this.unit);
+        }
+
+        @Override
+        void stop() {
+            cancelTicks(this.ticks);
+        }
+
+        @Override
+        void offer(final DroneClientServer.DroneSegment segment) {
+            final boolean full;
+            synchronized (this.pending) {
+                this.pending.add(segment);
+                full = this.pending.size() >= this.maxSize;
+            }
+            if (full) {
+                this.flush();
+            }
+        }
+
+        @Override
+        void complete() {
+            this.flush();
+            super.complete();
+        }
+
+        private void flush() {
+            final DroneClientServer.DroneSegment[] batch;
+            synchronized (this.pending) {
+                if (this.pending.isEmpty()) {
+                    return;
+                }
+                batch = this.pending.toArray(new DroneClientServer.DroneSegment[0]);
+                this.pending.clear();
+            }
+            while (!this.queue.offer(batch)) {
+                if (this.queue.poll() != null) {
+                    dropped.incrementAndGet();
+                }
+            }
+            this.drain();
+        }
+
+        @Override
+        DroneClientServer.DroneSegment[] poll() {
+            return this.queue.poll();
+        }
+
+        @Override
+        boolean isEmpty() {
+            return this.queue.isEmpty();
+        }
+    }
+
+    private ScheduledFuture<?> schedule(final Runnable tick, final long period, final TimeUnit unit) {
+        try {
+            return this.scheduler.scheduleAtFixedRate(tick, period, period, unit);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    private static void cancelTicks(final ScheduledFuture<?> ticks) {
+        if (ticks != null) {
+            ticks.cancel(false);
+        }
+    }
+}
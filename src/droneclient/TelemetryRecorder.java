@@ -0,0 +1,151 @@
+package droneclient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/* Appends received telemetry to a compact binary flight log through a memory-mapped file.
+ *
+ * Layout (big-endian, like the wire format): a HEADER_LENGTH byte header (magic, version, block size, wall-clock start
+ * in epoch millis) followed by BLOCK_SIZE blocks of records. A record is a short with the record length, a long with
+ * the receive time in nanoseconds since the recording started, and the segment exactly as received (code, size,
+ * payload). Records never straddle a block; a zero record length marks the unused tail of a block. Keeping records
+ * block-aligned lets a reader start at any block boundary without scanning the log from the beginning. */
+
+public class TelemetryRecorder implements Consumer<DroneSegmentView>, AutoCloseable {
+
+    public static final int MAGIC = 0x44524C47;
+    public static final short VERSION = 1;
+    public static final int HEADER_LENGTH = 64;
+    public static final int BLOCK_SIZE = 64 * 1024;
+    public static final int RECORD_HEADER_LENGTH = 10;
+
+    // The file is mapped this many blocks at a time and remapped when a region fills up.
+    private static final int BLOCKS_PER_REGION = 256;
+    private static final long REGION_SIZE = (long) BLOCK_SIZE * BLOCKS_PER_REGION;
+
+    private final FileChannel channel;
+    private final long startNanos;
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long position = HEADER_LENGTH;
+    private long recordCount;
+    private long droppedCount;
+    private IOException failure;
+    private boolean closed;
+
+    public TelemetryRecorder(final Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.startNanos = System.nanoTime();
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).putShort(VERSION).putInt(BLOCK_SIZE).putLong(System.currentTimeMillis());
+        header.clear();
+        this.channel.write(header, 0);
+        this.map(HEADER_LENGTH);
+    }
+
+    // Records a segment as received now. Suitable as a telemetry callback.
+
+    @Override
+    public void accept(final DroneSegmentView view) {
+        this.record(System.nanoTime(), view);
+    }
+
+    // Records a segment received at nanoTime (a System.nanoTime() value). Runs on the receive thread, so it never
+    // throws for I/O: if the file cannot be extended the recording is closed at what it holds and the segments that
+    // follow are counted as dropped (see getFailure()).
+
+    public synchronized void record(final long nanoTime, final DroneSegmentView view) {
+        if (this.closed) {
+            if (this.failure != null) {
+                this.droppedCount++;
+            }
+            return;
+        }
+        final int recordLength = RECORD_HEADER_LENGTH + view.length();
+        if (recordLength > 0xFFFF) {
+            throw new IllegalArgumentException("Segment too large to record: " + view.length() + " bytes");
+        }
+
+        final long blockOffset = (this.position - HEADER_LENGTH) % BLOCK_SIZE;
+        if (blockOffset + recordLength > BLOCK_SIZE) {
+            // Mapped pages start zero-filled, so skipping ahead leaves the zero length marker behind.
+            this.position += BLOCK_SIZE - blockOffset;
+        }
+        if (this.position + recordLength > this.regionStart + REGION_SIZE) {
+            try {
+                this.map(this.position);
+            } catch (IOException e) {
+                this.fail(e);
+                return;
+            }
+        }
+
+        final int offset = (int) (this.position - this.regionStart);
+        this.region.putShort(offset, (short) recordLength);
+        this.region.putLong(offset + 2, nanoTime - this.startNanos);
+        this.region.position(offset + RECORD_HEADER_LENGTH);
+        this.region.put(view.buffer(), view.offset(), view.length());
+        this.position += recordLength;
+        this.recordCount++;
+    }
+
+    public synchronized long getRecordCount() {
+        return this.recordCount;
+    }
+
+    public synchronized long getBytesWritten() {
+        return this.position;
+    }
+
+    // Segments not recorded because the recording failed.
+
+    public synchronized long getDroppedCount() {
+        return this.droppedCount;
+    }
+
+    // Why the recording stopped on its own, or null while it is running or after a regular close().
+
+    public synchronized IOException getFailure() {
+        return this.failure;
+    }
+
+    // Trims the file to the data actually written and flushes it to disk.
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.region = null;
+        this.channel.truncate(this.position);
+        // Also writes back the dirty pages of every region mapped so far.
+        this.channel.force(false);
+        this.channel.close();
+    }
+
+    // Maps the region starting at the block that contains position. The previous region is left to the page cache
+    // rather than forced, which would stall the receive thread on a sync of the whole region; close() syncs the file.
+
+    private void map(final long position) throws IOException {
+        this.regionStart = HEADER_LENGTH + (position - HEADER_LENGTH) / BLOCK_SIZE * BLOCK_SIZE;
+        this.region = this.channel.map(FileChannel.MapMode.READ_WRITE, this.regionStart, REGION_SIZE);
+    }
+
+    private void fail(final IOException e) {
+        this.failure = e;
+        this.droppedCount++;
+        try {
+            this.close();
+        } catch (IOException suppressed) {
+            e.addSuppressed(suppressed);
+        }
+    }
+}
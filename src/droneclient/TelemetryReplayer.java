@@ -0,0 +1,124 @@
+package droneclient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/* Plays a TelemetryRecorder log back into the same callbacks used for live telemetry, e.g. a TelemetryListeners
+ * dispatch or a telemetry view callback. Segments are delivered through one reused DroneSegmentView, either with their
+ * original spacing or as fast as possible, which lets consumers be regression-tested against hours of real flight data
+ * in seconds. */
+
+public class TelemetryReplayer implements AutoCloseable {
+
+    public enum Pacing {
+        ORIGINAL,
+        MAX_SPEED
+    }
+
+    public interface RecordHandler {
+        void onRecord(long timestampNanos, DroneSegmentView segment);
+    }
+
+    private static final long REGION_SIZE = (long) TelemetryRecorder.BLOCK_SIZE * 256;
+
+    private final FileChannel channel;
+    private final long startEpochMillis;
+
+    public TelemetryReplayer(final Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        final ByteBuffer header = ByteBuffer.allocate(TelemetryRecorder.HEADER_LENGTH);
+        this.channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < 14 || header.getInt() != TelemetryRecorder.MAGIC) {
+            throw new IOException("Not a telemetry recording: " + path);
+        }
+        final short version = header.getShort();
+        final int blockSize = header.getInt();
+        if (version != TelemetryRecorder.VERSION || blockSize != TelemetryRecorder.BLOCK_SIZE) {
+            throw new IOException(
+                    "Unsupported telemetry recording version " + version + " (block size " + blockSize + ")");
+        }
+        this.startEpochMillis = header.getLong();
+    }
+
+    public long getStartEpochMillis() {
+        return this.startEpochMillis;
+    }
+
+    public long size() throws IOException {
+        return this.channel.size();
+    }
+
+    // Feeds every recorded segment to consumer and returns the number of segments replayed.
+
+    public long replay(final Consumer<DroneSegmentView> consumer, final Pacing pacing) throws IOException {
+        return this.replay((timestampNanos, segment) -> consumer.accept(segment), pacing);
+    }
+
+    public long replay(final RecordHandler handler, final Pacing pacing) throws IOException {
+        final long wallStart = System.nanoTime();
+        final long[] firstTimestamp = {-1};
+        final RecordHandler paced = pacing == Pacing.MAX_SPEED ? handler : (timestampNanos, segment) -> {
+            if (firstTimestamp[0] < 0) {
+                firstTimestamp[0] = timestampNanos;
+            }
+            final long due = wallStart + (timestampNanos - firstTimestamp[0]);
+            long remaining;
+            while ((remaining = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+            handler.onRecord(timestampNanos, segment);
+        };
+        return this.read(TelemetryRecorder.HEADER_LENGTH, this.channel.size(), paced);
+    }
+
+    // Reads the records of the whole blocks in [from, to); from must be a block boundary.
+
+    public long read(final long from, final long to, final RecordHandler handler) throws IOException {
+        final byte[] scratch = new byte[TelemetryRecorder.BLOCK_SIZE];
+        final DroneSegmentView view = new DroneSegmentView();
+        long count = 0;
+        for (long regionStart = from; regionStart < to; regionStart += REGION_SIZE) {
+            final long length = Math.min(REGION_SIZE, to - regionStart);
+            final MappedByteBuffer region = this.channel.map(FileChannel.MapMode.READ_ONLY, regionStart, length);
+            count += readRecords(region, scratch, view, handler);
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    // Parses the records of a buffer holding whole blocks (the last one may be cut short at the end of the file).
+
+    static long readRecords(final ByteBuffer blocks, final byte[] scratch, final DroneSegmentView view,
+                            final RecordHandler handler) {
+        long count = 0;
+        for (int blockStart = 0; blockStart < blocks.limit(); blockStart += TelemetryRecorder.BLOCK_SIZE) {
+            final int blockEnd = Math.min(blockStart + TelemetryRecorder.BLOCK_SIZE, blocks.limit());
+            int offset = blockStart;
+            while (offset + TelemetryRecorder.RECORD_HEADER_LENGTH <= blockEnd) {
+                final int recordLength = blocks.getShort(offset) & 0xFFFF;
+                if (recordLength < TelemetryRecorder.RECORD_HEADER_LENGTH + 4 || offset + recordLength > blockEnd) {
+                    break;
+                }
+                final long timestampNanos = blocks.getLong(offset + 2);
+                final int segmentLength = recordLength - TelemetryRecorder.RECORD_HEADER_LENGTH;
+                blocks.position(offset + TelemetryRecorder.RECORD_HEADER_LENGTH);
+                blocks.get(scratch, 0, segmentLength);
+                handler.onRecord(timestampNanos, view.wrap(scratch, 0, segmentLength));
+                offset += recordLength;
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,309 @@
+package droneclient;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Rolling in-memory history of every TelemetryChannel. Each message code owns a fixed-capacity ring stored column by
+ * column: one long[] of receive timestamps and one short[] per payload value, so nothing is allocated per sample and a
+ * query over one channel only touches that channel's column.
+ *
+ * Samples of a code are appended by the single thread dispatching that code (see TelemetryListeners), while queries
+ * may run on any thread. Queries never lock: they read the ring and then check that the writer has not lapped the
+ * samples they looked at, retrying if it has. Timestamps are System.nanoTime() values taken on append. */
+
+public class TelemetryStore {
+
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    private static final int MAX_CODE = 512;
+
+    private final Series[] series = new Series[MAX_CODE];
+
+    public TelemetryStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // capacity is the number of samples kept per message code and is rounded up to a power of two.
+
+    public TelemetryStore(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int ringCapacity = 1;
+        while (ringCapacity < capacity) {
+            ringCapacity <<= 1;
+        }
+        final int[] widths = new int[MAX_CODE];
+        for (final TelemetryChannel channel : TelemetryChannel.values()) {
+            widths[channel.code()] = Math.max(widths[channel.code()], channel.index() + 1);
+        }
+        for (int code = 0; code < MAX_CODE; code++) {
+            if (widths[code] > 0) {
+                this.series[code] = new Series(ringCapacity, widths[code]);
+            }
+        }
+    }
+
+    // Subscribes the store to every code it has channels for.
+
+    public TelemetryStore attach(final TelemetryListeners listeners) {
+        for (int code = 0; code < MAX_CODE; code++) {
+            if (this.series[code] != null) {
+                listeners.on(code, this::append);
+            }
+        }
+        return this;
+    }
+
+    public void append(final DroneSegmentView view) {
+        this.append(System.nanoTime(), view);
+    }
+
+    public void append(final long nanoTime, final DroneSegmentView view) {
+        final int code = view.code() & 0xFFFF;
+        final Series series = code < MAX_CODE ? this.series[code] : null;
+        if (series == null) {
+            return;
+        }
+        final long head = series.head.get();
+        final int slot = (int) (head & series.mask);
+        series.timestamps[slot] = nanoTime;
+        final int count = Math.min(series.values.length, view.payloadLength());
+        for (int i = 0; i < count; i++) {
+            series.values[i][slot] = view.payload(i);
+        }
+        for (int i = count; i < series.values.length; i++) {
+            series.values[i][slot] = 0;
+        }
+        series.head.lazySet(head + 1);
+    }
+
+    public int capacity() {
+        return this.series[TelemetryChannel.ACC_X.code()].timestamps.length;
+    }
+
+    // Number of samples currently held for the channel's code.
+
+    public int size(final TelemetryChannel channel) {
+        final Series series = this.series[channel.code()];
+        return (int) Math.min(series.head.get(), series.timestamps.length);
+    }
+
+    // Latest value of the channel, or defaultValue when nothing has been received yet.
+
+    public short latest(final TelemetryChannel channel, final short defaultValue) {
+        final Series series = this.series[channel.code()];
+        while (true) {
+            final long head = series.head.get();
+            if (head == 0) {
+                return defaultValue;
+            }
+            final short value = series.values[channel.index()][(int) ((head - 1) & series.mask)];
+            VarHandle.acquireFence();
+            if (series.head.get() - series.timestamps.length < head - 1) {
+                return value;
+            }
+        }
+    }
+
+    // Copies the samples received in [fromNanos, toNanos) into times/values, oldest first, and returns how many were
+    // copied. At most min(times.length, values.length) samples are copied, the oldest of the window first.
+
+    public int query(final TelemetryChannel channel, final long fromNanos, final long toNanos, final long[] times,
+                     final short[] values) {
+        final Series series = this.series[channel.code()];
+        final short[] column = series.values[channel.index()];
+        final int limit = Math.min(times.length, values.length);
+        while (true) {
+            final long head = series.head.get();
+            final long first = series.seek(series.oldest(head), head, fromNanos);
+            int copied = 0;
+            for (long seq = first; seq < head && copied < limit; seq++) {
+                final int slot = (int) (seq & series.mask);
+                final long time = series.timestamps[slot];
+                if (time - toNanos >= 0) {
+                    break;
+                }
+                times[copied] = time;
+                values[copied] = column[slot];
+                copied++;
+            }
+            if (series.intact(first)) {
+                return copied;
+            }
+        }
+    }
+
+    // Min, max and mean of the channel over [fromNanos, toNanos), written into stats, which is also returned so one
+    // instance can be reused for every query.
+
+    public WindowStats stats(final TelemetryChannel channel, final long fromNanos, final long toNanos,
+                             final WindowStats stats) {
+        final Series series = this.series[channel.code()];
+        final short[] column = series.values[channel.index()];
+        while (true) {
+            final long head = series.head.get();
+            final long first = series.seek(series.oldest(head), head, fromNanos);
+            stats.reset();
+            for (long seq = first; seq < head; seq++) {
+                final int slot = (int) (seq & series.mask);
+                if (series.timestamps[slot] - toNanos >= 0) {
+                    break;
+                }
+                stats.add(column[slot]);
+            }
+            if (series.intact(first)) {
+                return stats;
+            }
+        }
+    }
+
+    // Statistics over the last windowNanos, e.g. TimeUnit.MINUTES.toNanos(5).
+
+    public WindowStats stats(final TelemetryChannel channel, final long windowNanos, final WindowStats stats) {
+        final long now = System.nanoTime();
+        return this.stats(channel, now - windowNanos, now + 1, stats);
+    }
+
+    // Decimates [fromNanos, toNanos) into buckets of equal duration for plotting: each bucket reports its min and max,
+    // so spikes survive the downsampling. Writes up to buckets = times.length entries (the bucket start time, or
+    // Long.MIN_VALUE for an empty bucket) and returns the number of buckets that held samples.
+
+    public int downsample(final TelemetryChannel channel, final long fromNanos, final long toNanos, final long[] times,
+                          final short[] min, final short[] max) {
+        final int buckets = Math.min(times.length, Math.min(min.length, max.length));
+        if (buckets == 0 || toNanos - fromNanos <= 0) {
+            return 0;
+        }
+        final Series series = this.series[channel.code()];
+        final short[] column = series.values[channel.index()];
+        final double bucketNanos = (double) (toNanos - fromNanos) / buckets;
+        while (true) {
+            for (int i = 0; i < buckets; i++) {
+                times[i] = Long.MIN_VALUE;
+            }
+            final long head = series.head.get();
+            final long first = series.seek(series.oldest(head), head, fromNanos);
+            int filled = 0;
+            for (long seq = first; seq < head; seq++) {
+                final int slot = (int) (seq & series.mask);
+                final long time = series.timestamps[slot];
+                if (time - toNanos >= 0) {
+                    break;
+                }
+                final int bucket = Math.min(buckets - 1, (int) ((time - fromNanos) / bucketNanos));
+                final short value = column[slot];
+                if (times[bucket] == Long.MIN_VALUE) {
+                    times[bucket] = fromNanos + (long) (bucket * bucketNanos);
+                    min[bucket] = value;
+                    max[bucket] = value;
+                    filled++;
+                } else {
+                    if (value < min[bucket]) {
+                        min[bucket] = value;
+                    }
+                    if (value > max[bucket]) {
+                        max[bucket] = value;
+                    }
+                }
+            }
+            if (series.intact(first)) {
+                return filled;
+            }
+        }
+    }
+
+    private static final class Series {
+
+        private final long[] timestamps;
+        private final short[][] values;
+        private final long mask;
+        private final AtomicLong head = new AtomicLong();
+
+        private Series(final int capacity, final int width) {
+            this.timestamps = new long[capacity];
+            this.values = new short[width][capacity];
+            this.mask = capacity - 1;
+        }
+
+        // First sequence in [from, to) whose timestamp is at or after nanos. Timestamps are monotonic, so this is a
+        // binary search over the ring.
+
+        private long seek(long from, long to, final long nanos) {
+            while (from < to) {
+                final long mid = (from + to) >>> 1;
+                if (this.timestamps[(int) (mid & this.mask)] - nanos < 0) {
+                    from = mid + 1;
+                } else {
+                    to = mid;
+                }
+            }
+            return from;
+        }
+
+        // Oldest sequence a reader may look at once head has been read. The writer stores sample head before it
+        // publishes head + 1, so the slot of head - capacity may already be being overwritten.
+
+        private long oldest(final long head) {
+            return Math.max(0, head - this.timestamps.length + 1);
+        }
+
+        // True when the writer has not overwritten any sample from sequence first on since the caller read them.
+
+        private boolean intact(final long first) {
+            // Keeps the ring reads before the call from being satisfied after the head re-read below.
+            VarHandle.acquireFence();
+            return this.head.get() - this.timestamps.length < first;
+        }
+    }
+
+    /* Reusable result of a window query. */
+
+    public static final class WindowStats {
+
+        private long count;
+        private long sum;
+        private short min;
+        private short max;
+
+        private void reset() {
+            this.count = 0;
+            this.sum = 0;
+            this.min = Short.MAX_VALUE;
+            this.max = Short.MIN_VALUE;
+        }
+
+        private void add(final short value) {
+            this.count++;
+            this.sum += value;
+            if (value < this.min) {
+                this.min = value;
+            }
+            if (value > this.max) {
+                this.max = value;
+            }
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public short getMin() {
+            return this.min;
+        }
+
+        public short getMax() {
+            return this.max;
+        }
+
+        public double getMean() {
+            return this.count == 0 ? Double.NaN : (double) this.sum / this.count;
+        }
+
+        @Override
+        public String toString() {
+            return "WindowStats{count=" + this.count + ", min=" + this.min + ", max=" + this.max + ", mean="
+                    + this.getMean() + "}";
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package droneclient;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/* DroneTransport over a connected UDP socket: sends go through the channel from a (preferably direct) buffer and
+ * receives through the socket adaptor with one reused packet, so neither direction allocates. Receives must come from
+ * a single thread. */
+
+public class UdpTransport implements DroneTransport {
+
+    private final DatagramChannel channel;
+    private final DatagramSocket socket;
+    private final DatagramPacket packet = new DatagramPacket(new byte[0], 0);
+    private int soTimeout = -1;
+
+    public UdpTransport(final InetSocketAddress remote) throws IOException {
+        this(DatagramChannel.open().connect(remote));
+    }
+
+    // Wraps an already configured and connected blocking channel, e.g. one with tuned socket options.
+
+    public UdpTransport(final DatagramChannel channel) {
+        if (!channel.isConnected()) {
+            throw new IllegalArgumentException("Channel must be connected");
+        }
+        this.channel = channel;
+        this.socket = channel.socket();
+    }
+
+    public DatagramChannel getChannel() {
+        return this.channel;
+    }
+
+    @Override
+    public void send(final ByteBuffer datagram) throws IOException {
+        this.channel.write(datagram);
+    }
+
+    @Override
+    public int receive(final byte[] buffer, final int offset, final int length, final long timeoutMillis)
+            throws IOException {
+        final int timeout = timeoutMillis < 0 ? 0 : (int) Math.max(1, Math.min(Integer.MAX_VALUE, timeoutMillis));
+        if (timeout != this.soTimeout) {
+            this.socket.setSoTimeout(timeout);
+            this.soTimeout = timeout;
+        }
+        this.packet.setData(buffer, offset, length);
+        try {
+            this.socket.receive(this.packet);
+        } catch (SocketTimeoutException e) {
+            return -1;
+        }
+        return this.packet.getLength();
+    }
+
+    @Override
+    public void setReceiveBufferSize(final int bytes) throws IOException {
+        this.channel.setOption(StandardSocketOptions.SO_RCVBUF, bytes);
+    }
+
+    // Receive buffer actually granted by the kernel, which may differ from the requested size.
+
+    public int getReceiveBufferSize() throws IOException {
+        return this.channel.getOption(StandardSocketOptions.SO_RCVBUF);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.channel.isOpen();
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return this.socket.getRemoteSocketAddress();
+    }
+
+    public SocketAddress getLocalAddress() {
+        return this.socket.getLocalSocketAddress();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
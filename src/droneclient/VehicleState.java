@@ -0,0 +1,201 @@
+package droneclient;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/* Consolidated latest state of one drone: the most recent RAW_IMU, ATTITUDE, ALTITUDE, RC, MOTOR and SERVO values and
+ * the time each was received, for control code that polls "the current state" instead of subscribing to callbacks.
+ *
+ * The state is published through a seqlock. The single writer (the telemetry receive thread) makes the sequence odd,
+ * stores the new values and makes it even again; a reader copies the values between two reads of the sequence and
+ * retries if it saw an odd or changed sequence. Writers therefore never wait, readers never lock or allocate, and a
+ * snapshot always holds the values of whole segments, never half of one update and half of the next. A reader only
+ * retries while an update is in progress, which takes a few dozen stores. */
+
+public class VehicleState {
+
+    private static final VarHandle SEQUENCE;
+
+    static {
+        try {
+            SEQUENCE = MethodHandles.lookup().findVarHandle(VehicleState.class, "sequence", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Slot of each message code, its first payload value in values[] and its number of values.
+    private static final short[] CODES = {
+            DroneClientServer.DroneSegment.RAW_IMU, DroneClientServer.DroneSegment.SERVO,
+            DroneClientServer.DroneSegment.MOTOR, DroneClientServer.DroneSegment.RC,
+            DroneClientServer.DroneSegment.ATTITUDE, DroneClientServer.DroneSegment.ALTITUDE};
+    private static final int[] WIDTHS = {9, 4, 4, 4, 3, 2};
+    private static final int[] OFFSETS = new int[CODES.length];
+    private static final int VALUE_COUNT;
+
+    static {
+        int offset = 0;
+        for (int slot = 0; slot < CODES.length; slot++) {
+            OFFSETS[slot] = offset;
+            offset += WIDTHS[slot];
+        }
+        VALUE_COUNT = offset;
+    }
+
+    private final short[] values = new short[VALUE_COUNT];
+    private final long[] updatedAt = new long[CODES.length];
+
+    // Even while the state is stable, odd while an update is being written; accessed through SEQUENCE.
+    @SuppressWarnings("unused")
+    private volatile long sequence;
+
+    // Stores the segment if it is one of the state's codes; other codes are ignored. Must only be called by one thread
+    // at a time, which DroneClientServer guarantees by calling it from the telemetry receive thread only.
+
+    public void update(final long receivedAt, final DroneSegmentView view) {
+        final int slot = slotOf(view.code());
+        if (slot < 0 || view.payloadLength() < WIDTHS[slot]) {
+            return;
+        }
+        final long current = (long) SEQUENCE.getOpaque(this);
+        SEQUENCE.setOpaque(this, current + 1);
+        // Keeps the value stores below from becoming visible before the odd sequence.
+        VarHandle.releaseFence();
+        final int offset = OFFSETS[slot];
+        for (int i = 0; i < WIDTHS[slot]; i++) {
+            this.values[offset + i] = view.payload(i);
+        }
+        this.updatedAt[slot] = receivedAt;
+        SEQUENCE.setRelease(this, current + 2);
+    }
+
+    // Copies a consistent snapshot of the whole state into snapshot, retrying while an update is in progress, and
+    // returns it. Does not allocate, so one Snapshot can be reused by a control loop on every iteration.
+
+    public Snapshot read(final Snapshot snapshot) {
+        while (true) {
+            final long before = (long) SEQUENCE.getAcquire(this);
+            if ((before & 1) == 0) {
+                System.arraycopy(this.values, 0, snapshot.values, 0, VALUE_COUNT);
+                System.arraycopy(this.updatedAt, 0, snapshot.updatedAt, 0, CODES.length);
+                // Keeps the copies above from being satisfied after the second sequence read.
+                VarHandle.acquireFence();
+                if ((long) SEQUENCE.getOpaque(this) == before) {
+                    snapshot.version = before >>> 1;
+                    return snapshot.decode();
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    // Number of segments stored so far; changes exactly when the state does, so pollers can skip unchanged states.
+
+    public long getVersion() {
+        return (long) SEQUENCE.getAcquire(this) >>> 1;
+    }
+
+    // Whether code is one of the message codes the state keeps.
+
+    public static boolean contains(final short code) {
+        return slotOf(code) >= 0;
+    }
+
+    private static int slotOf(final short code) {
+        for (int slot = 0; slot < CODES.length; slot++) {
+            if (CODES[slot] == code) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /* One reader's copy of the state, decoded into the usual segment types. Owned by the reader: it is only written by
+     * read() on the reader's own thread. */
+
+    public static final class Snapshot {
+
+        public final DroneClientServer.DroneSegment.RawImu rawImu = new DroneClientServer.DroneSegment.RawImu();
+        public final DroneClientServer.DroneSegment.Servo servo = new DroneClientServer.DroneSegment.Servo();
+        public final DroneClientServer.DroneSegment.Motor motor = new DroneClientServer.DroneSegment.Motor();
+        public final DroneClientServer.DroneSegment.Rc rc = new DroneClientServer.DroneSegment.Rc();
+        public final DroneClientServer.DroneSegment.Attitude attitude = new DroneClientServer.DroneSegment.Attitude();
+        public final DroneClientServer.DroneSegment.Altitude altitude = new DroneClientServer.DroneSegment.Altitude();
+
+        private final short[] values = new short[VALUE_COUNT];
+        private final long[] updatedAt = new long[CODES.length];
+        private long version;
+
+        // VehicleState.getVersion() at the time of the snapshot.
+
+        public long getVersion() {
+            return this.version;
+        }
+
+        // System.nanoTime() at which the latest segment with code was received, or 0 if none has been received.
+
+        public long getUpdatedAt(final short code) {
+            final int slot = slotOf(code);
+            if (slot < 0) {
+                throw new IllegalArgumentException("Not part of the vehicle state: " + code);
+            }
+            return this.updatedAt[slot];
+        }
+
+        public boolean has(final short code) {
+            return this.getUpdatedAt(code) != 0;
+        }
+
+        // Nanoseconds since the latest segment with code was received, or Long.MAX_VALUE if none has been received.
+
+        public long getAgeNanos(final short code, final long now) {
+            final long updated = this.getUpdatedAt(code);
+            return updated == 0 ? Long.MAX_VALUE : now - updated;
+        }
+
+        private Snapshot decode() {
+            int i = OFFSETS[0];
+            this.rawImu.accx = this.values[i];
+            this.rawImu.accy = this.values[i + 1];
+            this.rawImu.accz = this.values[i + 2];
+            this.rawImu.gyrx = this.values[i + 3];
+            this.rawImu.gyry = this.values[i + 4];
+            this.rawImu.gyrz = this.values[i + 5];
+            this.rawImu.magx = this.values[i + 6];
+            this.rawImu.magy = this.values[i + 7];
+            this.rawImu.magz = this.values[i + 8];
+            i = OFFSETS[1];
+            this.servo.s1 = this.values[i];
+            this.servo.s2 = this.values[i + 1];
+            this.servo.s3 = this.values[i + 2];
+            this.servo.s4 = this.values[i + 3];
+            i = OFFSETS[2];
+            this.motor.m1 = this.values[i];
+            this.motor.m2 = this.values[i + 1];
+            this.motor.m3 = this.values[i + 2];
+            this.motor.m4 = this.values[i + 3];
+            i = OFFSETS[3];
+            this.rc.roll = this.values[i];
+            this.rc.pitch = this.values[i + 1];
+            this.rc.yaw = this.values[i + 2];
+            this.rc.throttle = this.values[i + 3];
+            i = OFFSETS[4];
+            this.attitude.angx = this.values[i];
+            this.attitude.angy = this.values[i + 1];
+            this.attitude.heading = this.values[i + 2];
+            i = OFFSETS[5];
+            this.altitude.estalt = this.values[i];
+            this.altitude.vario = this.values[i + 1];
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{version=" + this.version
+                    + ", attitude=[" + this.attitude.angx + ", " + this.attitude.angy + ", " + this.attitude.heading
+                    + "], altitude=[" + this.altitude.estalt + ", " + this.altitude.vario
+                    + "], rc=[" + this.rc.roll + ", " + this.rc.pitch + ", " + this.rc.yaw + ", " + this.rc.throttle
+                    + "]}";
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package droneclient;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class DeltaCodecTest {
+
+    private static final short CODE = DroneClientServer.DroneSegment.ATTITUDE;
+
+    private final DeltaCodec.Encoder encoder = new DeltaCodec.Encoder(8);
+    private final DeltaCodec.Decoder decoder = new DeltaCodec.Decoder();
+    private final byte[] decoded = new byte[256];
+
+    @Test
+    void decodesAChainOfDeltas() {
+        for (int i = 0; i < 20; i++) {
+            final short[] values = {(short) (100 + i), (short) (-50 - i), (short) 3600};
+            assertArrayEquals(values, this.decode(this.encode(values)));
+        }
+        assertEquals(0, this.decoder.getDiscardedCount());
+    }
+
+    @Test
+    void discardsDeltasAfterALostDelta() {
+        this.decode(this.encode(new short[] {10, 20, 30}));
+        this.encode(new short[] {11, 21, 31});
+        assertNull(this.decode(this.encode(new short[] {12, 22, 32})));
+        assertNull(this.decode(this.encode(new short[] {13, 23, 33})));
+        assertEquals(2, this.decoder.getDiscardedCount());
+    }
+
+    @Test
+    void discardsDeltasAfterALostFallbackKeyframe() {
+        final short[] first = {1000, 2000, 3000};
+        assertArrayEquals(first, this.decode(this.encode(first)));
+        // Too far from the first frame for a delta to pay off, so this one goes out as a keyframe and is lost.
+        this.encode(new short[] {-30000, 30000, -30000});
+        final byte[] delta = this.encode(new short[] {-29999, 29999, -29999});
+        assertTrue(delta.length < DroneSegmentCodec.HEADER_LENGTH + 6, "expected a delta after the keyframe");
+
+        assertNull(this.decode(delta));
+        assertEquals(1, this.decoder.getDiscardedCount());
+    }
+
+    @Test
+    void resynchronisesOnTheNextKeyframe() {
+        this.decode(this.encode(new short[] {1000, 2000, 3000}));
+        this.encode(new short[] {-30000, 30000, -30000});
+        this.decode(this.encode(new short[] {-29999, 29999, -29999}));
+        short[] values = null;
+        for (int i = 0; i < 8; i++) {
+            values = new short[] {(short) i, (short) -i, 7};
+            final short[] result = this.decode(this.encode(values));
+            if (result != null) {
+                assertArrayEquals(values, result);
+            }
+        }
+        assertArrayEquals(values, this.decode(this.encode(values)));
+    }
+
+    @Test
+    void discardsDeltasSentBeforeAReset() {
+        this.decode(this.encode(new short[] {10, 20, 30}));
+        final byte[] stale = this.encode(new short[] {11, 21, 31});
+        this.encoder.reset();
+        this.decode(this.encode(new short[] {500, 600, 700}));
+        assertNull(this.decode(stale));
+    }
+
+    @Test
+    void discardsDuplicateAndReorderedDeltasWithoutBreakingTheChain() {
+        this.decode(this.encode(new short[] {10, 20, 30}));
+        final byte[] second = this.encode(new short[] {11, 21, 31});
+        final byte[] third = this.encode(new short[] {12, 22, 32});
+        assertArrayEquals(new short[] {11, 21, 31}, this.decode(second));
+        assertArrayEquals(new short[] {12, 22, 32}, this.decode(third));
+        assertNull(this.decode(second));
+        assertNull(this.decode(third));
+        assertArrayEquals(new short[] {13, 23, 33}, this.decode(this.encode(new short[] {13, 23, 33})));
+        assertEquals(2, this.decoder.getDiscardedCount());
+    }
+
+    @Test
+    void discardsALateKeyframe() {
+        final byte[] first = this.encode(new short[] {10, 20, 30});
+        assertArrayEquals(new short[] {10, 20, 30}, this.decode(first));
+        for (int i = 1; i < 12; i++) {
+            final short[] values = {(short) (10 + i), (short) (20 + i), (short) (30 + i)};
+            assertArrayEquals(values, this.decode(this.encode(values)));
+        }
+        assertNull(this.decode(first));
+        assertArrayEquals(new short[] {22, 32, 42}, this.decode(this.encode(new short[] {22, 32, 42})));
+        assertEquals(1, this.decoder.getDiscardedCount());
+    }
+
+    @Test
+    void followsARestartedEncoder() {
+        for (int i = 0; i < 2000; i++) {
+            this.decode(this.encode(new short[] {(short) i, 0, 0}));
+        }
+        final DeltaCodec.Encoder restarted = new DeltaCodec.Encoder(8);
+        final short[] values = {1, 2, 3};
+        final ByteBuffer buffer = restarted.encode(ByteBuffer.allocate(256), CODE, values, values.length);
+        assertArrayEquals(values, this.decode(Arrays.copyOf(buffer.array(), buffer.position())));
+    }
+
+    private byte[] encode(final short[] values) {
+        final ByteBuffer buffer = this.encoder.encode(ByteBuffer.allocate(256), CODE, values, values.length);
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    // Decoded payload values, or null when the decoder discarded the segment.
+
+    private short[] decode(final byte[] segment) {
+        final int length = this.decoder.decode(segment, 0, segment.length, this.decoded, 0);
+        if (length == 0) {
+            return null;
+        }
+        final DroneSegmentView view = new DroneSegmentView().wrap(this.decoded, 0, length);
+        assertEquals(CODE, view.code());
+        final short[] values = new short[view.payloadLength()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = view.payload(i);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,169 @@
+package droneclient;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class DroneSegmentCodecTest {
+
+    private static final short[] CODES = {
+            DroneClientServer.DroneSegment.RAW_IMU, DroneClientServer.DroneSegment.SERVO,
+            DroneClientServer.DroneSegment.MOTOR, DroneClientServer.DroneSegment.RC,
+            DroneClientServer.DroneSegment.ATTITUDE, DroneClientServer.DroneSegment.ALTITUDE,
+            DroneClientServer.DroneSegment.START_TELEMETRY, DroneClientServer.DroneSegment.TELEMETRY_ACCEPTED,
+            DroneClientServer.DroneSegment.END_TELEMETRY, DroneClientServer.DroneSegment.BATCH,
+            DroneClientServer.DroneSegment.SET_RC, DroneClientServer.DroneSegment.ARM,
+            DroneClientServer.DroneSegment.DISARM, DroneClientServer.DroneSegment.START_CONNECTION,
+            DroneClientServer.DroneSegment.CONNECTION_ACCEPTED, DroneClientServer.DroneSegment.END_CONNECTION};
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(DroneSegmentCodec.MAX_DATAGRAM_LENGTH);
+
+    @Test
+    void roundTripsEveryCode() {
+        final short[] payload = {1, -2, 300, Short.MIN_VALUE, Short.MAX_VALUE};
+        for (final short code : CODES) {
+            this.buffer.clear();
+            DroneSegmentCodec.encode(this.buffer, code, payload, payload.length);
+            assertEquals(DroneSegmentCodec.HEADER_LENGTH + payload.length * 2, this.buffer.position());
+
+            final DroneClientServer.DroneSegment segment = this.decode();
+            assertEquals(code, segment.code);
+            assertEquals(payload.length * 2, segment.size);
+            assertArrayEquals(payload, segment.payload);
+            assertArrayEquals(this.bytes(), segment.toBytes());
+            assertArrayEquals(payload, new DroneClientServer.DroneSegment(segment.toBytes()).payload);
+        }
+    }
+
+    @Test
+    void roundTripsCommands() {
+        DroneSegmentCodec.encodeCommand(this.buffer, DroneClientServer.DroneSegment.ARM);
+        DroneClientServer.DroneSegment segment = this.decode();
+        assertEquals(DroneClientServer.DroneSegment.ARM, segment.code);
+        assertArrayEquals(new short[] {0}, segment.payload);
+
+        this.buffer.clear();
+        DroneSegmentCodec.encodeCommand(this.buffer, DroneClientServer.DroneSegment.START_CONNECTION,
+                DroneClientServer.DroneSegment.FEATURE_BATCH);
+        segment = this.decode();
+        assertEquals(DroneClientServer.DroneSegment.START_CONNECTION, segment.code);
+        assertArrayEquals(new short[] {DroneClientServer.DroneSegment.FEATURE_BATCH}, segment.payload);
+
+        this.buffer.clear();
+        DroneSegmentCodec.encodeSetRc(this.buffer, (short) 1500, (short) 1400, (short) -1, (short) 1000);
+        segment = this.decode();
+        assertEquals(DroneClientServer.DroneSegment.SET_RC, segment.code);
+        assertEquals(8, segment.size);
+        assertArrayEquals(new short[] {1500, 1400, -1, 1000}, segment.payload);
+    }
+
+    @Test
+    void roundTripsTypedRecords() {
+        final DroneClientServer.DroneSegment.RawImu rawImu =
+                new DroneClientServer.DroneSegment.RawImu(new short[] {1, 2, 3, -4, -5, -6, 700, 800, 900});
+        final DroneClientServer.DroneSegment.RawImu readImu = new DroneClientServer.DroneSegment.RawImu()
+                .read(this.view(rawImu.writeTo(this.buffer), DroneClientServer.DroneSegment.RAW_IMU, 18));
+        assertArrayEquals(new short[] {1, 2, 3, -4, -5, -6, 700, 800, 900}, new short[] {readImu.accx, readImu.accy,
+                readImu.accz, readImu.gyrx, readImu.gyry, readImu.gyrz, readImu.magx, readImu.magy, readImu.magz});
+
+        final DroneClientServer.DroneSegment.Altitude altitude =
+                new DroneClientServer.DroneSegment.Altitude(new short[] {1234, -56});
+        final DroneClientServer.DroneSegment.Altitude readAltitude = new DroneClientServer.DroneSegment.Altitude()
+                .read(this.view(altitude.writeTo(this.clear()), DroneClientServer.DroneSegment.ALTITUDE, 4));
+        assertEquals(1234, readAltitude.estalt);
+        assertEquals(-56, readAltitude.vario);
+
+        final DroneClientServer.DroneSegment.Attitude attitude =
+                new DroneClientServer.DroneSegment.Attitude(new short[] {-120, 45, 3599});
+        final DroneClientServer.DroneSegment.Attitude readAttitude = new DroneClientServer.DroneSegment.Attitude()
+                .read(this.view(attitude.writeTo(this.clear()), DroneClientServer.DroneSegment.ATTITUDE, 6));
+        assertEquals(-120, readAttitude.angx);
+        assertEquals(45, readAttitude.angy);
+        assertEquals(3599, readAttitude.heading);
+
+        final DroneClientServer.DroneSegment.Rc rc =
+                new DroneClientServer.DroneSegment.Rc(new short[] {1500, 1501, 1502, 1100});
+        final DroneClientServer.DroneSegment.Rc readRc = new DroneClientServer.DroneSegment.Rc()
+                .read(this.view(rc.writeTo(this.clear()), DroneClientServer.DroneSegment.RC, 8));
+        assertArrayEquals(new short[] {1500, 1501, 1502, 1100},
+                new short[] {readRc.roll, readRc.pitch, readRc.yaw, readRc.throttle});
+
+        final DroneClientServer.DroneSegment.Motor motor =
+                new DroneClientServer.DroneSegment.Motor(new short[] {1000, 1100, 1200, 2000});
+        final DroneClientServer.DroneSegment.Motor readMotor = new DroneClientServer.DroneSegment.Motor()
+                .read(this.view(motor.writeTo(this.clear()), DroneClientServer.DroneSegment.MOTOR, 8));
+        assertArrayEquals(new short[] {1000, 1100, 1200, 2000},
+                new short[] {readMotor.m1, readMotor.m2, readMotor.m3, readMotor.m4});
+
+        final DroneClientServer.DroneSegment.Servo servo =
+                new DroneClientServer.DroneSegment.Servo(new short[] {1520, -1, 0, 1480});
+        final DroneClientServer.DroneSegment.Servo readServo = new DroneClientServer.DroneSegment.Servo()
+                .read(this.view(servo.writeTo(this.clear()), DroneClientServer.DroneSegment.SERVO, 8));
+        assertArrayEquals(new short[] {1520, -1, 0, 1480},
+                new short[] {readServo.s1, readServo.s2, readServo.s3, readServo.s4});
+    }
+
+    @Test
+    void walksTheSegmentsOfABatch() {
+        final int start = DroneSegmentCodec.beginBatch(this.buffer);
+        assertFalse(DroneSegmentCodec.endBatch(this.buffer, start));
+
+        new DroneClientServer.DroneSegment.Attitude(new short[] {1, 2, 3}).writeTo(this.buffer);
+        new DroneClientServer.DroneSegment.Altitude(new short[] {4, 5}).writeTo(this.buffer);
+        assertTrue(DroneSegmentCodec.endBatch(this.buffer, start));
+
+        final byte[] bytes = this.bytes();
+        final DroneSegmentView batch = new DroneSegmentView().wrap(bytes, 0, bytes.length);
+        assertEquals(DroneClientServer.DroneSegment.BATCH, batch.code());
+        assertEquals(10 + 8, batch.size());
+
+        int offset = DroneSegmentCodec.HEADER_LENGTH;
+        final int first = DroneSegmentCodec.segmentLength(bytes, offset, bytes.length);
+        assertEquals(10, first);
+        assertEquals(DroneClientServer.DroneSegment.ATTITUDE, DroneSegmentView.code(bytes, offset));
+        offset += first;
+        assertEquals(8, DroneSegmentCodec.segmentLength(bytes, offset, bytes.length));
+        assertEquals(DroneClientServer.DroneSegment.ALTITUDE, DroneSegmentView.code(bytes, offset));
+        assertEquals(0, DroneSegmentCodec.segmentLength(bytes, offset + 8, bytes.length));
+    }
+
+    @Test
+    void decodesTheShortsOfATruncatedSegment() {
+        new DroneClientServer.DroneSegment.RawImu(new short[] {1, 2, 3, 4, 5, 6, 7, 8, 9}).writeTo(this.buffer);
+        final byte[] truncated = Arrays.copyOf(this.bytes(), DroneSegmentCodec.HEADER_LENGTH + 7);
+        final DroneClientServer.DroneSegment segment = DroneSegmentCodec.decode(truncated, 0, truncated.length);
+        assertEquals(18, segment.size);
+        assertArrayEquals(new short[] {1, 2, 3}, segment.payload);
+    }
+
+    private ByteBuffer clear() {
+        this.buffer.clear();
+        return this.buffer;
+    }
+
+    private byte[] bytes() {
+        return Arrays.copyOf(this.buffer.array(), this.buffer.position());
+    }
+
+    private DroneClientServer.DroneSegment decode() {
+        final byte[] bytes = this.bytes();
+        return DroneSegmentCodec.decode(bytes, 0, bytes.length);
+    }
+
+    // A view over the segment just written, checked against the header the record is expected to produce.
+
+    private DroneSegmentView view(final ByteBuffer written, final short code, final int size) {
+        final byte[] bytes = Arrays.copyOf(written.array(), written.position());
+        final DroneSegmentView view = new DroneSegmentView().wrap(bytes, 0, bytes.length);
+        assertEquals(code, view.code());
+        assertEquals(size, view.size());
+        assertEquals(DroneSegmentCodec.HEADER_LENGTH + size, bytes.length);
+        return view;
+    }
+}
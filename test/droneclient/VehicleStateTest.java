@@ -0,0 +1,102 @@
+package droneclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+class VehicleStateTest {
+
+    private static final int UPDATES = 500_000;
+    private static final int READERS = 3;
+
+    @Test
+    void readsTheLatestValuesOfEachCode() {
+        final VehicleState state = new VehicleState();
+        final VehicleState.Snapshot snapshot = new VehicleState.Snapshot();
+        assertFalse(state.read(snapshot).has(DroneClientServer.DroneSegment.ATTITUDE));
+
+        state.update(42, attitude(new byte[10], 7));
+        state.update(43, segment(DroneClientServer.DroneSegment.ALTITUDE, new short[] {120, -3}));
+        state.read(snapshot);
+        assertEquals(7, snapshot.attitude.angx);
+        assertEquals(120, snapshot.altitude.estalt);
+        assertEquals(-3, snapshot.altitude.vario);
+        assertEquals(42, snapshot.getUpdatedAt(DroneClientServer.DroneSegment.ATTITUDE));
+        assertEquals(2, snapshot.getVersion());
+    }
+
+    // One writer stores ATTITUDE segments whose three values are all equal while readers take snapshots; a torn
+    // snapshot would mix the values of two updates.
+
+    @Test
+    void snapshotsAreNeverTorn() throws InterruptedException {
+        final VehicleState state = new VehicleState();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicLong snapshots = new AtomicLong();
+        final AtomicReference<String> torn = new AtomicReference<>();
+        final Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < READERS; r++) {
+            readers[r] = new Thread(() -> {
+                final VehicleState.Snapshot snapshot = new VehicleState.Snapshot();
+                long lastVersion = 0;
+                while (writing.get() && torn.get() == null) {
+                    state.read(snapshot);
+                    final DroneClientServer.DroneSegment.Attitude attitude = snapshot.attitude;
+                    final long updatedAt = snapshot.getUpdatedAt(DroneClientServer.DroneSegment.ATTITUDE);
+                    final boolean whole = attitude.angx == attitude.angy && attitude.angy == attitude.heading
+                            && updatedAt == attitude.angx + 1;
+                    if ((snapshot.getVersion() > 0 && !whole) || snapshot.getVersion() < lastVersion) {
+                        torn.set(snapshot + " updatedAt=" + updatedAt);
+                    }
+                    lastVersion = snapshot.getVersion();
+                    snapshots.incrementAndGet();
+                }
+            });
+            readers[r].start();
+        }
+
+        final byte[] buffer = new byte[10];
+        for (int i = 0; i < UPDATES; i++) {
+            final short value = (short) i;
+            state.update(value + 1, attitude(buffer, value));
+        }
+        writing.set(false);
+        for (final Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(torn.get());
+        assertTrue(snapshots.get() > 0);
+        assertEquals(UPDATES, state.getVersion());
+    }
+
+    private static DroneSegmentView attitude(final byte[] buffer, final int value) {
+        buffer[0] = 0;
+        buffer[1] = (byte) DroneClientServer.DroneSegment.ATTITUDE;
+        buffer[2] = 0;
+        buffer[3] = 6;
+        for (int i = 0; i < 3; i++) {
+            buffer[4 + i * 2] = (byte) (value >>> 8);
+            buffer[5 + i * 2] = (byte) value;
+        }
+        return new DroneSegmentView().wrap(buffer, 0, buffer.length);
+    }
+
+    private static DroneSegmentView segment(final short code, final short[] payload) {
+        final byte[] buffer = new byte[4 + payload.length * 2];
+        buffer[0] = (byte) (code >>> 8);
+        buffer[1] = (byte) code;
+        buffer[3] = (byte) (payload.length * 2);
+        for (int i = 0; i < payload.length; i++) {
+            buffer[4 + i * 2] = (byte) (payload[i] >>> 8);
+            buffer[5 + i * 2] = (byte) payload[i];
+        }
+        return new DroneSegmentView().wrap(buffer, 0, buffer.length);
+    }
+}